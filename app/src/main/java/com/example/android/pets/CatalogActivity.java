@@ -15,10 +15,16 @@
  */
 package com.example.android.pets;
 
+import android.app.ProgressDialog;
+import android.content.AsyncQueryHandler;
+import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.DialogInterface;
 import android.content.Intent;
+import android.database.AbstractCursor;
 import android.database.Cursor;
+import android.database.MergeCursor;
 import android.net.Uri;
 import android.os.Bundle;
 import android.support.annotation.NonNull;
@@ -28,24 +34,157 @@ import android.support.v4.app.LoaderManager;
 import android.support.v4.content.CursorLoader;
 import android.support.v4.content.Loader;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.SearchView;
+import android.text.TextUtils;
 import android.util.Log;
+import android.util.SparseIntArray;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
+import android.widget.AbsListView;
 import android.widget.AdapterView;
 import android.widget.ListView;
 import android.widget.Toast;
 
 import com.example.android.pets.data.PetContract;
 import com.example.android.pets.data.PetContract.PetsEntry;
+import com.example.android.pets.data.PetImporter;
+import com.example.android.pets.data.PetWriter;
+
+import java.io.File;
+import java.util.ArrayList;
 
 /**
  * Displays list of pets that were entered and stored in the app.
  */
 public class CatalogActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<Cursor> {
     public static final int PET_LOADER = 0;
+
+    /**
+     * Loader of the section index of the list sorted by name, apart from the page loaders,
+     * which count up from PET_LOADER.
+     */
+    private static final int SECTIONS_LOADER = -1;
+
+    /**
+     * Number of pets fetched per page. Each page is loaded by its own loader, with id
+     * PET_LOADER + page index, so only the pages the user has scrolled to are ever queried.
+     */
+    private static final int PAGE_SIZE = 100;
+
+    /**
+     * Pages kept loaded on either side of the visible ones. Pages further away are evicted:
+     * their loaders are destroyed, so their cursors are closed and no longer requeried, and
+     * they are loaded again when scrolled back to. The list sorted by name closes the pages
+     * of its {@link PetSectionCursor} the same way.
+     */
+    private static final int KEEP_PAGES = 2;
+
+    /**
+     * Request code of the file picker for importing pets.
+     */
+    private static final int REQUEST_IMPORT = 1;
+
+    /**
+     * Bundle keys of the _ID and sort key the page loader starts after.
+     */
+    private static final String ARG_AFTER_ID = "after_id";
+    private static final String ARG_AFTER_KEY = "after_key";
+
+    private static final String STATE_SEARCH_QUERY = "search_query";
+    private static final String STATE_FILTER = "filter";
+    private static final String STATE_SORT_BY_NAME = "sort_by_name";
+
+    /**
+     * Heaviest weight, in kg, shown by the "Light pets" filter; heavier pets are shown by the
+     * "Heavy pets" filter.
+     */
+    private static final int LIGHT_MAX_WEIGHT = 9;
+
+    /**
+     * Columns of the rows of the list. Weight is read for the next page of weight filters to
+     * start after.
+     */
+    private static final String[] LIST_PROJECTION = new String[]{PetsEntry._ID,
+            PetsEntry.COLUMN_PET_NAME,
+            PetsEntry.COLUMN_PET_BREED,
+            PetsEntry.COLUMN_PET_WEIGHT,
+            PetsEntry.COLUMN_PET_PHOTO_VERSION};
+
     private PetCursorAdapter mPetCursorAdapter;
 
+    /**
+     * Cursors of the loaded pages, indexed by page. Entries are null while a page is loading.
+     */
+    private final ArrayList<Cursor> mPages = new ArrayList<>();
+
+    /**
+     * Pet each requested page starts after, indexed by page.
+     */
+    private final ArrayList<PageStart> mPageStarts = new ArrayList<>();
+
+    /**
+     * Number of rows of the evicted pages, shown blank until they are loaded again, keyed by
+     * page.
+     */
+    private final SparseIntArray mEvictedPages = new SparseIntArray();
+
+    /**
+     * Sort key and _ID of the last pet of a page, which the next page starts after. The key is
+     * null for lists sorted by _ID, and for the first page.
+     */
+    private static final class PageStart {
+        static final PageStart FIRST = new PageStart(null, 0);
+
+        final String afterKey;
+        final long afterId;
+
+        PageStart(String afterKey, long afterId) {
+            this.afterKey = afterKey;
+            this.afterId = afterId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof PageStart)) {
+                return false;
+            }
+            PageStart other = (PageStart) o;
+            return afterId == other.afterId && TextUtils.equals(afterKey, other.afterKey);
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) afterId;
+        }
+    }
+
+    /**
+     * Every pet sorted by name, shown with its section index, or null while another list is
+     * shown. Its pages are queried by mPageQueryHandler rather than by loaders, as a jump may
+     * need any of them; queries started for an older index carry an older generation.
+     */
+    private PetSectionCursor mSectionCursor;
+    private PageQueryHandler mPageQueryHandler;
+    private int mPageGeneration;
+
+    /**
+     * Text typed into the search field, or null to list every pet.
+     */
+    private String mSearchQuery;
+
+    /**
+     * Menu id of the chosen filter, and whether the pets are sorted by name instead of in the
+     * order they were added.
+     */
+    private int mFilter = R.id.action_filter_all;
+    private boolean mSortByName;
+
+    /**
+     * Progress of a running "Delete all pets" or import, or null.
+     */
+    private ProgressDialog mProgressDialog;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -69,19 +208,382 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
 
         mPetCursorAdapter = new PetCursorAdapter(this, null);
         listView.setAdapter(mPetCursorAdapter);
+        mPetCursorAdapter.registerRowObserver();
 
         listView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
             @Override
             public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
+                if (id == 0) {
+                    // Its page is still loading
+                    return;
+                }
                 Intent intent = new Intent(CatalogActivity.this, EditorActivity.class);
                 intent.setData(ContentUris.withAppendedId(PetsEntry.CONTENT_URI, id));
                 startActivity(intent);
             }
         });
 
-        // Prepare the loader.  Either re-connect with an existing one,
-        // or start a new one.
-        getSupportLoaderManager().initLoader(0, null, this);
+        mPageQueryHandler = new PageQueryHandler(getContentResolver(), this);
+
+        // The loaders outlive a configuration change, and keep loading the list they were
+        // started for
+        if (savedInstanceState != null) {
+            mSearchQuery = savedInstanceState.getString(STATE_SEARCH_QUERY);
+            mFilter = savedInstanceState.getInt(STATE_FILTER, mFilter);
+            mSortByName = savedInstanceState.getBoolean(STATE_SORT_BY_NAME);
+        }
+
+        // Prepare the loader for the first page, or for the section index of the list sorted
+        // by name. Either re-connect with an existing one, or start a new one.
+        if (isSectioned()) {
+            getSupportLoaderManager().initLoader(SECTIONS_LOADER, null, this);
+        } else {
+            loadPage(0, PageStart.FIRST);
+        }
+
+        // Fetch the next page once the user scrolls close to the end of the loaded ones, and
+        // only keep the pages around the visible rows. Set once the first page is requested,
+        // as the list calls it right away.
+        listView.setOnScrollListener(new AbsListView.OnScrollListener() {
+            @Override
+            public void onScrollStateChanged(AbsListView view, int scrollState) {
+            }
+
+            @Override
+            public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount,
+                                 int totalItemCount) {
+                if (mSectionCursor != null) {
+                    // The list sorted by name loads its own pages
+                    mSectionCursor.trimPages(firstVisibleItem, visibleItemCount, KEEP_PAGES);
+                    return;
+                }
+                trimPages(firstVisibleItem, visibleItemCount);
+                if (firstVisibleItem + visibleItemCount >= totalItemCount - PAGE_SIZE / 2) {
+                    loadNextPage();
+                }
+            }
+        });
+    }
+
+    /**
+     * Start the loader of the given page, or restart it if the page now starts after a
+     * different pet than it was loaded with.
+     */
+    private void loadPage(int page, PageStart start) {
+        Bundle args = new Bundle();
+        args.putLong(ARG_AFTER_ID, start.afterId);
+        args.putString(ARG_AFTER_KEY, start.afterKey);
+        if (page < mPageStarts.size()) {
+            if (mPageStarts.get(page).equals(start)) {
+                return;
+            }
+            mPageStarts.set(page, start);
+            if (mEvictedPages.indexOfKey(page) >= 0 && getSupportLoaderManager().getLoader(PET_LOADER + page) == null) {
+                // Loaded from its new start once it is scrolled back to
+                return;
+            }
+            getSupportLoaderManager().restartLoader(PET_LOADER + page, args, this);
+        } else {
+            mPageStarts.add(start);
+            mPages.add(null);
+            getSupportLoaderManager().initLoader(PET_LOADER + page, args, this);
+        }
+    }
+
+    /**
+     * Evict the loaded pages more than {@link #KEEP_PAGES} away from the visible rows, and
+     * load the evicted pages that came back within that distance. Every page but the last
+     * holds PAGE_SIZE rows, so the page of a row is its position divided by PAGE_SIZE.
+     */
+    private void trimPages(int firstVisibleItem, int visibleItemCount) {
+        int firstKept = firstVisibleItem / PAGE_SIZE - KEEP_PAGES;
+        int lastKept = (firstVisibleItem + visibleItemCount) / PAGE_SIZE + KEEP_PAGES;
+        for (int page = 0; page < mPages.size(); page++) {
+            boolean kept = page >= firstKept && page <= lastKept;
+            Cursor cursor = mPages.get(page);
+            if (!kept && cursor != null) {
+                mEvictedPages.put(page, cursor.getCount());
+                // Resets the page, which shows it blank
+                getSupportLoaderManager().destroyLoader(PET_LOADER + page);
+            } else if (kept && cursor == null && mEvictedPages.indexOfKey(page) >= 0
+                    && getSupportLoaderManager().getLoader(PET_LOADER + page) == null) {
+                PageStart start = mPageStarts.get(page);
+                Bundle args = new Bundle();
+                args.putLong(ARG_AFTER_ID, start.afterId);
+                args.putString(ARG_AFTER_KEY, start.afterKey);
+                getSupportLoaderManager().initLoader(PET_LOADER + page, args, this);
+            }
+        }
+    }
+
+    /**
+     * Drop every loaded page and load the first one again, e.g. after the search text, the
+     * filter or the sort order changed. The list of every pet by name loads its section index
+     * instead, and then the pages shown.
+     */
+    private void restartPages() {
+        if (isSectioned()) {
+            for (int page = mPageStarts.size() - 1; page >= 0; page--) {
+                getSupportLoaderManager().destroyLoader(PET_LOADER + page);
+            }
+            mPages.clear();
+            mPageStarts.clear();
+            mEvictedPages.clear();
+            getSupportLoaderManager().restartLoader(SECTIONS_LOADER, null, this);
+            return;
+        }
+        getSupportLoaderManager().destroyLoader(SECTIONS_LOADER);
+        dropSections();
+        for (int page = mPageStarts.size() - 1; page > 0; page--) {
+            getSupportLoaderManager().destroyLoader(PET_LOADER + page);
+        }
+        mPages.clear();
+        mPageStarts.clear();
+        mEvictedPages.clear();
+        mPageStarts.add(PageStart.FIRST);
+        mPages.add(null);
+        Bundle args = new Bundle();
+        args.putLong(ARG_AFTER_ID, 0);
+        args.putString(ARG_AFTER_KEY, null);
+        getSupportLoaderManager().restartLoader(PET_LOADER, args, this);
+    }
+
+    /**
+     * Request the page after the last loaded one, unless it is already requested or the last
+     * page showed that the end of the table was reached.
+     */
+    private void loadNextPage() {
+        int lastPage = mPageStarts.size() - 1;
+        if (lastPage < 0) {
+            // The list sorted by name loads its own pages
+            return;
+        }
+        Cursor cursor = mPages.get(lastPage);
+        if (cursor != null && cursor.getCount() == PAGE_SIZE) {
+            loadPage(lastPage + 1, getPageEnd(cursor));
+        }
+    }
+
+    /**
+     * Return the start of the page following the given one.
+     */
+    private PageStart getPageEnd(Cursor cursor) {
+        cursor.moveToLast();
+        long id = cursor.getLong(cursor.getColumnIndex(PetsEntry._ID));
+        String sortColumn = PetsEntry.getSortColumn(getListUri());
+        return new PageStart(sortColumn == null ? null : cursor.getString(cursor.getColumnIndex(sortColumn)), id);
+    }
+
+    /**
+     * Return the URI of the list to show: the search results, or the pets passing the filter
+     * in the chosen order. Searches ignore the filter and sort order, and weight filters always
+     * list the lightest pets first.
+     */
+    private Uri getListUri() {
+        if (mSearchQuery != null) {
+            return PetsEntry.buildSearchUri(mSearchQuery);
+        }
+        Uri uri;
+        switch (mFilter) {
+            case R.id.action_filter_male:
+                uri = PetsEntry.buildGenderUri(PetsEntry.GENDER_MALE);
+                break;
+            case R.id.action_filter_female:
+                uri = PetsEntry.buildGenderUri(PetsEntry.GENDER_FEMALE);
+                break;
+            case R.id.action_filter_light:
+                return PetsEntry.buildWeightUri(0, LIGHT_MAX_WEIGHT);
+            case R.id.action_filter_heavy:
+                return PetsEntry.buildWeightUri(LIGHT_MAX_WEIGHT + 1, Integer.MAX_VALUE);
+            default:
+                uri = PetsEntry.CONTENT_URI;
+                break;
+        }
+        return mSortByName ? PetsEntry.buildSortedUri(uri, PetContract.SORT_NAME) : uri;
+    }
+
+    /**
+     * Return whether every pet is listed by name, the list with a section index.
+     */
+    private boolean isSectioned() {
+        return mSearchQuery == null && mFilter == R.id.action_filter_all && mSortByName;
+    }
+
+    /**
+     * Show every pet sorted by name with the given section index. The pages already loaded
+     * are kept if the sections still hold the same number of pets, and loaded again in place,
+     * since a renamed pet may have moved within its section. New photos are patched into the
+     * rows by the adapter, without reading the sections again.
+     */
+    private void showSections(Cursor sections) {
+        PetSectionCursor cursor = new PetSectionCursor(LIST_PROJECTION, sections, PAGE_SIZE,
+                new PetSectionCursor.PageRequester() {
+                    @Override
+                    public void requestPage(int pageStart, String section, int offset, int pageSize) {
+                        mPageQueryHandler.startQuery(mPageGeneration, pageStart,
+                                PetsEntry.buildSectionPageUri(section, offset, pageSize),
+                                LIST_PROJECTION, null, null, null);
+                    }
+                });
+        if (mSectionCursor != null && mSectionCursor.hasSameSections(cursor)) {
+            cursor.close();
+            mSectionCursor.reloadPages();
+            return;
+        }
+        dropSections();
+        mSectionCursor = cursor;
+        mPetCursorAdapter.swapCursor(cursor);
+        // Set again so the fast scroller reads the new sections
+        ListView listView = findViewById(R.id.list_view);
+        listView.setFastScrollEnabled(false);
+        listView.setFastScrollEnabled(true);
+    }
+
+    /**
+     * Stop showing the list sorted by name, dropping its pages and the queries of its pages.
+     */
+    private void dropSections() {
+        if (mSectionCursor == null) {
+            return;
+        }
+        mPageQueryHandler.cancelOperation(mPageGeneration);
+        mPageGeneration++;
+        if (mPetCursorAdapter.getCursor() == mSectionCursor) {
+            mPetCursorAdapter.swapCursor(null);
+        }
+        mSectionCursor.close();
+        mSectionCursor = null;
+        ListView listView = findViewById(R.id.list_view);
+        listView.setFastScrollEnabled(false);
+    }
+
+    private void onSectionPageLoaded(int generation, int pageStart, Cursor page) {
+        if (generation != mPageGeneration || mSectionCursor == null) {
+            page.close();
+            return;
+        }
+        mPetCursorAdapter.onPageLoaded(page);
+        mSectionCursor.setPage(pageStart, page);
+        mPetCursorAdapter.notifyDataSetChanged();
+    }
+
+    private static class PageQueryHandler extends AsyncQueryHandler {
+        private final CatalogActivity mActivity;
+
+        PageQueryHandler(ContentResolver cr, CatalogActivity activity) {
+            super(cr);
+            mActivity = activity;
+        }
+
+        @Override
+        protected void onQueryComplete(int token, Object cookie, Cursor cursor) {
+            if (cursor != null) {
+                mActivity.onSectionPageLoaded(token, (Integer) cookie, cursor);
+            }
+        }
+    }
+
+    /**
+     * Show the consecutive pages loaded so far as a single cursor, with blank rows for the
+     * evicted ones.
+     */
+    private void showPages() {
+        if (mSectionCursor != null) {
+            return;
+        }
+        ArrayList<Cursor> loaded = new ArrayList<>();
+        for (int i = 0; i < mPages.size(); i++) {
+            Cursor page = mPages.get(i);
+            if (page == null) {
+                int evictedCount = mEvictedPages.get(i, -1);
+                if (evictedCount < 0) {
+                    break;
+                }
+                page = new BlankPage(LIST_PROJECTION, evictedCount);
+            }
+            loaded.add(page);
+        }
+        mPetCursorAdapter.swapCursor(loaded.isEmpty()
+                ? null : new MergeCursor(loaded.toArray(new Cursor[loaded.size()])));
+    }
+
+    /**
+     * Rows of an evicted page, which read as null, including their _ID, like the rows of
+     * unloaded pages of a {@link PetSectionCursor}. Holds nothing but its size.
+     */
+    private static final class BlankPage extends AbstractCursor {
+        private final String[] mColumns;
+        private final int mCount;
+
+        BlankPage(String[] columns, int count) {
+            mColumns = columns;
+            mCount = count;
+        }
+
+        @Override
+        public int getCount() {
+            return mCount;
+        }
+
+        @Override
+        public String[] getColumnNames() {
+            return mColumns;
+        }
+
+        @Override
+        public String getString(int column) {
+            return null;
+        }
+
+        @Override
+        public short getShort(int column) {
+            return 0;
+        }
+
+        @Override
+        public int getInt(int column) {
+            return 0;
+        }
+
+        @Override
+        public long getLong(int column) {
+            return 0;
+        }
+
+        @Override
+        public float getFloat(int column) {
+            return 0;
+        }
+
+        @Override
+        public double getDouble(int column) {
+            return 0;
+        }
+
+        @Override
+        public boolean isNull(int column) {
+            return true;
+        }
+    }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putString(STATE_SEARCH_QUERY, mSearchQuery);
+        outState.putInt(STATE_FILTER, mFilter);
+        outState.putBoolean(STATE_SORT_BY_NAME, mSortByName);
+    }
+
+    @Override
+    protected void onDestroy() {
+        mPetCursorAdapter.unregisterRowObserver();
+        dropSections();
+        // The delete itself keeps running; only its progress is no longer shown
+        if (mProgressDialog != null) {
+            mProgressDialog.dismiss();
+            mProgressDialog = null;
+        }
+        super.onDestroy();
     }
 
     private void insertPet() {
@@ -90,12 +592,16 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
         contentValues.put(PetsEntry.COLUMN_PET_BREED, "Terrier");
         contentValues.put(PetsEntry.COLUMN_PET_GENDER, PetsEntry.GENDER_MALE);
         contentValues.put(PetsEntry.COLUMN_PET_WEIGHT, 7);
-        Uri uri = getContentResolver().insert(PetsEntry.CONTENT_URI, contentValues);
-        if (uri == null) {
-            Toast.makeText(this, R.string.error_with_saving_pet, Toast.LENGTH_SHORT).show();
-        } else {
-            Toast.makeText(this, R.string.pet_saved, Toast.LENGTH_SHORT).show();
-        }
+        PetWriter.getInstance(this).insert(PetsEntry.CONTENT_URI, contentValues, new PetWriter.InsertCallback() {
+            @Override
+            public void onInsertComplete(Uri uri) {
+                if (uri == null) {
+                    Toast.makeText(getApplicationContext(), R.string.error_with_saving_pet, Toast.LENGTH_SHORT).show();
+                } else {
+                    Toast.makeText(getApplicationContext(), R.string.pet_saved, Toast.LENGTH_SHORT).show();
+                }
+            }
+        });
     }
 
     @Override
@@ -103,6 +609,34 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
         // Inflate the menu options from the res/menu/menu_catalog.xml file.
         // This adds menu items to the app bar.
         getMenuInflater().inflate(R.menu.menu_catalog, menu);
+        menu.findItem(mFilter).setChecked(true);
+        menu.findItem(R.id.action_sort_by_name).setChecked(mSortByName);
+
+        // Search as the user types, restarting the paged list for every change of the text
+        MenuItem searchItem = menu.findItem(R.id.action_search);
+        SearchView searchView = (SearchView) searchItem.getActionView();
+        searchView.setQueryHint(getString(R.string.search_hint));
+        if (mSearchQuery != null) {
+            // Show the search the list was restored with
+            searchItem.expandActionView();
+            searchView.setQuery(mSearchQuery, false);
+        }
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                return false;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                String query = TextUtils.isEmpty(newText) ? null : newText;
+                if (!TextUtils.equals(query, mSearchQuery)) {
+                    mSearchQuery = query;
+                    restartPages();
+                }
+                return true;
+            }
+        });
         return true;
     }
 
@@ -115,10 +649,47 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
                 // Do nothing for now
                 insertPet();
                 return true;
+            // Respond to a click on one of the filters
+            case R.id.action_filter_all:
+            case R.id.action_filter_male:
+            case R.id.action_filter_female:
+            case R.id.action_filter_light:
+            case R.id.action_filter_heavy:
+                item.setChecked(true);
+                if (mFilter != item.getItemId()) {
+                    mFilter = item.getItemId();
+                    restartPages();
+                }
+                return true;
+            // Respond to a click on the "Sort by name" menu option
+            case R.id.action_sort_by_name:
+                mSortByName = !mSortByName;
+                item.setChecked(mSortByName);
+                restartPages();
+                return true;
             // Respond to a click on the "Delete all entries" menu option
             case R.id.action_delete_all_entries:
                 deleteAllPets();
                 return true;
+            // Respond to a click on the "Import pets" menu option
+            case R.id.action_import:
+                Intent intent = new Intent(Intent.ACTION_GET_CONTENT);
+                intent.setType("*/*");
+                intent.addCategory(Intent.CATEGORY_OPENABLE);
+                // Only narrows down the picker from KitKat on; older ones offer every file
+                intent.putExtra(Intent.EXTRA_MIME_TYPES, new String[]{
+                        "text/csv", "text/comma-separated-values", "application/json"});
+                startActivityForResult(intent, REQUEST_IMPORT);
+                return true;
+            // Respond to a click on the "Export pets" menu option
+            case R.id.action_export:
+                // The receiving app streams the export straight from the provider
+                Intent share = new Intent(Intent.ACTION_SEND);
+                share.setType(PetsEntry.EXPORT_CSV_TYPE);
+                share.putExtra(Intent.EXTRA_STREAM, PetsEntry.buildExportUri(PetContract.FORMAT_CSV));
+                share.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
+                startActivity(Intent.createChooser(share, getString(R.string.action_export)));
+                return true;
         }
         return super.onOptionsItemSelected(item);
     }
@@ -126,13 +697,19 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
     @NonNull
     @Override
     public Loader<Cursor> onCreateLoader(int i, @Nullable Bundle bundle) {
-        String[] projection = new String[]{PetsEntry._ID,
-                PetsEntry.COLUMN_PET_NAME,
-                PetsEntry.COLUMN_PET_BREED};
+        if (i == SECTIONS_LOADER) {
+            // Reloaded on every change of a pet; the index is a few dozen rows of a summary
+            // table, so that costs the same however many pets there are
+            return new CursorLoader(this, PetContract.PetSectionsEntry.CONTENT_URI, null, null, null, null);
+        }
 
+        Uri uri = getListUri();
+        Uri pageUri = PetsEntry.getSortColumn(uri) == null
+                ? PetsEntry.buildPageUri(uri, bundle.getLong(ARG_AFTER_ID), PAGE_SIZE)
+                : PetsEntry.buildPageUri(uri, bundle.getString(ARG_AFTER_KEY), bundle.getLong(ARG_AFTER_ID), PAGE_SIZE);
         return new CursorLoader(this,
-                PetsEntry.CONTENT_URI,
-                projection,
+                pageUri,
+                LIST_PROJECTION,
                 null,
                 null,
                 null
@@ -141,16 +718,122 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
 
     @Override
     public void onLoadFinished(@NonNull Loader<Cursor> loader, Cursor cursor) {
-        mPetCursorAdapter.swapCursor(cursor);
+        if (loader.getId() == SECTIONS_LOADER) {
+            // Read at once, the index doesn't hold on to the cursor
+            showSections(cursor);
+            return;
+        }
+        int page = loader.getId() - PET_LOADER;
+        mPages.set(page, cursor);
+        mEvictedPages.delete(page);
+        mPetCursorAdapter.onPageLoaded(cursor);
+
+        if (cursor.getCount() < PAGE_SIZE) {
+            // This page reaches the end of the table, drop any pages requested past it
+            for (int next = mPages.size() - 1; next > page; next--) {
+                mEvictedPages.delete(next);
+                getSupportLoaderManager().destroyLoader(PET_LOADER + next);
+                mPages.remove(next);
+                mPageStarts.remove(next);
+            }
+        } else if (page + 1 < mPageStarts.size()) {
+            // Rows were added to or removed from this page, so the next one has to start
+            // after its new last row to keep pages from overlapping or leaving gaps.
+            loadPage(page + 1, getPageEnd(cursor));
+        }
+        showPages();
     }
 
     @Override
     public void onLoaderReset(@NonNull Loader<Cursor> loader) {
-        mPetCursorAdapter.swapCursor(null);
+        if (loader.getId() == SECTIONS_LOADER) {
+            return;
+        }
+        int page = loader.getId() - PET_LOADER;
+        if (page < mPages.size()) {
+            mPages.set(page, null);
+        }
+        showPages();
     }
 
     private void deleteAllPets() {
-        int rowsDeleted = getContentResolver().delete(PetContract.PetsEntry.CONTENT_URI, null, null);
-        Log.v("CatalogActivity", rowsDeleted + " rows deleted from pet database");
+        final ProgressDialog dialog = new ProgressDialog(this);
+        dialog.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
+        dialog.setMessage(getString(R.string.delete_all_progress));
+        dialog.setCancelable(false);
+        final PetWriter.BulkDelete bulkDelete = PetWriter.getInstance(this).deleteAll(
+                new PetWriter.DeleteProgressCallback() {
+                    @Override
+                    public void onDeleteProgress(int rowsDeleted, int rowsTotal) {
+                        if (mProgressDialog == dialog) {
+                            dialog.setMax(rowsTotal);
+                            dialog.setProgress(rowsDeleted);
+                        }
+                    }
+
+                    @Override
+                    public void onDeleteComplete(int rowsDeleted, boolean cancelled) {
+                        Log.v("CatalogActivity", rowsDeleted + " rows deleted from pet database");
+                        if (mProgressDialog == dialog) {
+                            dialog.dismiss();
+                            mProgressDialog = null;
+                        }
+                        if (cancelled) {
+                            Toast.makeText(getApplicationContext(),
+                                    getString(R.string.delete_all_cancelled, rowsDeleted), Toast.LENGTH_SHORT).show();
+                        }
+                    }
+                });
+        dialog.setButton(DialogInterface.BUTTON_NEGATIVE, getString(R.string.cancel),
+                new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialogInterface, int which) {
+                        bulkDelete.cancel();
+                    }
+                });
+        mProgressDialog = dialog;
+        dialog.show();
+    }
+
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, @Nullable Intent data) {
+        super.onActivityResult(requestCode, resultCode, data);
+        if (requestCode == REQUEST_IMPORT && resultCode == RESULT_OK && data != null && data.getData() != null) {
+            importPets(data.getData());
+        }
+    }
+
+    private void importPets(Uri source) {
+        final ProgressDialog dialog = new ProgressDialog(this);
+        dialog.setMessage(getString(R.string.import_progress, 0, 0));
+        dialog.setCancelable(false);
+        PetWriter.getInstance(this).importPets(source, new PetWriter.ImportCallback() {
+            @Override
+            public void onImportProgress(int rowsImported, int rowsRejected) {
+                if (mProgressDialog == dialog) {
+                    dialog.setMessage(getString(R.string.import_progress, rowsImported, rowsRejected));
+                }
+            }
+
+            @Override
+            public void onImportComplete(PetImporter.Result result, File errorFile) {
+                if (mProgressDialog == dialog) {
+                    dialog.dismiss();
+                    mProgressDialog = null;
+                }
+                String message;
+                if (result == null) {
+                    message = getString(R.string.import_failed);
+                } else if (errorFile != null) {
+                    message = getString(R.string.import_complete_with_errors,
+                            result.rowsImported, result.rowsRejected, errorFile.getPath());
+                } else {
+                    message = getString(R.string.import_complete, result.rowsImported);
+                }
+                Toast.makeText(getApplicationContext(), message, Toast.LENGTH_LONG).show();
+            }
+        });
+        mProgressDialog = dialog;
+        dialog.show();
     }
 }
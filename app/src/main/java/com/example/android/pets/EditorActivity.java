@@ -15,8 +15,11 @@
  */
 package com.example.android.pets;
 
+import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.Context;
 import android.content.DialogInterface;
+import android.content.Intent;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.Bundle;
@@ -37,11 +40,13 @@ import android.view.View;
 import android.widget.AdapterView;
 import android.widget.ArrayAdapter;
 import android.widget.EditText;
+import android.widget.ImageView;
 import android.widget.Spinner;
 import android.widget.Toast;
 
 import com.example.android.pets.data.PetContract;
 import com.example.android.pets.data.PetContract.PetsEntry;
+import com.example.android.pets.data.PetWriter;
 
 import static com.example.android.pets.data.PetProvider.LOG_TAG;
 
@@ -77,10 +82,32 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
 
     private static final int SINGLE_PET_LOADER = 1;
 
+    private static final int REQUEST_PHOTO = 1;
+
+    private static final String STATE_PICKED_PHOTO = "picked_photo";
+
     private Uri mUri;
 
     private boolean mPetHasChanged = false;
 
+    /**
+     * Values of the pet as loaded, to save only what the user changed, and its version, or -1
+     * before it is loaded.
+     */
+    private String mLoadedName;
+    private String mLoadedBreed;
+    private int mLoadedGender;
+    private int mLoadedWeight;
+    private long mLoadedVersion = -1;
+
+    private ImageView mPhotoImageView;
+    private int mPhotoSize;
+
+    /**
+     * Image the user picked as the new photo of the pet, saved along with the pet, or null.
+     */
+    private Uri mPickedPhotoUri;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -91,8 +118,27 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
         mBreedEditText = (EditText) findViewById(R.id.edit_pet_breed);
         mWeightEditText = (EditText) findViewById(R.id.edit_pet_weight);
         mGenderSpinner = (Spinner) findViewById(R.id.spinner_gender);
+        mPhotoImageView = (ImageView) findViewById(R.id.edit_pet_photo);
+        mPhotoSize = getResources().getDimensionPixelSize(R.dimen.editor_photo_size);
         setupSpinner();
 
+        mPhotoImageView.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                Intent intent = new Intent(Intent.ACTION_GET_CONTENT);
+                intent.setType("image/*");
+                intent.addCategory(Intent.CATEGORY_OPENABLE);
+                startActivityForResult(intent, REQUEST_PHOTO);
+            }
+        });
+        if (savedInstanceState != null) {
+            mPickedPhotoUri = savedInstanceState.getParcelable(STATE_PICKED_PHOTO);
+            if (mPickedPhotoUri != null) {
+                PetThumbnailLoader.getInstance(this).loadPhoto(mPhotoImageView, mPickedPhotoUri, mPhotoSize,
+                        R.drawable.pet_photo_placeholder);
+            }
+        }
+
         mUri = getIntent().getData();
 
         if (mUri != null) {
@@ -116,6 +162,23 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
 
     }
 
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, @Nullable Intent data) {
+        super.onActivityResult(requestCode, resultCode, data);
+        if (requestCode == REQUEST_PHOTO && resultCode == RESULT_OK && data != null && data.getData() != null) {
+            mPickedPhotoUri = data.getData();
+            mPetHasChanged = true;
+            PetThumbnailLoader.getInstance(this).loadPhoto(mPhotoImageView, mPickedPhotoUri, mPhotoSize,
+                    R.drawable.pet_photo_placeholder);
+        }
+    }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putParcelable(STATE_PICKED_PHOTO, mPickedPhotoUri);
+    }
+
     private View.OnTouchListener mOnTouchListener = new View.OnTouchListener() {
         @Override
         public boolean onTouch(View v, MotionEvent event) {
@@ -196,34 +259,80 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
             finish();
             return;
         }
-        ContentValues contentValues = new ContentValues();
-        contentValues.put(PetsEntry.COLUMN_PET_NAME, petName);
-        contentValues.put(PetsEntry.COLUMN_PET_BREED, petBreed);
-        contentValues.put(PetsEntry.COLUMN_PET_GENDER, mGender);
         int weight = 0;
         if (!TextUtils.isEmpty(petWeight)) {
-            contentValues.put(PetsEntry.COLUMN_PET_WEIGHT, Integer.parseInt(petWeight));
-        } else {
-            contentValues.put(PetsEntry.COLUMN_PET_WEIGHT, weight);
+            weight = Integer.parseInt(petWeight);
         }
 
-
+        // The write runs in the background and may finish after this activity, so the
+        // results are shown with the application context.
+        final Context appContext = getApplicationContext();
         if (mUri != null) {
-            int rowsUpdated = getContentResolver().update(mUri, contentValues, null, null);
-            if (rowsUpdated != 0) {
-                Toast.makeText(this, R.string.pet_updated, Toast.LENGTH_SHORT).show();
-            } else {
-                Toast.makeText(this, R.string.error_with_updating_pet, Toast.LENGTH_SHORT).show();
+            // Only write what the user changed, and only if nobody else saved the pet since
+            // it was loaded
+            ContentValues changes = new ContentValues();
+            if (!petName.equals(mLoadedName)) {
+                changes.put(PetsEntry.COLUMN_PET_NAME, petName);
+            }
+            if (!petBreed.equals(mLoadedBreed != null ? mLoadedBreed : "")) {
+                changes.put(PetsEntry.COLUMN_PET_BREED, petBreed);
+            }
+            if (mGender != mLoadedGender) {
+                changes.put(PetsEntry.COLUMN_PET_GENDER, mGender);
+            }
+            if (weight != mLoadedWeight) {
+                changes.put(PetsEntry.COLUMN_PET_WEIGHT, weight);
+            }
+            if (mPickedPhotoUri != null) {
+                savePhoto(mUri);
             }
+            if (changes.size() == 0) {
+                return;
+            }
+            Uri uri = mLoadedVersion != -1 ? PetsEntry.buildVersionedUri(mUri, mLoadedVersion) : mUri;
+            PetWriter.getInstance(this).update(uri, changes, new PetWriter.WriteCallback() {
+                @Override
+                public void onWriteComplete(int rowsUpdated) {
+                    if (rowsUpdated == PetWriter.CONFLICT) {
+                        Toast.makeText(appContext, R.string.error_pet_changed_elsewhere, Toast.LENGTH_LONG).show();
+                    } else if (rowsUpdated == 0) {
+                        Toast.makeText(appContext, R.string.error_pet_deleted_elsewhere, Toast.LENGTH_LONG).show();
+                    } else {
+                        Toast.makeText(appContext, R.string.pet_updated, Toast.LENGTH_SHORT).show();
+                    }
+                }
+            });
         } else {
-            Uri uri = getContentResolver().insert(PetsEntry.CONTENT_URI, contentValues);
+            ContentValues contentValues = new ContentValues();
+            contentValues.put(PetsEntry.COLUMN_PET_NAME, petName);
+            contentValues.put(PetsEntry.COLUMN_PET_BREED, petBreed);
+            contentValues.put(PetsEntry.COLUMN_PET_GENDER, mGender);
+            contentValues.put(PetsEntry.COLUMN_PET_WEIGHT, weight);
+            // The photo is saved right after the insert, once the new pet has an _ID
+            PetWriter.getInstance(this).insert(PetsEntry.CONTENT_URI, contentValues, mPickedPhotoUri,
+                    new PetWriter.InsertCallback() {
+                        @Override
+                        public void onInsertComplete(Uri uri) {
+                            if (uri == null) {
+                                Toast.makeText(appContext, R.string.error_with_saving_pet, Toast.LENGTH_SHORT).show();
+                            } else {
+                                Toast.makeText(appContext, R.string.pet_saved, Toast.LENGTH_SHORT).show();
+                            }
+                        }
+                    });
+        }
+    }
 
-            if (uri == null) {
-                Toast.makeText(this, R.string.error_with_saving_pet, Toast.LENGTH_SHORT).show();
-            } else {
-                Toast.makeText(this, R.string.pet_saved, Toast.LENGTH_SHORT).show();
+    private void savePhoto(Uri petUri) {
+        final Context appContext = getApplicationContext();
+        PetWriter.getInstance(this).savePhoto(petUri, mPickedPhotoUri, new PetWriter.WriteCallback() {
+            @Override
+            public void onWriteComplete(int rows) {
+                if (rows == 0) {
+                    Toast.makeText(appContext, R.string.error_saving_photo, Toast.LENGTH_SHORT).show();
+                }
             }
-        }
+        });
     }
 
     @Override
@@ -295,7 +404,9 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
                 PetsEntry.COLUMN_PET_NAME,
                 PetsEntry.COLUMN_PET_BREED,
                 PetsEntry.COLUMN_PET_GENDER,
-                PetsEntry.COLUMN_PET_WEIGHT};
+                PetsEntry.COLUMN_PET_WEIGHT,
+                PetsEntry.COLUMN_PET_VERSION,
+                PetsEntry.COLUMN_PET_PHOTO_VERSION};
         return new CursorLoader(this,
                 mUri,
                 projection,
@@ -307,10 +418,25 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
     @Override
     public void onLoadFinished(@NonNull Loader<Cursor> loader, Cursor cursor) {
         if (cursor.moveToFirst()) {
-            mNameEditText.setText(cursor.getString(cursor.getColumnIndex(PetsEntry.COLUMN_PET_NAME)));
-            mBreedEditText.setText(cursor.getString(cursor.getColumnIndex(PetsEntry.COLUMN_PET_BREED)));
-            mGenderSpinner.setSelection(cursor.getInt(cursor.getColumnIndex(PetsEntry.COLUMN_PET_GENDER)));
-            mWeightEditText.setText(String.valueOf(cursor.getInt(cursor.getColumnIndex(PetsEntry.COLUMN_PET_WEIGHT))));
+            // The pet reloads when someone else saves it. Keep the user's edits in that case;
+            // saving them will report the conflict.
+            if (mLoadedVersion != -1 && mPetHasChanged) {
+                return;
+            }
+            mLoadedName = cursor.getString(cursor.getColumnIndex(PetsEntry.COLUMN_PET_NAME));
+            mLoadedBreed = cursor.getString(cursor.getColumnIndex(PetsEntry.COLUMN_PET_BREED));
+            mLoadedGender = cursor.getInt(cursor.getColumnIndex(PetsEntry.COLUMN_PET_GENDER));
+            mLoadedWeight = cursor.getInt(cursor.getColumnIndex(PetsEntry.COLUMN_PET_WEIGHT));
+            mLoadedVersion = cursor.getLong(cursor.getColumnIndex(PetsEntry.COLUMN_PET_VERSION));
+            mNameEditText.setText(mLoadedName);
+            mBreedEditText.setText(mLoadedBreed);
+            mGenderSpinner.setSelection(mLoadedGender);
+            mWeightEditText.setText(String.valueOf(mLoadedWeight));
+            if (mPickedPhotoUri == null) {
+                PetThumbnailLoader.getInstance(this).loadPetPhoto(mPhotoImageView, ContentUris.parseId(mUri),
+                        cursor.getLong(cursor.getColumnIndex(PetsEntry.COLUMN_PET_PHOTO_VERSION)), mPhotoSize,
+                        R.drawable.pet_photo_placeholder);
+            }
         }
     }
 
@@ -380,12 +506,17 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
     private void deletePet() {
         // COMPLETED: Implement this method
         if (mUri != null) {
-            int rowsDeleted = getContentResolver().delete(mUri, null, null);
-            if (rowsDeleted != 0) {
-                Toast.makeText(this, R.string.editor_delete_pet_successful, Toast.LENGTH_SHORT).show();
-            } else {
-                Toast.makeText(this, R.string.editor_delete_pet_failed, Toast.LENGTH_SHORT).show();
-            }
+            final Context appContext = getApplicationContext();
+            PetWriter.getInstance(this).delete(mUri, new PetWriter.WriteCallback() {
+                @Override
+                public void onWriteComplete(int rowsDeleted) {
+                    if (rowsDeleted != 0) {
+                        Toast.makeText(appContext, R.string.editor_delete_pet_successful, Toast.LENGTH_SHORT).show();
+                    } else {
+                        Toast.makeText(appContext, R.string.editor_delete_pet_failed, Toast.LENGTH_SHORT).show();
+                    }
+                }
+            });
             finish();
         }
     }
@@ -1,12 +1,21 @@
 package com.example.android.pets;
 
+import android.content.AsyncQueryHandler;
+import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.content.Context;
+import android.database.ContentObserver;
 import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.support.v4.util.LongSparseArray;
 import android.text.TextUtils;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.CursorAdapter;
+import android.widget.ImageView;
+import android.widget.SectionIndexer;
 import android.widget.TextView;
 
 import com.example.android.pets.data.PetContract;
@@ -15,8 +24,83 @@ import com.example.android.pets.data.PetContract;
  * {@link PetCursorAdapter} is an adapter for a list or grid view
  * that uses a {@link Cursor} of pet data as its data source. This adapter knows
  * how to create list items for each row of pet data in the {@link Cursor}.
+ * <p>
+ * Showing a {@link PetSectionCursor}, it indexes the list by the first letter of the names
+ * for fast scrolling. Jumping to a letter is a lookup in the section index; rows of pages
+ * that are still loading are shown blank.
  */
-public class PetCursorAdapter extends CursorAdapter {
+public class PetCursorAdapter extends CursorAdapter implements SectionIndexer {
+
+    private static final Object[] NO_SECTIONS = new Object[0];
+
+    private static final String[] PATCH_PROJECTION = new String[]{
+            PetContract.PetsEntry.COLUMN_PET_PHOTO_VERSION};
+
+    /**
+     * Photo of pets that were edited after the cursor showing them was loaded, keyed by _ID.
+     * It takes precedence over the value in the cursor, so a new photo refreshes one row
+     * instead of requerying every page of the list. Lists are filtered, searched or sorted by
+     * the other columns, so for those the provider has the pages requeried.
+     */
+    private final LongSparseArray<PatchedRow> mPatchedRows = new LongSparseArray<>();
+
+    private static class PatchedRow {
+        final long photoVersion;
+
+        PatchedRow(Cursor cursor) {
+            photoVersion = cursor.getLong(0);
+        }
+    }
+
+    private final ContentResolver mContentResolver;
+
+    /**
+     * Summary shown for pets without a breed, resolved once instead of on every bind.
+     */
+    private final String mUnknownBreed;
+
+    private final PetThumbnailLoader mThumbnailLoader;
+    private final int mPhotoSize;
+
+    /**
+     * Column indices of the current cursor, looked up once per swapped cursor.
+     */
+    private int mIdColumnIndex;
+    private int mNameColumnIndex;
+    private int mBreedColumnIndex;
+    private int mPhotoVersionColumnIndex;
+
+    /**
+     * The current cursor if it has a section index, otherwise null.
+     */
+    private PetSectionCursor mSectionCursor;
+
+    /**
+     * Reads the new values of edited pets off the UI thread.
+     */
+    private final AsyncQueryHandler mPatchQueryHandler;
+
+    /**
+     * Watches {@link PetContract.PetsEntry#CONTENT_CHANGES_URI} for edits of single pets.
+     */
+    private final ContentObserver mRowObserver = new ContentObserver(new Handler()) {
+        @Override
+        public void onChange(boolean selfChange) {
+            onChange(selfChange, null);
+        }
+
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            // Without a row URI there is nothing to patch; the provider then notifies the
+            // lists as well, and the pages are requeried.
+            if (uri != null && uri.getPathSegments().size() == 2) {
+                long id = ContentUris.parseId(uri);
+                mPatchQueryHandler.startQuery(0, id,
+                        ContentUris.withAppendedId(PetContract.PetsEntry.CONTENT_URI, id),
+                        PATCH_PROJECTION, null, null, null);
+            }
+        }
+    };
 
     /**
      * Constructs a new {@link PetCursorAdapter}.
@@ -26,6 +110,111 @@ public class PetCursorAdapter extends CursorAdapter {
      */
     public PetCursorAdapter(Context context, Cursor c) {
         super(context, c, 0 /* flags */);
+        mContentResolver = context.getContentResolver();
+        mPatchQueryHandler = new PatchQueryHandler(mContentResolver, this);
+        mUnknownBreed = context.getString(R.string.unknown_breed);
+        mThumbnailLoader = PetThumbnailLoader.getInstance(context);
+        mPhotoSize = context.getResources().getDimensionPixelSize(R.dimen.list_photo_size);
+        findColumnIndices(c);
+    }
+
+    @Override
+    public Cursor swapCursor(Cursor newCursor) {
+        findColumnIndices(newCursor);
+        mSectionCursor = newCursor instanceof PetSectionCursor ? (PetSectionCursor) newCursor : null;
+        return super.swapCursor(newCursor);
+    }
+
+    private void findColumnIndices(Cursor cursor) {
+        if (cursor != null) {
+            mIdColumnIndex = cursor.getColumnIndex(PetContract.PetsEntry._ID);
+            mNameColumnIndex = cursor.getColumnIndex(PetContract.PetsEntry.COLUMN_PET_NAME);
+            mBreedColumnIndex = cursor.getColumnIndex(PetContract.PetsEntry.COLUMN_PET_BREED);
+            mPhotoVersionColumnIndex = cursor.getColumnIndex(PetContract.PetsEntry.COLUMN_PET_PHOTO_VERSION);
+        }
+    }
+
+    @Override
+    public Object[] getSections() {
+        return mSectionCursor != null ? mSectionCursor.getSections() : NO_SECTIONS;
+    }
+
+    @Override
+    public int getPositionForSection(int sectionIndex) {
+        return mSectionCursor != null ? mSectionCursor.getPositionForSection(sectionIndex) : 0;
+    }
+
+    @Override
+    public int getSectionForPosition(int position) {
+        return mSectionCursor != null ? mSectionCursor.getSectionForPosition(position) : 0;
+    }
+
+    /**
+     * Views of a list item, kept in its tag so binding doesn't have to look them up.
+     */
+    private static class ViewHolder {
+        final TextView nameTextView;
+        final TextView summaryTextView;
+        final ImageView photoImageView;
+
+        ViewHolder(View view) {
+            nameTextView = (TextView) view.findViewById(R.id.name);
+            summaryTextView = (TextView) view.findViewById(R.id.summary);
+            photoImageView = (ImageView) view.findViewById(R.id.photo);
+        }
+    }
+
+    /**
+     * Start refreshing the rows of pets that are edited while the list is shown.
+     */
+    public void registerRowObserver() {
+        mContentResolver.registerContentObserver(PetContract.PetsEntry.CONTENT_CHANGES_URI, true, mRowObserver);
+    }
+
+    public void unregisterRowObserver() {
+        mContentResolver.unregisterContentObserver(mRowObserver);
+        mPatchQueryHandler.cancelOperation(0);
+    }
+
+    /**
+     * Forget the patches of the pets in a freshly loaded page, its cursor already has their
+     * current values.
+     */
+    public void onPageLoaded(Cursor page) {
+        if (mPatchedRows.size() == 0 || !page.moveToFirst()) {
+            return;
+        }
+        int idColumnIndex = page.getColumnIndex(PetContract.PetsEntry._ID);
+        do {
+            mPatchedRows.remove(page.getLong(idColumnIndex));
+        } while (page.moveToNext());
+    }
+
+    private void patchRow(long id, Cursor cursor) {
+        if (cursor.moveToFirst()) {
+            mPatchedRows.put(id, new PatchedRow(cursor));
+        } else {
+            mPatchedRows.remove(id);
+        }
+        // Only the visible rows are bound again
+        notifyDataSetChanged();
+    }
+
+    private static class PatchQueryHandler extends AsyncQueryHandler {
+        private final PetCursorAdapter mAdapter;
+
+        PatchQueryHandler(ContentResolver cr, PetCursorAdapter adapter) {
+            super(cr);
+            mAdapter = adapter;
+        }
+
+        @Override
+        protected void onQueryComplete(int token, Object cookie, Cursor cursor) {
+            if (cursor != null) {
+                mAdapter.patchRow((Long) cookie, cursor);
+                cursor.close();
+            }
+        }
     }
 
     /**
@@ -40,7 +229,9 @@ public class PetCursorAdapter extends CursorAdapter {
     @Override
     public View newView(Context context, Cursor cursor, ViewGroup parent) {
         // COMPLETED: Fill out this method and return the list item view (instead of null)
-        return LayoutInflater.from(context).inflate(R.layout.list_item, parent, false);
+        View view = LayoutInflater.from(context).inflate(R.layout.list_item, parent, false);
+        view.setTag(new ViewHolder(view));
+        return view;
     }
 
     /**
@@ -56,14 +247,35 @@ public class PetCursorAdapter extends CursorAdapter {
     @Override
     public void bindView(View view, Context context, Cursor cursor) {
         // COMPLETED: Fill out this method
-        TextView nameTextView = view.findViewById(R.id.name);
-        TextView summaryTextView = view.findViewById(R.id.summary);
+        ViewHolder holder = (ViewHolder) view.getTag();
+
+        if (cursor.isNull(mIdColumnIndex)) {
+            // Its page is still loading
+            holder.nameTextView.setText(null);
+            holder.summaryTextView.setText(null);
+            mThumbnailLoader.cancel(holder.photoImageView);
+            holder.photoImageView.setImageResource(R.drawable.pet_photo_placeholder);
+            return;
+        }
+        long id = cursor.getLong(mIdColumnIndex);
+        String nameString = cursor.getString(mNameColumnIndex);
+        String breedString = cursor.getString(mBreedColumnIndex);
+        long photoVersion = cursor.getLong(mPhotoVersionColumnIndex);
+        if (mPatchedRows.size() != 0) {
+            PatchedRow patchedRow = mPatchedRows.get(id);
+            if (patchedRow != null) {
+                photoVersion = patchedRow.photoVersion;
+            }
+        }
 
-        nameTextView.setText(cursor.getString(cursor.getColumnIndex(PetContract.PetsEntry.COLUMN_PET_NAME)));
-        String breedString = cursor.getString(cursor.getColumnIndex(PetContract.PetsEntry.COLUMN_PET_BREED));
-        summaryTextView.setText(breedString);
+        holder.nameTextView.setText(nameString);
         if (TextUtils.isEmpty(breedString)) {
-            summaryTextView.setText(R.string.unknown_breed);
+            holder.summaryTextView.setText(mUnknownBreed);
+        } else {
+            holder.summaryTextView.setText(breedString);
         }
+        // Cached thumbnails are set right away, others are decoded in the background
+        mThumbnailLoader.loadPetPhoto(holder.photoImageView, id, photoVersion, mPhotoSize,
+                R.drawable.pet_photo_placeholder);
     }
 }
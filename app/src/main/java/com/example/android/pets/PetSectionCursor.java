@@ -0,0 +1,235 @@
+package com.example.android.pets;
+
+import android.database.AbstractCursor;
+import android.database.Cursor;
+import android.util.SparseArray;
+import android.util.SparseBooleanArray;
+
+import com.example.android.pets.data.PetContract;
+
+import java.util.Arrays;
+
+/**
+ * Every pet sorted by name, as one cursor over the whole list that only holds the pages loaded
+ * so far, with the section index of {@link PetContract.PetSectionsEntry}.
+ * <p>
+ * Pages are laid out by section: each section is split into pages from its first pet, so the
+ * page holding any position is known from the index alone, without reading the pets before it,
+ * and jumping to a section needs a single page. Rows of pages that aren't loaded read as null,
+ * including their _ID, and ask for their page once.
+ */
+final class PetSectionCursor extends AbstractCursor {
+
+    /**
+     * Loads the pages rows are read from, and hands them to {@link #setPage}.
+     */
+    interface PageRequester {
+        /**
+         * @param pageStart position of the first pet of the page in the list
+         * @param section   section the page is in
+         * @param offset    number of pets of the section before the page
+         * @param pageSize  number of pets in the page
+         */
+        void requestPage(int pageStart, String section, int offset, int pageSize);
+    }
+
+    private final String[] mColumns;
+    private final int mPageSize;
+    private final PageRequester mRequester;
+
+    /**
+     * The section index: first character, position of the first pet and number of pets of
+     * every section, in list order.
+     */
+    private final String[] mSections;
+    private final int[] mPositions;
+    private final int[] mCounts;
+    private final int mCount;
+
+    /**
+     * Loaded pages and pages asked for, keyed by the position of their first pet.
+     */
+    private final SparseArray<Cursor> mPages = new SparseArray<>();
+    private final SparseBooleanArray mRequested = new SparseBooleanArray();
+
+    /**
+     * Page of the current row, moved to it, or null if it isn't loaded.
+     */
+    private Cursor mPage;
+
+    /**
+     * @param columns  columns of the pages, in the order they are queried in
+     * @param sections rows of {@link PetContract.PetSectionsEntry#CONTENT_URI}
+     */
+    PetSectionCursor(String[] columns, Cursor sections, int pageSize, PageRequester requester) {
+        mColumns = columns;
+        mPageSize = pageSize;
+        mRequester = requester;
+        int sectionCount = sections.getCount();
+        mSections = new String[sectionCount];
+        mPositions = new int[sectionCount];
+        mCounts = new int[sectionCount];
+        int sectionColumnIndex = sections.getColumnIndex(PetContract.PetSectionsEntry.COLUMN_SECTION);
+        int positionColumnIndex = sections.getColumnIndex(PetContract.PetSectionsEntry.COLUMN_POSITION);
+        int countColumnIndex = sections.getColumnIndex(PetContract.PetSectionsEntry._COUNT);
+        sections.moveToPosition(-1);
+        for (int i = 0; sections.moveToNext(); i++) {
+            mSections[i] = sections.getString(sectionColumnIndex);
+            mPositions[i] = sections.getInt(positionColumnIndex);
+            mCounts[i] = sections.getInt(countColumnIndex);
+        }
+        mCount = sectionCount == 0 ? 0 : mPositions[sectionCount - 1] + mCounts[sectionCount - 1];
+    }
+
+    /**
+     * Return whether the other cursor has the same sections with the same number of pets, so
+     * its pages are laid out the same.
+     */
+    boolean hasSameSections(PetSectionCursor other) {
+        return Arrays.equals(mSections, other.mSections) && Arrays.equals(mCounts, other.mCounts);
+    }
+
+    Object[] getSections() {
+        return mSections;
+    }
+
+    int getPositionForSection(int section) {
+        if (mSections.length == 0) {
+            return 0;
+        }
+        return mPositions[Math.max(0, Math.min(section, mSections.length - 1))];
+    }
+
+    int getSectionForPosition(int position) {
+        int section = Arrays.binarySearch(mPositions, position);
+        // Between two starts, the section is the one starting before
+        return Math.max(0, section >= 0 ? section : -section - 2);
+    }
+
+    /**
+     * Show a page requested by {@link PageRequester#requestPage}. The cursor now owns it.
+     */
+    void setPage(int pageStart, Cursor page) {
+        Cursor old = mPages.get(pageStart);
+        if (old != null && old != page) {
+            old.close();
+        }
+        mPages.put(pageStart, page);
+        // The current row may be in the new page; moving to the same position again is a no-op
+        if (mPos >= 0 && mPos < mCount) {
+            onMove(mPos, mPos);
+        }
+    }
+
+    /**
+     * Close the loaded pages more than the given number of pages away from the visible rows,
+     * and forget that they were asked for, so they are asked for again when scrolled back to.
+     * The number of rows comes from the section index, so it doesn't change.
+     */
+    void trimPages(int firstVisible, int visibleCount, int keepPages) {
+        int firstKept = firstVisible - keepPages * mPageSize;
+        int lastKept = firstVisible + visibleCount + keepPages * mPageSize;
+        for (int i = mPages.size() - 1; i >= 0; i--) {
+            int pageStart = mPages.keyAt(i);
+            if (pageStart + mPageSize > firstKept && pageStart <= lastKept) {
+                continue;
+            }
+            Cursor page = mPages.valueAt(i);
+            if (page == mPage) {
+                mPage = null;
+            }
+            page.close();
+            mPages.removeAt(i);
+            mRequested.delete(pageStart);
+        }
+    }
+
+    /**
+     * Ask for every loaded page again, e.g. after a pet was renamed within its section. The
+     * rows loaded so far are shown until the new pages replace them.
+     */
+    void reloadPages() {
+        for (int i = 0; i < mPages.size(); i++) {
+            int pageStart = mPages.keyAt(i);
+            int section = getSectionForPosition(pageStart);
+            int pageOffset = pageStart - mPositions[section];
+            mRequester.requestPage(pageStart, mSections[section], pageOffset,
+                    Math.min(mPageSize, mCounts[section] - pageOffset));
+        }
+    }
+
+    @Override
+    public boolean onMove(int oldPosition, int newPosition) {
+        int section = getSectionForPosition(newPosition);
+        int offset = newPosition - mPositions[section];
+        int pageOffset = offset - offset % mPageSize;
+        int pageStart = mPositions[section] + pageOffset;
+        mPage = mPages.get(pageStart);
+        if (mPage == null) {
+            if (!mRequested.get(pageStart)) {
+                mRequested.put(pageStart, true);
+                mRequester.requestPage(pageStart, mSections[section], pageOffset,
+                        Math.min(mPageSize, mCounts[section] - pageOffset));
+            }
+        } else if (!mPage.moveToPosition(newPosition - pageStart)) {
+            // Pets were deleted since the index was read; the index is about to be read again
+            mPage = null;
+        }
+        return true;
+    }
+
+    @Override
+    public int getCount() {
+        return mCount;
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return mColumns;
+    }
+
+    @Override
+    public String getString(int column) {
+        return mPage != null ? mPage.getString(column) : null;
+    }
+
+    @Override
+    public short getShort(int column) {
+        return mPage != null ? mPage.getShort(column) : 0;
+    }
+
+    @Override
+    public int getInt(int column) {
+        return mPage != null ? mPage.getInt(column) : 0;
+    }
+
+    @Override
+    public long getLong(int column) {
+        return mPage != null ? mPage.getLong(column) : 0;
+    }
+
+    @Override
+    public float getFloat(int column) {
+        return mPage != null ? mPage.getFloat(column) : 0;
+    }
+
+    @Override
+    public double getDouble(int column) {
+        return mPage != null ? mPage.getDouble(column) : 0;
+    }
+
+    @Override
+    public boolean isNull(int column) {
+        return mPage == null || mPage.isNull(column);
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        for (int i = 0; i < mPages.size(); i++) {
+            mPages.valueAt(i).close();
+        }
+        mPages.clear();
+        mPage = null;
+    }
+}
@@ -0,0 +1,280 @@
+package com.example.android.pets;
+
+import android.app.ActivityManager;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.media.ThumbnailUtils;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import com.example.android.pets.data.PetContract;
+import com.example.android.pets.data.PetPhotoStore;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Shows square thumbnails of pet photos in ImageViews, decoding them off the UI thread.
+ * <p>
+ * Thumbnails are kept in an LRU memory cache sized in bytes, and thumbnails of stored photos
+ * also in a disk cache, so scrolling back to a pet shows its thumbnail right away and reopening
+ * the catalog reads small files instead of decoding the photos again. Photos are decoded
+ * reduced by a power of two close to the thumbnail size, never at full size. A thumbnail is
+ * only decoded while an ImageView still wants it, so flinging through the list doesn't queue
+ * work for rows that are already gone.
+ */
+public final class PetThumbnailLoader {
+
+    private static final String LOG_TAG = PetThumbnailLoader.class.getSimpleName();
+
+    /**
+     * Share of the memory class of the app given to the memory cache.
+     */
+    private static final int MEMORY_CACHE_FRACTION = 8;
+
+    private static final String DISK_CACHE_DIRECTORY = "thumbnails";
+    private static final long DISK_CACHE_SIZE = 8 * 1024 * 1024;
+    private static final int DISK_CACHE_QUALITY = 85;
+
+    private static final int DECODE_THREADS = 2;
+
+    private static PetThumbnailLoader sInstance;
+
+    private final ContentResolver mContentResolver;
+    private final File mDiskCacheDirectory;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final LruCache<String, Bitmap> mMemoryCache;
+    private final ExecutorService mExecutor = Executors.newFixedThreadPool(DECODE_THREADS, new ThreadFactory() {
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            return new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }
+            }, LOG_TAG);
+        }
+    });
+
+    /**
+     * Key of the thumbnail each ImageView is waiting for, and keys being decoded. Both are
+     * guarded by mRequests.
+     */
+    private final WeakHashMap<ImageView, String> mRequests = new WeakHashMap<>();
+    private final HashSet<String> mDecoding = new HashSet<>();
+
+    /**
+     * Bytes in the disk cache, or -1 before it was measured.
+     */
+    private long mDiskCacheSize = -1;
+
+    private PetThumbnailLoader(Context context) {
+        mContentResolver = context.getContentResolver();
+        mDiskCacheDirectory = new File(context.getCacheDir(), DISK_CACHE_DIRECTORY);
+        ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        int cacheSize = activityManager.getMemoryClass() * 1024 * 1024 / MEMORY_CACHE_FRACTION;
+        mMemoryCache = new LruCache<String, Bitmap>(cacheSize) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getByteCount();
+            }
+        };
+    }
+
+    public static synchronized PetThumbnailLoader getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new PetThumbnailLoader(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Show the thumbnail of the stored photo of a pet, or the placeholder if it has none.
+     *
+     * @param photoVersion {@link PetContract.PetsEntry#COLUMN_PET_PHOTO_VERSION} of the pet
+     * @param size         width and height of the thumbnail, in pixels
+     */
+    public void loadPetPhoto(ImageView view, long id, long photoVersion, int size, int placeholder) {
+        if (photoVersion == 0) {
+            cancel(view);
+            view.setImageResource(placeholder);
+            return;
+        }
+        load(view, PetContract.PetsEntry.buildPhotoUri(id), id + "_" + photoVersion + "_" + size, true, size, placeholder);
+    }
+
+    /**
+     * Show a thumbnail of any image, e.g. one just picked, caching it in memory only.
+     */
+    public void loadPhoto(ImageView view, Uri source, int size, int placeholder) {
+        load(view, source, source + "#" + size, false, size, placeholder);
+    }
+
+    public void cancel(ImageView view) {
+        synchronized (mRequests) {
+            mRequests.remove(view);
+        }
+    }
+
+    private void load(ImageView view, final Uri source, final String key, final boolean diskCache,
+                      final int size, int placeholder) {
+        Bitmap thumbnail = mMemoryCache.get(key);
+        if (thumbnail != null) {
+            cancel(view);
+            view.setImageBitmap(thumbnail);
+            return;
+        }
+        view.setImageResource(placeholder);
+        synchronized (mRequests) {
+            mRequests.put(view, key);
+            if (!mDecoding.add(key)) {
+                // Already being decoded for another view
+                return;
+            }
+        }
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final Bitmap thumbnail = isWanted(key) ? loadThumbnail(source, key, diskCache, size) : null;
+                synchronized (mRequests) {
+                    mDecoding.remove(key);
+                }
+                if (thumbnail == null) {
+                    return;
+                }
+                mMemoryCache.put(key, thumbnail);
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        deliver(key, thumbnail);
+                    }
+                });
+            }
+        });
+    }
+
+    private boolean isWanted(String key) {
+        synchronized (mRequests) {
+            return mRequests.containsValue(key);
+        }
+    }
+
+    private void deliver(String key, Bitmap thumbnail) {
+        synchronized (mRequests) {
+            for (Map.Entry<ImageView, String> request : mRequests.entrySet()) {
+                if (key.equals(request.getValue())) {
+                    request.getKey().setImageBitmap(thumbnail);
+                    // Its request is done; a rebind asks again and hits the memory cache
+                    request.setValue(null);
+                }
+            }
+        }
+    }
+
+    private Bitmap loadThumbnail(Uri source, String key, boolean diskCache, int size) {
+        File cached = new File(mDiskCacheDirectory, key + ".jpg");
+        if (diskCache && cached.exists()) {
+            Bitmap thumbnail = BitmapFactory.decodeFile(cached.getPath());
+            if (thumbnail != null) {
+                // Keeps the disk cache in least recently used order
+                cached.setLastModified(System.currentTimeMillis());
+                return thumbnail;
+            }
+        }
+        Bitmap thumbnail;
+        try {
+            Bitmap photo = PetPhotoStore.decodeSampled(mContentResolver, source, size);
+            if (photo == null) {
+                return null;
+            }
+            thumbnail = ThumbnailUtils.extractThumbnail(photo, size, size, ThumbnailUtils.OPTIONS_RECYCLE_INPUT);
+        } catch (IOException | RuntimeException e) {
+            Log.w(LOG_TAG, "Cannot decode " + source, e);
+            return null;
+        }
+        if (diskCache) {
+            writeToDiskCache(cached, thumbnail);
+        }
+        return thumbnail;
+    }
+
+    private void writeToDiskCache(File file, Bitmap thumbnail) {
+        try {
+            if (!mDiskCacheDirectory.isDirectory() && !mDiskCacheDirectory.mkdirs()) {
+                return;
+            }
+            File temporary = new File(file.getPath() + ".tmp");
+            OutputStream out = new FileOutputStream(temporary);
+            try {
+                thumbnail.compress(Bitmap.CompressFormat.JPEG, DISK_CACHE_QUALITY, out);
+            } finally {
+                out.close();
+            }
+            if (temporary.renameTo(file)) {
+                trimDiskCache(file.length());
+            } else {
+                temporary.delete();
+            }
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Cannot cache " + file, e);
+        }
+    }
+
+    /**
+     * Account for a file added to the disk cache, and delete the least recently used files
+     * once the cache grows past {@link #DISK_CACHE_SIZE}.
+     */
+    private synchronized void trimDiskCache(long added) {
+        if (mDiskCacheSize != -1) {
+            mDiskCacheSize += added;
+            if (mDiskCacheSize <= DISK_CACHE_SIZE) {
+                return;
+            }
+        }
+        File[] files = mDiskCacheDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        mDiskCacheSize = total;
+        if (total <= DISK_CACHE_SIZE) {
+            return;
+        }
+        // Oldest first, down to three quarters of the size so this doesn't run on every write
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long difference = a.lastModified() - b.lastModified();
+                return difference < 0 ? -1 : (difference > 0 ? 1 : 0);
+            }
+        });
+        for (int i = 0; i < files.length && total > DISK_CACHE_SIZE * 3 / 4; i++) {
+            long length = files[i].length();
+            if (files[i].delete()) {
+                total -= length;
+            }
+        }
+        mDiskCacheSize = total;
+    }
+}
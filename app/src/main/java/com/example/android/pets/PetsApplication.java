@@ -0,0 +1,85 @@
+package com.example.android.pets;
+
+import android.app.Activity;
+import android.app.Application;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.os.StrictMode;
+
+import com.example.android.pets.data.PetPurgeJobService;
+import com.example.android.pets.data.PetWriter;
+
+/**
+ * Application of the Pets app.
+ */
+public class PetsApplication extends Application {
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        // Database reads and writes belong on background threads; make any disk access from
+        // the main thread show up in the log of debug builds.
+        if (BuildConfig.DEBUG) {
+            StrictMode.setThreadPolicy(new StrictMode.ThreadPolicy.Builder()
+                    .detectDiskReads()
+                    .detectDiskWrites()
+                    .penaltyLog()
+                    .build());
+        }
+        // Open the database while the catalog inflates, rather than on the first query
+        PetWriter.getInstance(this).warmUp();
+        // Deleted pets are purged in the background, when the device is idle if it can tell
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            PetPurgeJobService.schedule(this);
+        } else {
+            registerActivityLifecycleCallbacks(new PurgeAfterFirstFrame());
+        }
+    }
+
+    /**
+     * Without JobScheduler the purge runs while the app is in use. Start it once the first
+     * activity is drawn, when the main thread first has nothing left to do, so it doesn't hold
+     * up the catalog; {@link PetWriter#purgeIfDue()} runs it at most once a day.
+     */
+    private class PurgeAfterFirstFrame implements ActivityLifecycleCallbacks {
+
+        @Override
+        public void onActivityResumed(Activity activity) {
+            unregisterActivityLifecycleCallbacks(this);
+            // The first frame is drawn right after onResume, before the main thread goes idle
+            Looper.myQueue().addIdleHandler(new MessageQueue.IdleHandler() {
+                @Override
+                public boolean queueIdle() {
+                    PetWriter.getInstance(PetsApplication.this).purgeIfDue();
+                    return false;
+                }
+            });
+        }
+
+        @Override
+        public void onActivityCreated(Activity activity, Bundle savedInstanceState) {
+        }
+
+        @Override
+        public void onActivityStarted(Activity activity) {
+        }
+
+        @Override
+        public void onActivityPaused(Activity activity) {
+        }
+
+        @Override
+        public void onActivityStopped(Activity activity) {
+        }
+
+        @Override
+        public void onActivitySaveInstanceState(Activity activity, Bundle outState) {
+        }
+
+        @Override
+        public void onActivityDestroyed(Activity activity) {
+        }
+    }
+}
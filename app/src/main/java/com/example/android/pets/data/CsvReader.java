@@ -0,0 +1,127 @@
+package com.example.android.pets.data;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+
+/**
+ * Reads the records of a CSV file (RFC 4180) one at a time. Fields may be quoted, with
+ * doubled quotes standing for a quote, and quoted fields may span lines.
+ */
+class CsvReader {
+
+    private final Reader mReader;
+    private final char[] mBuffer = new char[8192];
+    private int mPosition;
+    private int mLength;
+
+    /**
+     * Line of the file the last record read started on, from 1.
+     */
+    private int mRecordLine;
+    private int mLine = 1;
+
+    private final ArrayList<String> mFields = new ArrayList<>();
+    private final StringBuilder mField = new StringBuilder();
+
+    CsvReader(Reader reader) {
+        mReader = reader;
+    }
+
+    int getLineNumber() {
+        return mRecordLine;
+    }
+
+    /**
+     * Return the fields of the next record, or null at the end of the file.
+     */
+    String[] readRecord() throws IOException {
+        int c = read();
+        if (c == -1) {
+            return null;
+        }
+        mRecordLine = mLine;
+        mFields.clear();
+        mField.setLength(0);
+        boolean quoted = false;
+        while (true) {
+            if (quoted) {
+                if (c == -1) {
+                    throw new IOException("Unterminated quoted field on line " + mRecordLine);
+                } else if (c == '"') {
+                    c = read();
+                    if (c == '"') {
+                        mField.append('"');
+                    } else {
+                        quoted = false;
+                        continue;
+                    }
+                } else {
+                    if (c == '\n') {
+                        mLine++;
+                    }
+                    mField.append((char) c);
+                }
+            } else if (c == '"' && mField.length() == 0) {
+                quoted = true;
+            } else if (c == ',') {
+                mFields.add(mField.toString());
+                mField.setLength(0);
+            } else if (c == '\r' || c == '\n' || c == -1) {
+                if (c == '\r' && peek() == '\n') {
+                    read();
+                }
+                if (c != -1) {
+                    mLine++;
+                }
+                mFields.add(mField.toString());
+                return mFields.toArray(new String[mFields.size()]);
+            } else {
+                mField.append((char) c);
+            }
+            c = read();
+        }
+    }
+
+    private int read() throws IOException {
+        if (mPosition == mLength && !fill()) {
+            return -1;
+        }
+        return mBuffer[mPosition++];
+    }
+
+    private int peek() throws IOException {
+        if (mPosition == mLength && !fill()) {
+            return -1;
+        }
+        return mBuffer[mPosition];
+    }
+
+    private boolean fill() throws IOException {
+        mLength = mReader.read(mBuffer, 0, mBuffer.length);
+        mPosition = 0;
+        if (mLength <= 0) {
+            mLength = 0;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Write a value as a CSV field, quoting it if needed. Null is written as an empty field.
+     */
+    static void writeField(Writer writer, String value) throws IOException {
+        if (value == null) {
+            return;
+        }
+        if (value.indexOf(',') == -1 && value.indexOf('"') == -1
+                && value.indexOf('\n') == -1 && value.indexOf('\r') == -1) {
+            writer.write(value);
+            return;
+        }
+        writer.write('"');
+        writer.write(value.replace("\"", "\"\""));
+        writer.write('"');
+    }
+}
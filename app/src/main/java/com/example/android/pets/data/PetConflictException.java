@@ -0,0 +1,16 @@
+package com.example.android.pets.data;
+
+/**
+ * Thrown by a conditional update of a pet, see
+ * {@link PetContract#QUERY_PARAMETER_EXPECTED_VERSION}, when someone else changed the pet since
+ * it was read. Nothing was written.
+ * <p>
+ * From another process it arrives as the {@link IllegalStateException} it extends, with the
+ * same message.
+ */
+public class PetConflictException extends IllegalStateException {
+
+    PetConflictException(long id, long expectedVersion) {
+        super("Pet " + id + " is no longer at version " + expectedVersion);
+    }
+}
@@ -1,6 +1,7 @@
 package com.example.android.pets.data;
 
 import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.net.Uri;
 import android.provider.BaseColumns;
 
@@ -32,6 +33,189 @@ public final class PetContract {
      */
     public static final String PATH_PETS = "pets";
 
+    /**
+     * Path on which changes to the contents of a single pet are announced, e.g.
+     * content://com.example.android.pets/pet_changes/3 once pet 3 was updated. It is kept out of
+     * the pets path so that editing one pet doesn't make every list of pets query again;
+     * observers of a list can watch this path and refresh just the row that changed.
+     */
+    public static final String PATH_PET_CHANGES = "pet_changes";
+
+    /**
+     * Query parameter for {@link PetsEntry#CONTENT_URI} that turns a query into a keyset page:
+     * at most this many pets, ordered by {@link PetsEntry#_ID}, or by the column given by
+     * {@link PetsEntry#getSortColumn(Uri)} and then _ID. On a delete, only this many
+     * pets with the lowest _IDs are deleted, so a large delete can run in short chunks.
+     */
+    public static final String QUERY_PARAMETER_LIMIT = "limit";
+
+    /**
+     * Path appended to the pets path for full-text search over pet names and breeds,
+     * e.g. content://com.example.android.pets/pets/search?q=ter
+     */
+    public static final String PATH_SEARCH = "search";
+
+    /**
+     * Query parameter holding the text to search for on {@link PetsEntry#CONTENT_SEARCH_URI}.
+     * Every word is matched as a prefix of a word in the name or breed of a pet.
+     */
+    public static final String QUERY_PARAMETER_SEARCH = "q";
+
+    /**
+     * Query parameter for {@link PetsEntry#CONTENT_URI} that only returns pets whose
+     * {@link PetsEntry#_ID} is greater than the given one. Pass the last _ID of the previous
+     * page to fetch the next one, along with {@link #QUERY_PARAMETER_AFTER_KEY} for lists
+     * sorted by another column.
+     */
+    public static final String QUERY_PARAMETER_AFTER_ID = "after";
+
+    /**
+     * Query parameter for lists of pets sorted by another column than _ID, see
+     * {@link #QUERY_PARAMETER_SORT}: the value of that column in the last pet of the previous
+     * page. Pass it along with {@link #QUERY_PARAMETER_AFTER_ID} to fetch the next page.
+     */
+    public static final String QUERY_PARAMETER_AFTER_KEY = "after_key";
+
+    /**
+     * Query parameter for {@link PetsEntry#CONTENT_URI} and {@link PetsEntry#buildGenderUri}
+     * that sorts the pets by a column instead of by _ID, with ties in _ID order. The only
+     * value is {@link #SORT_NAME}. Lists of {@link PetsEntry#CONTENT_WEIGHT_URI} are always
+     * sorted by weight.
+     */
+    public static final String QUERY_PARAMETER_SORT = "sort";
+
+    public static final String SORT_NAME = "name";
+
+    /**
+     * Query parameter for pages starting at a sort key, see
+     * {@link PetsEntry#buildSectionPageUri}: the number of pets to skip first. Skipped pets are
+     * still stepped over in the index, so keep it within one section of
+     * {@link PetSectionsEntry}.
+     */
+    public static final String QUERY_PARAMETER_OFFSET = "offset";
+
+    /**
+     * Path appended to the pets path for the pets of one gender, e.g.
+     * content://com.example.android.pets/pets/gender/1
+     */
+    public static final String PATH_GENDER = "gender";
+
+    /**
+     * Path appended to the pets path for the pets in a range of weights, lightest first, e.g.
+     * content://com.example.android.pets/pets/weight?min=5&amp;max=10
+     */
+    public static final String PATH_WEIGHT = "weight";
+
+    /**
+     * Query parameters of {@link PetsEntry#CONTENT_WEIGHT_URI}: the lowest and highest weight,
+     * both included. Either may be left out.
+     */
+    public static final String QUERY_PARAMETER_MIN_WEIGHT = "min";
+    public static final String QUERY_PARAMETER_MAX_WEIGHT = "max";
+
+    /**
+     * Query parameter for updates of a single pet that makes them conditional: the pet is only
+     * written if its {@link PetsEntry#COLUMN_PET_VERSION} still is the given one. Otherwise
+     * someone else changed it since it was read, and the update throws a
+     * {@link PetConflictException}. If someone deleted it, the update returns 0, the same as
+     * for any pet that doesn't exist.
+     */
+    public static final String QUERY_PARAMETER_EXPECTED_VERSION = "expected_version";
+
+    /**
+     * Path appended to the pets path for an export of every pet, read with
+     * {@link android.content.ContentResolver#openInputStream}, e.g.
+     * content://com.example.android.pets/pets/export?format=json
+     */
+    public static final String PATH_EXPORT = "export";
+
+    /**
+     * Query parameter choosing the format of {@link PetsEntry#CONTENT_EXPORT_URI}: either
+     * {@link #FORMAT_CSV}, the default, or {@link #FORMAT_JSON}.
+     */
+    public static final String QUERY_PARAMETER_FORMAT = "format";
+
+    public static final String FORMAT_CSV = "csv";
+    public static final String FORMAT_JSON = "json";
+
+    /**
+     * Path appended to the URI of a pet for its photo, a JPEG read with
+     * {@link android.content.ContentResolver#openInputStream} and replaced with
+     * {@link android.content.ContentResolver#openOutputStream}, e.g.
+     * content://com.example.android.pets/pets/3/photo
+     */
+    public static final String PATH_PHOTO = "photo";
+
+    /**
+     * Path appended to the pets path for aggregate statistics over every pet,
+     * e.g. content://com.example.android.pets/pets/stats?group=breed
+     */
+    public static final String PATH_STATS = "stats";
+
+    /**
+     * Path appended to the pets path for the section index of the pets sorted by name,
+     * e.g. content://com.example.android.pets/pets/sections
+     */
+    public static final String PATH_SECTIONS = "sections";
+
+    /**
+     * Path appended to the pets path for the changes made to the pets since a point of the
+     * change log, e.g. content://com.example.android.pets/pets/changes?since=42. Not to be
+     * confused with {@link #PATH_PET_CHANGES}, which is only used for notifications.
+     */
+    public static final String PATH_CHANGES = "changes";
+
+    /**
+     * Path appended to the pets path for the call counts and latencies of the provider,
+     * e.g. content://com.example.android.pets/pets/_metrics
+     */
+    public static final String PATH_METRICS = "_metrics";
+
+    /**
+     * Query parameter for deletes and bulk inserts on {@link PetsEntry#CONTENT_URI}. Set to
+     * "false" to hold back the change notifications, e.g. between the chunks of a bulk delete
+     * or an import; the caller then notifies the observers once it is done.
+     */
+    public static final String QUERY_PARAMETER_NOTIFY = "notify";
+
+    /**
+     * Provider method, for {@link android.content.ContentResolver#call}, that returns the
+     * space freed by purged pets to the file system, see {@link #METHOD_PURGE}.
+     */
+    public static final String METHOD_RECLAIM_SPACE = "reclaim_space";
+
+    /**
+     * Provider method, for {@link android.content.ContentResolver#call}, that opens the
+     * database, upgrading it if needed, and prepares the statements of the calling thread.
+     * Call it from a background thread at startup so the first screen doesn't wait for it.
+     */
+    public static final String METHOD_WARM_UP = "warm_up";
+
+    /**
+     * Provider method, for {@link android.content.ContentResolver#call}, that brings back a
+     * deleted pet, with its _ID as the argument, e.g. to undo a delete. Deleted pets can be
+     * restored until they are purged, at least a day after the delete.
+     */
+    public static final String METHOD_RESTORE = "restore";
+
+    /**
+     * Provider method, for {@link android.content.ContentResolver#call}, that removes the pets
+     * deleted more than a day ago for good, in short batches, and then returns the space they
+     * held to the file system. It can take a while; run it in the background when the device
+     * is idle. An argument, if given, is the age in milliseconds from which deleted pets are
+     * purged instead; "0" purges every deleted pet. The change log of
+     * {@link PetChangesEntry} is compacted at the same time.
+     */
+    public static final String METHOD_PURGE = "purge";
+
+    /**
+     * Boolean extra of {@link #METHOD_PURGE}: only return space to the file system with an
+     * incremental vacuum, never with a full VACUUM, which rewrites the whole database. For
+     * purges that may run while the app is in use. A database without incremental vacuum
+     * then keeps the freed pages for its next writes.
+     */
+    public static final String EXTRA_SKIP_VACUUM = "skip_vacuum";
+
     /**
      * Inner class that defines constant values for the pets database table.
      * Each entry in the table represents a single pet.
@@ -40,8 +224,16 @@ public final class PetContract {
     public static final class PetsEntry implements BaseColumns {
 
         public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_PETS);
+        public static final Uri CONTENT_SEARCH_URI = Uri.withAppendedPath(CONTENT_URI, PATH_SEARCH);
+        public static final Uri CONTENT_EXPORT_URI = Uri.withAppendedPath(CONTENT_URI, PATH_EXPORT);
+        public static final Uri CONTENT_GENDER_URI = Uri.withAppendedPath(CONTENT_URI, PATH_GENDER);
+        public static final Uri CONTENT_WEIGHT_URI = Uri.withAppendedPath(CONTENT_URI, PATH_WEIGHT);
+        public static final Uri CONTENT_CHANGES_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_PET_CHANGES);
         public static final String PET_CONTENT_ITEM_TYPE= ContentResolver.CURSOR_ITEM_BASE_TYPE +"/"+CONTENT_AUTHORITY+"/"+PATH_PETS;
         public static final String PET_CONTENT_LIST_TYPE=ContentResolver.CURSOR_DIR_BASE_TYPE +"/"+CONTENT_AUTHORITY+"/"+PATH_PETS;
+        public static final String EXPORT_CSV_TYPE = "text/csv";
+        public static final String EXPORT_JSON_TYPE = "application/json";
+        public static final String PHOTO_TYPE = "image/jpeg";
 
         public static final String TABLE_NAME = "pets";
 
@@ -50,6 +242,24 @@ public final class PetContract {
         public static final String COLUMN_PET_BREED = "breed";
         public static final String COLUMN_PET_GENDER = "gender";
         public static final String COLUMN_PET_WEIGHT = "weight";
+        /**
+         * Number of times the pet was written, starting at 1. Read only; every update adds
+         * one, see {@link #buildVersionedUri(Uri, long)}.
+         */
+        public static final String COLUMN_PET_VERSION = "version";
+        /**
+         * Time the photo of the pet was last saved, in milliseconds, or 0 if it has none. Read
+         * only; saving a photo through {@link #buildPhotoUri(long)} sets it, without changing
+         * {@link #COLUMN_PET_VERSION}. Use it to tell photos apart in caches.
+         */
+        public static final String COLUMN_PET_PHOTO_VERSION = "photo_version";
+
+        /**
+         * Time a pet was deleted, in milliseconds since the epoch, or 0 if it wasn't. Deleting
+         * a pet only sets this column, and deleted pets are left out of every query until
+         * {@link PetContract#METHOD_PURGE} removes them. Not readable through the provider.
+         */
+        public static final String COLUMN_PET_DELETED = "deleted";
 
 
         public static final int GENDER_UNKNOWN = 0;
@@ -57,11 +267,308 @@ public final class PetContract {
         public static final int GENDER_FEMALE = 2;
 
 
-        static boolean isValidGender(Integer gender) {
+        /**
+         * Build the URI for the page of at most {@code pageSize} pets that follows the pet
+         * with the given _ID. Use 0 for the first page.
+         */
+        public static Uri buildPageUri(Uri uri, long afterId, int pageSize) {
+            return uri.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_AFTER_ID, String.valueOf(afterId))
+                    .appendQueryParameter(QUERY_PARAMETER_LIMIT, String.valueOf(pageSize))
+                    .build();
+        }
+
+        /**
+         * Build the URI for a page of a list sorted by another column than _ID, see
+         * {@link #getSortColumn(Uri)}: at most {@code pageSize} pets following the pet with
+         * the given sort key and _ID. Pass a null afterKey for the first page.
+         */
+        public static Uri buildPageUri(Uri uri, String afterKey, long afterId, int pageSize) {
+            if (afterKey == null) {
+                return uri.buildUpon()
+                        .appendQueryParameter(QUERY_PARAMETER_LIMIT, String.valueOf(pageSize))
+                        .build();
+            }
+            return buildPageUri(uri.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_AFTER_KEY, afterKey)
+                    .build(), afterId, pageSize);
+        }
+
+        /**
+         * Build the URI for a page of every pet sorted by name that starts {@code offset} pets
+         * into the given section of {@link PetSectionsEntry}, holding at most
+         * {@code pageSize} pets.
+         */
+        public static Uri buildSectionPageUri(String section, int offset, int pageSize) {
+            // Every name of the section is at least the section itself, and _IDs start at 1
+            return buildPageUri(buildSortedUri(CONTENT_URI, SORT_NAME).buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_OFFSET, String.valueOf(offset))
+                    .build(), section, 0, pageSize);
+        }
+
+        /**
+         * Build the URI listing the pets of the given gender.
+         */
+        public static Uri buildGenderUri(int gender) {
+            return ContentUris.withAppendedId(CONTENT_GENDER_URI, gender);
+        }
+
+        /**
+         * Build the URI listing the pets weighing from min to max kg, both included.
+         */
+        public static Uri buildWeightUri(int min, int max) {
+            return CONTENT_WEIGHT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_MIN_WEIGHT, String.valueOf(min))
+                    .appendQueryParameter(QUERY_PARAMETER_MAX_WEIGHT, String.valueOf(max))
+                    .build();
+        }
+
+        /**
+         * Build the URI of the given list of pets sorted by {@link #SORT_NAME}.
+         */
+        public static Uri buildSortedUri(Uri uri, String sort) {
+            return uri.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_SORT, sort)
+                    .build();
+        }
+
+        /**
+         * Return the column the given list of pets is sorted by before _ID, or null if it is
+         * sorted by _ID alone. Pages of a list with a sort column continue after a key, see
+         * {@link #buildPageUri(Uri, String, long, int)}.
+         */
+        public static String getSortColumn(Uri uri) {
+            if (uri.getPathSegments().size() == 2 && PATH_WEIGHT.equals(uri.getPathSegments().get(1))) {
+                return COLUMN_PET_WEIGHT;
+            }
+            return SORT_NAME.equals(uri.getQueryParameter(QUERY_PARAMETER_SORT)) ? COLUMN_PET_NAME : null;
+        }
+
+        /**
+         * Build the URI of the given pet for an update that only applies if the pet is still
+         * at the version it was read at, i.e. nobody else wrote it in the meantime.
+         */
+        public static Uri buildVersionedUri(Uri petUri, long version) {
+            return petUri.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_EXPECTED_VERSION, String.valueOf(version))
+                    .build();
+        }
+
+        /**
+         * Build the URI of the photo of the pet with the given _ID.
+         */
+        public static Uri buildPhotoUri(long id) {
+            return CONTENT_URI.buildUpon()
+                    .appendPath(String.valueOf(id))
+                    .appendPath(PATH_PHOTO)
+                    .build();
+        }
+
+        /**
+         * Build the URI searching pet names and breeds for the given text.
+         */
+        public static Uri buildSearchUri(String query) {
+            return CONTENT_SEARCH_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_SEARCH, query)
+                    .build();
+        }
+
+        /**
+         * Build the URI of an export of every pet in the given format, {@link #FORMAT_CSV} or
+         * {@link #FORMAT_JSON}.
+         */
+        public static Uri buildExportUri(String format) {
+            return CONTENT_EXPORT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_FORMAT, format)
+                    .build();
+        }
+
+        static boolean isValidGender(int gender) {
             return gender == PetsEntry.GENDER_MALE
                     || gender == PetsEntry.GENDER_FEMALE
                     || gender == PetsEntry.GENDER_UNKNOWN;
         }
 
     }
+
+    /**
+     * Aggregate statistics over every pet, read from {@link #CONTENT_URI}. Without a group,
+     * the result is a single row of totals. With {@link #QUERY_PARAMETER_GROUP} set to
+     * {@link #GROUP_GENDER} or {@link #GROUP_BREED}, there is a row per gender or breed with
+     * its count and weights. With {@link #GROUP_WEIGHT}, there is a row per weight range of
+     * {@link #WEIGHT_BUCKET_SIZE} kg holding the number of pets in it.
+     * <p>
+     * The statistics are kept up to date as pets change, so reading them costs the same no
+     * matter how many pets there are.
+     */
+    public static final class PetStatsEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(PetsEntry.CONTENT_URI, PATH_STATS);
+        public static final String CONTENT_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_PETS + "_" + PATH_STATS;
+
+        public static final String QUERY_PARAMETER_GROUP = "group";
+        public static final String GROUP_GENDER = "gender";
+        public static final String GROUP_BREED = "breed";
+        public static final String GROUP_WEIGHT = "weight";
+
+        /**
+         * Width in kg of the weight ranges of {@link #GROUP_WEIGHT}.
+         */
+        public static final int WEIGHT_BUCKET_SIZE = 5;
+
+        /**
+         * Number of pets in the row, in {@link BaseColumns#_COUNT}.
+         */
+        public static final String _COUNT = BaseColumns._COUNT;
+        public static final String COLUMN_GENDER = PetsEntry.COLUMN_PET_GENDER;
+        /**
+         * Breed of the row; pets without a breed are counted under the empty breed.
+         */
+        public static final String COLUMN_BREED = PetsEntry.COLUMN_PET_BREED;
+        public static final String COLUMN_TOTAL_WEIGHT = "total_weight";
+        public static final String COLUMN_AVERAGE_WEIGHT = "average_weight";
+        /**
+         * Lowest and highest weight, inclusive, of a row of {@link #GROUP_WEIGHT}.
+         */
+        public static final String COLUMN_WEIGHT_MIN = "weight_min";
+        public static final String COLUMN_WEIGHT_MAX = "weight_max";
+
+        /**
+         * Build the URI of the statistics grouped by {@link #GROUP_GENDER},
+         * {@link #GROUP_BREED} or {@link #GROUP_WEIGHT}.
+         */
+        public static Uri buildGroupUri(String group) {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_GROUP, group)
+                    .build();
+        }
+    }
+
+    /**
+     * Section index of every pet sorted by name, read from {@link #CONTENT_URI}: a row per
+     * first character of the names, in the order of the list, with the number of pets in the
+     * section and the position of its first pet in the list.
+     * <p>
+     * The counts are kept up to date as pets change, so reading the index costs the same no
+     * matter how many pets there are.
+     */
+    public static final class PetSectionsEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(PetsEntry.CONTENT_URI, PATH_SECTIONS);
+        public static final String CONTENT_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_PETS + "_" + PATH_SECTIONS;
+
+        /**
+         * First character of the names of the section.
+         */
+        public static final String COLUMN_SECTION = "section";
+        /**
+         * Number of pets in the section, in {@link BaseColumns#_COUNT}.
+         */
+        public static final String _COUNT = BaseColumns._COUNT;
+        /**
+         * Position of the first pet of the section in the list, from 0.
+         */
+        public static final String COLUMN_POSITION = "position";
+    }
+
+    /**
+     * Changes to the pets, for consumers that keep a copy of them in sync, read from
+     * {@link #buildChangesUri(long, int)}.
+     * <p>
+     * Every insert, update, delete and restore of a pet is logged with a sequence number that
+     * only ever grows. A query returns a row per pet changed after the given sequence, in
+     * sequence order, holding the last sequence it changed at and its current values, or
+     * {@link #OP_DELETED} if it is gone. Pass the sequence of the last row read as the next
+     * {@link #QUERY_PARAMETER_SINCE}. Reading the changes costs the same however many pets
+     * there are.
+     * <p>
+     * A consumer starting out with a since of 0, or one so far behind that the changes it
+     * missed were dropped from the log, gets a single {@link #OP_RESET} row instead. It then
+     * has to read every pet again, e.g. by pages of {@link PetsEntry#CONTENT_URI}, and carry
+     * on from the sequence of that row. Changes are kept in the log for at least 30 days.
+     */
+    public static final class PetChangesEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(PetsEntry.CONTENT_URI, PATH_CHANGES);
+        public static final String CONTENT_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_PETS + "_" + PATH_CHANGES;
+
+        /**
+         * Query parameter holding the sequence of the last change already read, or 0.
+         */
+        public static final String QUERY_PARAMETER_SINCE = "since";
+
+        /**
+         * _ID of the pet that changed, null in an {@link #OP_RESET} row.
+         */
+        public static final String _ID = BaseColumns._ID;
+        public static final String COLUMN_SEQUENCE = "seq";
+        /**
+         * {@link #OP_CHANGED}, {@link #OP_DELETED} or {@link #OP_RESET}.
+         */
+        public static final String COLUMN_OPERATION = "op";
+        /**
+         * Current values of a changed pet, null for the other operations.
+         */
+        public static final String COLUMN_PET_NAME = PetsEntry.COLUMN_PET_NAME;
+        public static final String COLUMN_PET_BREED = PetsEntry.COLUMN_PET_BREED;
+        public static final String COLUMN_PET_GENDER = PetsEntry.COLUMN_PET_GENDER;
+        public static final String COLUMN_PET_WEIGHT = PetsEntry.COLUMN_PET_WEIGHT;
+        public static final String COLUMN_PET_VERSION = PetsEntry.COLUMN_PET_VERSION;
+        public static final String COLUMN_PET_PHOTO_VERSION = PetsEntry.COLUMN_PET_PHOTO_VERSION;
+
+        /**
+         * The pet was added, changed or restored.
+         */
+        public static final int OP_CHANGED = 1;
+        /**
+         * The pet was deleted.
+         */
+        public static final int OP_DELETED = 2;
+        /**
+         * The changes since the given sequence are no longer known; read every pet again.
+         */
+        public static final int OP_RESET = 3;
+
+        /**
+         * Build the URI of at most {@code limit} changes after the given sequence.
+         */
+        public static Uri buildChangesUri(long since, int limit) {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_SINCE, String.valueOf(since))
+                    .appendQueryParameter(QUERY_PARAMETER_LIMIT, String.valueOf(limit))
+                    .build();
+        }
+    }
+
+    /**
+     * Call counts and latencies of the provider since its process started, read from
+     * {@link #CONTENT_URI}. There is a row per operation and URI called, e.g. query on pets/#.
+     * Percentiles are estimates, accurate to within a factor of two.
+     */
+    public static final class PetMetricsEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(PetsEntry.CONTENT_URI, PATH_METRICS);
+        public static final String CONTENT_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_PETS + PATH_METRICS;
+
+        /**
+         * Number of calls, in {@link BaseColumns#_COUNT}.
+         */
+        public static final String _COUNT = BaseColumns._COUNT;
+        /**
+         * query, insert, bulkInsert, update, delete or getType.
+         */
+        public static final String COLUMN_OPERATION = "operation";
+        /**
+         * URI pattern called, e.g. pets/#.
+         */
+        public static final String COLUMN_URI = "uri";
+        /**
+         * Total rows returned by the queries, or written by the other operations.
+         */
+        public static final String COLUMN_ROWS = "rows";
+        public static final String COLUMN_MEAN_US = "mean_us";
+        public static final String COLUMN_P50_US = "p50_us";
+        public static final String COLUMN_P95_US = "p95_us";
+        public static final String COLUMN_P99_US = "p99_us";
+    }
 }
@@ -1,12 +1,18 @@
 package com.example.android.pets.data;
 
 import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
+import android.os.SystemClock;
+import android.text.TextUtils;
 import android.util.Log;
 
 import static android.provider.BaseColumns._ID;
 import static com.example.android.pets.data.PetContract.PetsEntry.COLUMN_PET_BREED;
+import static com.example.android.pets.data.PetContract.PetsEntry.COLUMN_PET_DELETED;
 import static com.example.android.pets.data.PetContract.PetsEntry.COLUMN_PET_GENDER;
 import static com.example.android.pets.data.PetContract.PetsEntry.COLUMN_PET_NAME;
 import static com.example.android.pets.data.PetContract.PetsEntry.COLUMN_PET_WEIGHT;
@@ -14,11 +20,278 @@ import static com.example.android.pets.data.PetContract.PetsEntry.TABLE_NAME;
 
 public class PetDBHelper extends SQLiteOpenHelper {
     private static final String DATABASE_NAME = "pets.db";
-    private static final int DATABASE_VERSION = 1;
+    private static final int DATABASE_VERSION = 10;
     private static final String LOG_TAG = PetDBHelper.class.getSimpleName();
 
+    /**
+     * Full-text index over the name and breed of every pet. Its docid is the _ID of the pet,
+     * and the triggers below keep it in sync with the pets table.
+     */
+    static final String FTS_TABLE_NAME = "pets_fts";
+
+    /**
+     * Summary of the pets per gender and breed, kept up to date by triggers on the pets table
+     * so statistics are read from a row per group instead of from every pet. Pets without a
+     * breed are counted under the empty breed.
+     */
+    static final String STATS_TABLE_NAME = "pet_stats";
+
+    /**
+     * Number of pets per weight range of {@link PetContract.PetStatsEntry#WEIGHT_BUCKET_SIZE}
+     * kg, kept up to date the same way.
+     */
+    static final String WEIGHT_STATS_TABLE_NAME = "pet_weight_stats";
+
+    static final String COLUMN_STATS_BUCKET = "bucket";
+
+    /**
+     * Number of pets per first character of their name, kept up to date the same way, from
+     * which the positions of the sections of the catalog sorted by name are summed.
+     */
+    static final String SECTIONS_TABLE_NAME = "pet_sections";
+
+    /**
+     * Append-only log of the changes to the pets read by {@link PetContract.PetChangesEntry}:
+     * triggers add a row per insert, update, delete and restore. Its sequence is AUTOINCREMENT,
+     * so it is never handed out twice, even once the rows holding it were compacted away.
+     */
+    static final String CHANGE_LOG_TABLE_NAME = "pet_change_log";
+
+    static final String COLUMN_CHANGE_PET_ID = "pet_id";
+    static final String COLUMN_CHANGE_TIME = "time";
+
+    /**
+     * Single row holding the watermark of the change log: the last sequence dropped from it
+     * unread by {@link #compactChangeLog}. The changes since a sequence below it are no longer
+     * complete.
+     */
+    static final String CHANGE_LOG_STATE_TABLE_NAME = "pet_change_log_state";
+
+    static final String COLUMN_CHANGE_WATERMARK = "watermark";
+
+    /**
+     * Current time of SQLite in milliseconds since the epoch, like System.currentTimeMillis().
+     */
+    private static final String NOW_MILLIS = "CAST((julianday('now')-2440587.5)*86400000 AS INTEGER)";
+
+    /**
+     * Condition for pets that weren't deleted. Every query adds it, spelled exactly like
+     * this, so SQLite can use the partial indexes that only hold those pets.
+     */
+    static final String LIVE_PETS = COLUMN_PET_DELETED + "=0";
+
+    /**
+     * Condition for tombstones, the pets deleted and not purged yet.
+     */
+    static final String DELETED_PETS = COLUMN_PET_DELETED + "!=0";
+
+    /**
+     * Value of PRAGMA auto_vacuum when pages freed by deletes are kept in the file until
+     * PRAGMA incremental_vacuum returns them.
+     */
+    private static final int AUTO_VACUUM_INCREMENTAL = 2;
+
+    /**
+     * Version of the schema created by {@link #onCreate(SQLiteDatabase)} before any migration.
+     */
+    private static final int BASE_VERSION = 1;
+
+    /**
+     * Every schema change since {@link #BASE_VERSION}, in order. To change the schema, append a
+     * migration starting at the current DATABASE_VERSION and increase DATABASE_VERSION by one.
+     * Never edit a migration that has already shipped.
+     */
+    private static final PetMigration[] MIGRATIONS = {
+            // 1 -> 2: full-text index over name and breed
+            new PetMigration(1) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    createSearchIndex(db);
+                    db.execSQL("INSERT INTO " + FTS_TABLE_NAME + "(docid," + COLUMN_PET_NAME + "," + COLUMN_PET_BREED + ")" +
+                            " SELECT " + _ID + "," + COLUMN_PET_NAME + "," + COLUMN_PET_BREED + " FROM " + TABLE_NAME);
+                }
+            },
+            // 2 -> 3: indexes for filtering and sorting the catalog by each column. Every index
+            // carries name and breed as well, so catalog rows (_id, name, breed) are read from
+            // the index alone without a lookup into the table. The breed index has _id right
+            // after breed, so the pets of one breed come in the _id order of the catalog pages.
+            new PetMigration(2) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    createIndex(db, COLUMN_PET_NAME, COLUMN_PET_NAME, COLUMN_PET_BREED);
+                    createIndex(db, COLUMN_PET_BREED, COLUMN_PET_BREED, _ID, COLUMN_PET_NAME);
+                    createIndex(db, COLUMN_PET_GENDER, COLUMN_PET_GENDER, COLUMN_PET_NAME, COLUMN_PET_BREED);
+                    createIndex(db, COLUMN_PET_WEIGHT, COLUMN_PET_WEIGHT, COLUMN_PET_NAME, COLUMN_PET_BREED);
+                }
+            },
+            // 3 -> 4: summary tables for the statistics
+            new PetMigration(3) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    createStatsTables(db);
+                    db.execSQL("INSERT INTO " + STATS_TABLE_NAME + " SELECT " + COLUMN_PET_GENDER + "," +
+                            statsBreed("") + ",COUNT(*),SUM(" + statsWeight("") + ")" +
+                            " FROM " + TABLE_NAME + " GROUP BY 1,2");
+                    db.execSQL("INSERT INTO " + WEIGHT_STATS_TABLE_NAME + " SELECT " + statsBucket("") + ",COUNT(*)" +
+                            " FROM " + TABLE_NAME + " GROUP BY 1");
+                }
+            },
+            // 4 -> 5: row version for conditional updates
+            new PetMigration(4) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("ALTER TABLE " + TABLE_NAME + " ADD COLUMN " +
+                            PetContract.PetsEntry.COLUMN_PET_VERSION + " INTEGER NOT NULL DEFAULT 1");
+                }
+            },
+            // 5 -> 6: when the photo of a pet was saved, 0 for none
+            new PetMigration(5) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("ALTER TABLE " + TABLE_NAME + " ADD COLUMN " +
+                            PetContract.PetsEntry.COLUMN_PET_PHOTO_VERSION + " INTEGER NOT NULL DEFAULT 0");
+                }
+            },
+            // 6 -> 7: indexes for keyset pages of the typed lists. Each ends in _id, right after
+            // the column the list is sorted by, so a page is one range of the index whichever
+            // pet it starts after. Catalog rows now also read photo_version from the table, so
+            // carrying name and breed in the indexes no longer saves a lookup.
+            new PetMigration(6) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    dropIndex(db, COLUMN_PET_NAME);
+                    dropIndex(db, COLUMN_PET_GENDER);
+                    dropIndex(db, COLUMN_PET_WEIGHT);
+                    createIndex(db, COLUMN_PET_NAME, COLUMN_PET_NAME, _ID);
+                    createIndex(db, COLUMN_PET_GENDER, COLUMN_PET_GENDER, _ID);
+                    createIndex(db, COLUMN_PET_GENDER + "_" + COLUMN_PET_NAME, COLUMN_PET_GENDER, COLUMN_PET_NAME, _ID);
+                    createIndex(db, COLUMN_PET_WEIGHT, COLUMN_PET_WEIGHT, _ID);
+                }
+            },
+            // 7 -> 8: summary table for the section index of the catalog sorted by name
+            new PetMigration(7) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    createSectionsTable(db);
+                    db.execSQL("INSERT INTO " + SECTIONS_TABLE_NAME + " SELECT " + section("") + ",COUNT(*)" +
+                            " FROM " + TABLE_NAME + " GROUP BY 1");
+                }
+            },
+            // 8 -> 9: deletes leave a tombstone, purged later in the background. Tombstones
+            // are kept out of the summary tables, and out of the list indexes where SQLite
+            // supports partial indexes, so they cost the lists nothing.
+            new PetMigration(8) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("ALTER TABLE " + TABLE_NAME + " ADD COLUMN " +
+                            COLUMN_PET_DELETED + " INTEGER NOT NULL DEFAULT 0");
+                    createTombstoneTriggers(db);
+                    if (supportsPartialIndexes(db)) {
+                        dropIndex(db, COLUMN_PET_NAME);
+                        dropIndex(db, COLUMN_PET_BREED);
+                        dropIndex(db, COLUMN_PET_GENDER);
+                        dropIndex(db, COLUMN_PET_GENDER + "_" + COLUMN_PET_NAME);
+                        dropIndex(db, COLUMN_PET_WEIGHT);
+                        createPartialIndex(db, COLUMN_PET_NAME, LIVE_PETS, COLUMN_PET_NAME, _ID);
+                        createPartialIndex(db, COLUMN_PET_BREED, LIVE_PETS, COLUMN_PET_BREED, _ID);
+                        createPartialIndex(db, COLUMN_PET_GENDER, LIVE_PETS, COLUMN_PET_GENDER, _ID);
+                        createPartialIndex(db, COLUMN_PET_GENDER + "_" + COLUMN_PET_NAME, LIVE_PETS,
+                                COLUMN_PET_GENDER, COLUMN_PET_NAME, _ID);
+                        createPartialIndex(db, COLUMN_PET_WEIGHT, LIVE_PETS, COLUMN_PET_WEIGHT, _ID);
+                        // Finds the tombstones to purge without reading the live pets
+                        createPartialIndex(db, COLUMN_PET_DELETED, DELETED_PETS, COLUMN_PET_DELETED);
+                    }
+                }
+            },
+            // 9 -> 10: change log for consumers syncing the pets incrementally. Pets that
+            // existed before aren't logged; consumers start with a full read anyway.
+            new PetMigration(9) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    createChangeLog(db);
+                }
+            },
+    };
+
+    /**
+     * Whether {@link #onCreate(SQLiteDatabase)} just created the database, so that
+     * {@link #onOpen(SQLiteDatabase)} switches it to incremental vacuum.
+     */
+    private boolean mCreated;
+
     public PetDBHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        // With write-ahead logging, the loaders reading pets no longer wait for provider
+        // writes to finish, and a commit appends to the log instead of rewriting the file.
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            setWriteAheadLoggingEnabled(true);
+        }
+    }
+
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        super.onConfigure(db);
+        configure(db);
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        // onConfigure and setWriteAheadLoggingEnabled only exist from Jelly Bean on
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            db.enableWriteAheadLogging();
+            configure(db);
+        }
+        // auto_vacuum only applies to a file without tables, and Android creates
+        // android_metadata before onCreate runs. A new database is still empty, so rebuilding
+        // it once is cheap; VACUUM can't run inside the transaction of onCreate.
+        if (mCreated) {
+            mCreated = false;
+            enableIncrementalVacuum(db);
+        }
+    }
+
+    /**
+     * Tune the connection before it is used. Pragmas only reach the primary connection, the
+     * one every write goes through; the read connections of write-ahead logging keep the
+     * defaults, including SQLite's own page cache of about 2 MB each.
+     */
+    private static void configure(SQLiteDatabase db) {
+        // In WAL mode NORMAL only syncs at checkpoints, and still can't corrupt the database
+        db.execSQL("PRAGMA synchronous=NORMAL");
+        // Every query shape the provider issues keeps its compiled statement, so repeated
+        // queries skip parsing and planning
+        db.setMaxSqlCacheSize(50);
+    }
+
+    /**
+     * Return the pages freed by deleted pets to the file system. Must not be called inside a
+     * transaction.
+     *
+     * @param allowVacuum whether a database without incremental vacuum may be rebuilt with a
+     *                    full VACUUM; otherwise it is left as is
+     */
+    static void reclaimSpace(SQLiteDatabase db, boolean allowVacuum) {
+        if (DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum", null) == AUTO_VACUUM_INCREMENTAL) {
+            // Returns a row for every page it frees, so step through all of them
+            Cursor cursor = db.rawQuery("PRAGMA incremental_vacuum", null);
+            try {
+                while (cursor.moveToNext()) {
+                    // Nothing to read
+                }
+            } finally {
+                cursor.close();
+            }
+        } else if (allowVacuum) {
+            // Databases created before incremental vacuum was turned on only switch over
+            // with a full VACUUM, which rebuilds the file once
+            enableIncrementalVacuum(db);
+        }
+    }
+
+    private static void enableIncrementalVacuum(SQLiteDatabase db) {
+        db.execSQL("PRAGMA auto_vacuum=INCREMENTAL");
+        db.execSQL("VACUUM");
     }
 
     @Override
@@ -32,12 +305,338 @@ public class PetDBHelper extends SQLiteOpenHelper {
                         COLUMN_PET_WEIGHT + " INTEGER DEFAULT 0);";
         Log.d(LOG_TAG,CREATE_PETS_ENTRIES);
         db.execSQL(CREATE_PETS_ENTRIES);
+        // Bring the base schema up to date through the same steps existing databases take
+        migrate(db, BASE_VERSION, DATABASE_VERSION);
+        mCreated = true;
+    }
+
+    private static void createSearchIndex(SQLiteDatabase db) {
+        db.execSQL("CREATE VIRTUAL TABLE " + FTS_TABLE_NAME + " USING fts4(" +
+                COLUMN_PET_NAME + "," +
+                COLUMN_PET_BREED + ");");
+        db.execSQL("CREATE TRIGGER " + FTS_TABLE_NAME + "_insert AFTER INSERT ON " + TABLE_NAME +
+                " BEGIN INSERT INTO " + FTS_TABLE_NAME + "(docid," + COLUMN_PET_NAME + "," + COLUMN_PET_BREED + ")" +
+                " VALUES (new." + _ID + ",new." + COLUMN_PET_NAME + ",new." + COLUMN_PET_BREED + "); END;");
+        db.execSQL("CREATE TRIGGER " + FTS_TABLE_NAME + "_update AFTER UPDATE OF " +
+                COLUMN_PET_NAME + "," + COLUMN_PET_BREED + " ON " + TABLE_NAME +
+                " BEGIN UPDATE " + FTS_TABLE_NAME + " SET " +
+                COLUMN_PET_NAME + "=new." + COLUMN_PET_NAME + "," +
+                COLUMN_PET_BREED + "=new." + COLUMN_PET_BREED +
+                " WHERE docid=new." + _ID + "; END;");
+        db.execSQL("CREATE TRIGGER " + FTS_TABLE_NAME + "_delete AFTER DELETE ON " + TABLE_NAME +
+                " BEGIN DELETE FROM " + FTS_TABLE_NAME + " WHERE docid=old." + _ID + "; END;");
+    }
+
+    /**
+     * Breed of a row as counted in the summary tables, where pets without a breed count under
+     * the empty breed. The row is "new.", "old." or "" for the pets table itself.
+     */
+    private static String statsBreed(String row) {
+        return "IFNULL(" + row + COLUMN_PET_BREED + ",'')";
+    }
+
+    private static String statsWeight(String row) {
+        return "IFNULL(" + row + COLUMN_PET_WEIGHT + ",0)";
+    }
+
+    /**
+     * Weight range a row is counted in.
+     */
+    private static String statsBucket(String row) {
+        return statsWeight(row) + "/" + PetContract.PetStatsEntry.WEIGHT_BUCKET_SIZE;
+    }
+
+    private static void createStatsTables(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + STATS_TABLE_NAME + "(" +
+                COLUMN_PET_GENDER + " INTEGER NOT NULL," +
+                COLUMN_PET_BREED + " TEXT NOT NULL," +
+                PetContract.PetStatsEntry._COUNT + " INTEGER NOT NULL," +
+                PetContract.PetStatsEntry.COLUMN_TOTAL_WEIGHT + " INTEGER NOT NULL," +
+                "PRIMARY KEY(" + COLUMN_PET_GENDER + "," + COLUMN_PET_BREED + "));");
+        // The primary key starts with gender; grouping by breed needs an index of its own to
+        // skip the sort
+        db.execSQL("CREATE INDEX " + STATS_TABLE_NAME + "_" + COLUMN_PET_BREED + "_index ON " +
+                STATS_TABLE_NAME + "(" + COLUMN_PET_BREED + ");");
+        db.execSQL("CREATE TABLE " + WEIGHT_STATS_TABLE_NAME + "(" +
+                COLUMN_STATS_BUCKET + " INTEGER PRIMARY KEY," +
+                PetContract.PetStatsEntry._COUNT + " INTEGER NOT NULL);");
+
+        // Count a row in, creating its groups if needed, or count it out, dropping groups
+        // that become empty
+        db.execSQL("CREATE TRIGGER " + STATS_TABLE_NAME + "_insert AFTER INSERT ON " + TABLE_NAME +
+                " BEGIN " + countIn("new.") + " END;");
+        db.execSQL("CREATE TRIGGER " + STATS_TABLE_NAME + "_update AFTER UPDATE OF " +
+                COLUMN_PET_GENDER + "," + COLUMN_PET_BREED + "," + COLUMN_PET_WEIGHT + " ON " + TABLE_NAME +
+                " BEGIN " + countOut("old.") + countIn("new.") + " END;");
+        db.execSQL("CREATE TRIGGER " + STATS_TABLE_NAME + "_delete AFTER DELETE ON " + TABLE_NAME +
+                " BEGIN " + countOut("old.") + " END;");
+    }
+
+    /**
+     * Section a row is counted in: the first character of its name. Sections compare like the
+     * names they start, so they are in the order of the catalog sorted by name.
+     */
+    private static String section(String row) {
+        return "SUBSTR(" + row + COLUMN_PET_NAME + ",1,1)";
+    }
+
+    private static void createSectionsTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + SECTIONS_TABLE_NAME + "(" +
+                PetContract.PetSectionsEntry.COLUMN_SECTION + " TEXT PRIMARY KEY," +
+                PetContract.PetSectionsEntry._COUNT + " INTEGER NOT NULL);");
+        db.execSQL("CREATE TRIGGER " + SECTIONS_TABLE_NAME + "_insert AFTER INSERT ON " + TABLE_NAME +
+                " BEGIN " + sectionCountIn("new.") + " END;");
+        db.execSQL("CREATE TRIGGER " + SECTIONS_TABLE_NAME + "_update AFTER UPDATE OF " + COLUMN_PET_NAME +
+                " ON " + TABLE_NAME + " WHEN " + section("old.") + "!=" + section("new.") +
+                " BEGIN " + sectionCountOut("old.") + sectionCountIn("new.") + " END;");
+        db.execSQL("CREATE TRIGGER " + SECTIONS_TABLE_NAME + "_delete AFTER DELETE ON " + TABLE_NAME +
+                " BEGIN " + sectionCountOut("old.") + " END;");
+    }
+
+    /**
+     * Trigger statements adding the given row, "new." or "old.", to the sections.
+     */
+    private static String sectionCountIn(String row) {
+        String count = PetContract.PetSectionsEntry._COUNT;
+        return "INSERT OR IGNORE INTO " + SECTIONS_TABLE_NAME + " VALUES (" + section(row) + ",0);" +
+                " UPDATE " + SECTIONS_TABLE_NAME + " SET " + count + "=" + count + "+1" +
+                " WHERE " + PetContract.PetSectionsEntry.COLUMN_SECTION + "=" + section(row) + ";";
+    }
+
+    /**
+     * Trigger statements removing the given row from the sections.
+     */
+    private static String sectionCountOut(String row) {
+        String count = PetContract.PetSectionsEntry._COUNT;
+        return "UPDATE " + SECTIONS_TABLE_NAME + " SET " + count + "=" + count + "-1" +
+                " WHERE " + PetContract.PetSectionsEntry.COLUMN_SECTION + "=" + section(row) + ";" +
+                " DELETE FROM " + SECTIONS_TABLE_NAME +
+                " WHERE " + PetContract.PetSectionsEntry.COLUMN_SECTION + "=" + section(row) +
+                " AND " + count + "=0;";
+    }
+
+    /**
+     * Replace the triggers of the summary tables so they only count pets that weren't deleted:
+     * a pet is counted out when it gets a tombstone and back in when it is restored, and
+     * purging a tombstone, or editing one, changes nothing.
+     */
+    private static void createTombstoneTriggers(SQLiteDatabase db) {
+        String live = "old." + LIVE_PETS;
+        db.execSQL("DROP TRIGGER " + STATS_TABLE_NAME + "_update;");
+        db.execSQL("DROP TRIGGER " + STATS_TABLE_NAME + "_delete;");
+        db.execSQL("DROP TRIGGER " + SECTIONS_TABLE_NAME + "_update;");
+        db.execSQL("DROP TRIGGER " + SECTIONS_TABLE_NAME + "_delete;");
+        db.execSQL("CREATE TRIGGER " + STATS_TABLE_NAME + "_update AFTER UPDATE OF " +
+                COLUMN_PET_GENDER + "," + COLUMN_PET_BREED + "," + COLUMN_PET_WEIGHT + " ON " + TABLE_NAME +
+                " WHEN " + live + " BEGIN " + countOut("old.") + countIn("new.") + " END;");
+        db.execSQL("CREATE TRIGGER " + STATS_TABLE_NAME + "_delete AFTER DELETE ON " + TABLE_NAME +
+                " WHEN " + live + " BEGIN " + countOut("old.") + " END;");
+        db.execSQL("CREATE TRIGGER " + SECTIONS_TABLE_NAME + "_update AFTER UPDATE OF " + COLUMN_PET_NAME +
+                " ON " + TABLE_NAME + " WHEN " + live + " AND " + section("old.") + "!=" + section("new.") +
+                " BEGIN " + sectionCountOut("old.") + sectionCountIn("new.") + " END;");
+        db.execSQL("CREATE TRIGGER " + SECTIONS_TABLE_NAME + "_delete AFTER DELETE ON " + TABLE_NAME +
+                " WHEN " + live + " BEGIN " + sectionCountOut("old.") + " END;");
+        db.execSQL("CREATE TRIGGER " + TABLE_NAME + "_tombstone AFTER UPDATE OF " + COLUMN_PET_DELETED +
+                " ON " + TABLE_NAME + " WHEN " + live + " AND new." + DELETED_PETS +
+                " BEGIN " + countOut("old.") + sectionCountOut("old.") + " END;");
+        db.execSQL("CREATE TRIGGER " + TABLE_NAME + "_restore AFTER UPDATE OF " + COLUMN_PET_DELETED +
+                " ON " + TABLE_NAME + " WHEN old." + DELETED_PETS + " AND new." + LIVE_PETS +
+                " BEGIN " + countIn("new.") + sectionCountIn("new.") + " END;");
+    }
+
+    /**
+     * Create the change log and the triggers appending to it. Editing or purging a tombstone
+     * logs nothing: the pet was logged as deleted when it got the tombstone.
+     */
+    private static void createChangeLog(SQLiteDatabase db) {
+        String live = "old." + LIVE_PETS;
+        db.execSQL("CREATE TABLE " + CHANGE_LOG_TABLE_NAME + "(" +
+                PetContract.PetChangesEntry.COLUMN_SEQUENCE + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+                COLUMN_CHANGE_PET_ID + " INTEGER NOT NULL," +
+                PetContract.PetChangesEntry.COLUMN_OPERATION + " INTEGER NOT NULL," +
+                COLUMN_CHANGE_TIME + " INTEGER NOT NULL);");
+        db.execSQL("CREATE TABLE " + CHANGE_LOG_STATE_TABLE_NAME + "(" +
+                COLUMN_CHANGE_WATERMARK + " INTEGER NOT NULL);");
+        db.execSQL("INSERT INTO " + CHANGE_LOG_STATE_TABLE_NAME + " VALUES (0);");
+        db.execSQL("CREATE TRIGGER " + CHANGE_LOG_TABLE_NAME + "_insert AFTER INSERT ON " + TABLE_NAME +
+                " BEGIN " + logChange("new.", PetContract.PetChangesEntry.OP_CHANGED) + " END;");
+        db.execSQL("CREATE TRIGGER " + CHANGE_LOG_TABLE_NAME + "_update AFTER UPDATE OF " +
+                COLUMN_PET_NAME + "," + COLUMN_PET_BREED + "," + COLUMN_PET_GENDER + "," + COLUMN_PET_WEIGHT + "," +
+                PetContract.PetsEntry.COLUMN_PET_PHOTO_VERSION + " ON " + TABLE_NAME +
+                " WHEN " + live + " AND new." + LIVE_PETS +
+                " BEGIN " + logChange("new.", PetContract.PetChangesEntry.OP_CHANGED) + " END;");
+        db.execSQL("CREATE TRIGGER " + CHANGE_LOG_TABLE_NAME + "_tombstone AFTER UPDATE OF " + COLUMN_PET_DELETED +
+                " ON " + TABLE_NAME + " WHEN " + live + " AND new." + DELETED_PETS +
+                " BEGIN " + logChange("old.", PetContract.PetChangesEntry.OP_DELETED) + " END;");
+        db.execSQL("CREATE TRIGGER " + CHANGE_LOG_TABLE_NAME + "_restore AFTER UPDATE OF " + COLUMN_PET_DELETED +
+                " ON " + TABLE_NAME + " WHEN old." + DELETED_PETS + " AND new." + LIVE_PETS +
+                " BEGIN " + logChange("new.", PetContract.PetChangesEntry.OP_CHANGED) + " END;");
+        db.execSQL("CREATE TRIGGER " + CHANGE_LOG_TABLE_NAME + "_delete AFTER DELETE ON " + TABLE_NAME +
+                " WHEN " + live + " BEGIN " + logChange("old.", PetContract.PetChangesEntry.OP_DELETED) + " END;");
+    }
+
+    /**
+     * Trigger statement logging the given operation on the given row, "new." or "old.".
+     */
+    private static String logChange(String row, int operation) {
+        return "INSERT INTO " + CHANGE_LOG_TABLE_NAME + "(" + COLUMN_CHANGE_PET_ID + "," +
+                PetContract.PetChangesEntry.COLUMN_OPERATION + "," + COLUMN_CHANGE_TIME + ")" +
+                " VALUES (" + row + _ID + "," + operation + "," + NOW_MILLIS + ");";
+    }
+
+    /**
+     * Drop the entries of the change log that a later entry of the same pet supersedes, which
+     * no query returns, and every entry logged up to the given time. The last sequence dropped
+     * that way becomes the watermark, so consumers that synced before it know to start over.
+     *
+     * @return the number of entries dropped
+     */
+    static int compactChangeLog(SQLiteDatabase db, long loggedBeforeMillis) {
+        String sequence = PetContract.PetChangesEntry.COLUMN_SEQUENCE;
+        String[] args = {String.valueOf(loggedBeforeMillis)};
+        db.beginTransaction();
+        try {
+            int rows = db.delete(CHANGE_LOG_TABLE_NAME, sequence + " NOT IN (SELECT MAX(" + sequence + ")" +
+                    " FROM " + CHANGE_LOG_TABLE_NAME + " GROUP BY " + COLUMN_CHANGE_PET_ID + ")", null);
+            db.execSQL("UPDATE " + CHANGE_LOG_STATE_TABLE_NAME + " SET " + COLUMN_CHANGE_WATERMARK +
+                    "=MAX(" + COLUMN_CHANGE_WATERMARK + ",IFNULL((SELECT MAX(" + sequence + ")" +
+                    " FROM " + CHANGE_LOG_TABLE_NAME + " WHERE " + COLUMN_CHANGE_TIME + "<=?),0))", args);
+            rows += db.delete(CHANGE_LOG_TABLE_NAME, COLUMN_CHANGE_TIME + "<=?", args);
+            db.setTransactionSuccessful();
+            return rows;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Recount the statistics and sections from the pets that weren't deleted and return the
+     * number of groups of the summary tables that differ from them, which should always be 0.
+     * Reads every pet.
+     */
+    static long countStatsMismatches(SQLiteDatabase db) {
+        String stats = "SELECT " + COLUMN_PET_GENDER + "," + COLUMN_PET_BREED + "," +
+                PetContract.PetStatsEntry._COUNT + "," + PetContract.PetStatsEntry.COLUMN_TOTAL_WEIGHT +
+                " FROM " + STATS_TABLE_NAME;
+        String live = " FROM " + TABLE_NAME + " WHERE " + LIVE_PETS;
+        String statsRecount = "SELECT " + COLUMN_PET_GENDER + "," + statsBreed("") + ",COUNT(*),SUM(" + statsWeight("") + ")" +
+                live + " GROUP BY 1,2";
+        String weightStats = "SELECT " + COLUMN_STATS_BUCKET + "," + PetContract.PetStatsEntry._COUNT +
+                " FROM " + WEIGHT_STATS_TABLE_NAME;
+        String weightStatsRecount = "SELECT " + statsBucket("") + ",COUNT(*)" + live + " GROUP BY 1";
+        String sections = "SELECT " + PetContract.PetSectionsEntry.COLUMN_SECTION + "," +
+                PetContract.PetSectionsEntry._COUNT + " FROM " + SECTIONS_TABLE_NAME;
+        String sectionsRecount = "SELECT " + section("") + ",COUNT(*)" + live + " GROUP BY 1";
+        return DatabaseUtils.longForQuery(db, "SELECT" +
+                " (SELECT COUNT(*) FROM (" + stats + " EXCEPT " + statsRecount + "))" +
+                "+(SELECT COUNT(*) FROM (" + statsRecount + " EXCEPT " + stats + "))" +
+                "+(SELECT COUNT(*) FROM (" + weightStats + " EXCEPT " + weightStatsRecount + "))" +
+                "+(SELECT COUNT(*) FROM (" + weightStatsRecount + " EXCEPT " + weightStats + "))" +
+                "+(SELECT COUNT(*) FROM (" + sections + " EXCEPT " + sectionsRecount + "))" +
+                "+(SELECT COUNT(*) FROM (" + sectionsRecount + " EXCEPT " + sections + "))", null);
+    }
+
+    /**
+     * Trigger statements adding the given row, "new." or "old.", to the summary tables.
+     */
+    private static String countIn(String row) {
+        String gender = row + COLUMN_PET_GENDER;
+        String breed = statsBreed(row);
+        String weight = statsWeight(row);
+        String bucket = statsBucket(row);
+        String count = PetContract.PetStatsEntry._COUNT;
+        String totalWeight = PetContract.PetStatsEntry.COLUMN_TOTAL_WEIGHT;
+        return "INSERT OR IGNORE INTO " + STATS_TABLE_NAME + " VALUES (" + gender + "," + breed + ",0,0);" +
+                " UPDATE " + STATS_TABLE_NAME + " SET " + count + "=" + count + "+1," +
+                totalWeight + "=" + totalWeight + "+" + weight +
+                " WHERE " + COLUMN_PET_GENDER + "=" + gender + " AND " + COLUMN_PET_BREED + "=" + breed + ";" +
+                " INSERT OR IGNORE INTO " + WEIGHT_STATS_TABLE_NAME + " VALUES (" + bucket + ",0);" +
+                " UPDATE " + WEIGHT_STATS_TABLE_NAME + " SET " + count + "=" + count + "+1" +
+                " WHERE " + COLUMN_STATS_BUCKET + "=" + bucket + ";";
+    }
+
+    /**
+     * Trigger statements removing the given row from the summary tables.
+     */
+    private static String countOut(String row) {
+        String gender = row + COLUMN_PET_GENDER;
+        String breed = statsBreed(row);
+        String weight = statsWeight(row);
+        String bucket = statsBucket(row);
+        String count = PetContract.PetStatsEntry._COUNT;
+        String totalWeight = PetContract.PetStatsEntry.COLUMN_TOTAL_WEIGHT;
+        String group = " WHERE " + COLUMN_PET_GENDER + "=" + gender + " AND " + COLUMN_PET_BREED + "=" + breed;
+        return "UPDATE " + STATS_TABLE_NAME + " SET " + count + "=" + count + "-1," +
+                totalWeight + "=" + totalWeight + "-" + weight + group + ";" +
+                " DELETE FROM " + STATS_TABLE_NAME + group + " AND " + count + "=0;" +
+                " UPDATE " + WEIGHT_STATS_TABLE_NAME + " SET " + count + "=" + count + "-1" +
+                " WHERE " + COLUMN_STATS_BUCKET + "=" + bucket + ";" +
+                " DELETE FROM " + WEIGHT_STATS_TABLE_NAME +
+                " WHERE " + COLUMN_STATS_BUCKET + "=" + bucket + " AND " + count + "=0;";
+    }
+
+    /**
+     * Create the index pets_&lt;name&gt;_index over the given columns of the pets table.
+     */
+    private static void createIndex(SQLiteDatabase db, String name, String... columns) {
+        db.execSQL("CREATE INDEX " + TABLE_NAME + "_" + name + "_index ON " + TABLE_NAME +
+                "(" + TextUtils.join(",", columns) + ");");
+    }
+
+    /**
+     * Create the index pets_&lt;name&gt;_index over the rows of the pets table matching the given
+     * condition. Only queries whose WHERE clause includes the condition can use it.
+     */
+    private static void createPartialIndex(SQLiteDatabase db, String name, String where, String... columns) {
+        db.execSQL("CREATE INDEX " + TABLE_NAME + "_" + name + "_index ON " + TABLE_NAME +
+                "(" + TextUtils.join(",", columns) + ") WHERE " + where + ";");
+    }
+
+    /**
+     * Return whether the SQLite of the device has partial indexes, which came with 3.8.0, the
+     * version of Lollipop. Older ones keep the full indexes, and check each row they read.
+     */
+    private static boolean supportsPartialIndexes(SQLiteDatabase db) {
+        String[] version = DatabaseUtils.stringForQuery(db, "SELECT sqlite_version()", null).split("\\.");
+        int major = Integer.parseInt(version[0]);
+        int minor = Integer.parseInt(version[1]);
+        return major > 3 || major == 3 && minor >= 8;
+    }
+
+    private static void dropIndex(SQLiteDatabase db, String name) {
+        db.execSQL("DROP INDEX IF EXISTS " + TABLE_NAME + "_" + name + "_index;");
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        final String DELETE_PETS_ENTRIES = "DROP TABLE IF EXISTS " + TABLE_NAME;
-        db.execSQL(DELETE_PETS_ENTRIES);
-        onCreate(db);
+        migrate(db, oldVersion, newVersion);
+    }
+
+    /**
+     * Run the migrations from oldVersion up to newVersion in order, each one in its own
+     * transaction.
+     */
+    private static void migrate(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (MIGRATIONS.length != DATABASE_VERSION - BASE_VERSION) {
+            throw new IllegalStateException("DATABASE_VERSION " + DATABASE_VERSION + " does not match the "
+                    + MIGRATIONS.length + " migrations");
+        }
+        for (int version = oldVersion; version < newVersion; version++) {
+            PetMigration migration = MIGRATIONS[version - BASE_VERSION];
+            if (migration.startVersion != version) {
+                throw new IllegalStateException("Migration " + (version - BASE_VERSION) + " starts at version "
+                        + migration.startVersion + " instead of " + version);
+            }
+            long start = SystemClock.elapsedRealtime();
+            db.beginTransaction();
+            try {
+                migration.migrate(db);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            Log.i(LOG_TAG, "Migrated from version " + version + " to " + (version + 1) + " in "
+                    + (SystemClock.elapsedRealtime() - start) + " ms");
+        }
     }
 }
@@ -0,0 +1,198 @@
+package com.example.android.pets.data;
+
+import android.database.CharArrayBuffer;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+/**
+ * Writes every pet to a CSV or JSON stream, served by {@link PetProvider#openFile} on
+ * {@link PetContract.PetsEntry#CONTENT_EXPORT_URI}.
+ * <p>
+ * Pets are read in keyset chunks of {@link #CHUNK_SIZE}, each its own short read, so a long
+ * export neither holds a cursor over the whole table nor keeps the write-ahead log from being
+ * checkpointed. Text columns are copied into reused buffers instead of Strings, so memory use
+ * stays the same whatever the size of the table.
+ */
+class PetExporter {
+
+    static final Charset CHARSET = Charset.forName("UTF-8");
+
+    /**
+     * Pets read per query. Fits well within one CursorWindow.
+     */
+    private static final int CHUNK_SIZE = 1000;
+
+    private static final String[] COLUMNS = {
+            PetContract.PetsEntry._ID,
+            PetContract.PetsEntry.COLUMN_PET_NAME,
+            PetContract.PetsEntry.COLUMN_PET_BREED,
+            PetContract.PetsEntry.COLUMN_PET_GENDER,
+            PetContract.PetsEntry.COLUMN_PET_WEIGHT};
+
+    private static final int ID = 0;
+    private static final int NAME = 1;
+    private static final int BREED = 2;
+    private static final int GENDER = 3;
+    private static final int WEIGHT = 4;
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final Writer mOut;
+    private final boolean mJson;
+    private final CharArrayBuffer mText = new CharArrayBuffer(64);
+    private final char[] mDigits = new char[20];
+
+    /**
+     * @param out  where to write; should be buffered
+     * @param json true for a JSON array of objects, false for CSV with a header
+     */
+    PetExporter(Writer out, boolean json) {
+        mOut = out;
+        mJson = json;
+    }
+
+    /**
+     * Write every pet that wasn't deleted, ordered by _ID.
+     */
+    void export(SQLiteDatabase db) throws IOException {
+        mOut.write(mJson ? "[" : "_id,name,breed,gender,weight\n");
+        String[] args = new String[1];
+        String limit = String.valueOf(CHUNK_SIZE);
+        long lastId = 0;
+        boolean first = true;
+        int rows;
+        do {
+            args[0] = String.valueOf(lastId);
+            Cursor cursor = db.query(PetContract.PetsEntry.TABLE_NAME, COLUMNS,
+                    PetContract.PetsEntry._ID + ">? AND " + PetDBHelper.LIVE_PETS, args, null, null, PetContract.PetsEntry._ID, limit);
+            try {
+                rows = cursor.getCount();
+                while (cursor.moveToNext()) {
+                    lastId = cursor.getLong(ID);
+                    if (mJson) {
+                        writeJsonRow(cursor, first);
+                    } else {
+                        writeCsvRow(cursor);
+                    }
+                    first = false;
+                }
+            } finally {
+                cursor.close();
+            }
+        } while (rows == CHUNK_SIZE);
+        if (mJson) {
+            mOut.write("]\n");
+        }
+        mOut.flush();
+    }
+
+    private void writeCsvRow(Cursor cursor) throws IOException {
+        writeLong(cursor.getLong(ID));
+        mOut.write(',');
+        writeCsvText(cursor, NAME);
+        mOut.write(',');
+        writeCsvText(cursor, BREED);
+        mOut.write(',');
+        writeLong(cursor.getLong(GENDER));
+        mOut.write(',');
+        writeLong(cursor.getLong(WEIGHT));
+        mOut.write('\n');
+    }
+
+    private void writeJsonRow(Cursor cursor, boolean first) throws IOException {
+        mOut.write(first ? "\n{\"_id\":" : ",\n{\"_id\":");
+        writeLong(cursor.getLong(ID));
+        mOut.write(",\"name\":");
+        writeJsonText(cursor, NAME);
+        mOut.write(",\"breed\":");
+        writeJsonText(cursor, BREED);
+        mOut.write(",\"gender\":");
+        writeLong(cursor.getLong(GENDER));
+        mOut.write(",\"weight\":");
+        writeLong(cursor.getLong(WEIGHT));
+        mOut.write('}');
+    }
+
+    /**
+     * Write a text column as a CSV field, quoted only if it has to be. Null is an empty field.
+     */
+    private void writeCsvText(Cursor cursor, int column) throws IOException {
+        cursor.copyStringToBuffer(column, mText);
+        char[] data = mText.data;
+        int length = mText.sizeCopied;
+        boolean quote = false;
+        for (int i = 0; i < length && !quote; i++) {
+            char c = data[i];
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            mOut.write(data, 0, length);
+            return;
+        }
+        mOut.write('"');
+        int start = 0;
+        for (int i = 0; i < length; i++) {
+            if (data[i] == '"') {
+                // Write up to and including the quote, then double it
+                mOut.write(data, start, i + 1 - start);
+                mOut.write('"');
+                start = i + 1;
+            }
+        }
+        mOut.write(data, start, length - start);
+        mOut.write('"');
+    }
+
+    private void writeJsonText(Cursor cursor, int column) throws IOException {
+        if (cursor.isNull(column)) {
+            mOut.write("null");
+            return;
+        }
+        cursor.copyStringToBuffer(column, mText);
+        char[] data = mText.data;
+        int length = mText.sizeCopied;
+        mOut.write('"');
+        int start = 0;
+        for (int i = 0; i < length; i++) {
+            char c = data[i];
+            if (c == '"' || c == '\\' || c < 0x20) {
+                mOut.write(data, start, i - start);
+                start = i + 1;
+                if (c == '"' || c == '\\') {
+                    mOut.write('\\');
+                    mOut.write(c);
+                } else {
+                    mOut.write("\\u00");
+                    mOut.write(HEX_DIGITS[c >> 4]);
+                    mOut.write(HEX_DIGITS[c & 0xf]);
+                }
+            }
+        }
+        mOut.write(data, start, length - start);
+        mOut.write('"');
+    }
+
+    /**
+     * Write the digits of a number without going through a String.
+     */
+    private void writeLong(long value) throws IOException {
+        if (value < 0) {
+            if (value == Long.MIN_VALUE) {
+                mOut.write(String.valueOf(value));
+                return;
+            }
+            mOut.write('-');
+            value = -value;
+        }
+        int position = mDigits.length;
+        do {
+            mDigits[--position] = (char) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        mOut.write(mDigits, position, mDigits.length - position);
+    }
+}
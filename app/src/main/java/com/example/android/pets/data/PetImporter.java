@@ -0,0 +1,269 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.net.Uri;
+import android.support.annotation.Nullable;
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+
+/**
+ * Streams pets from a CSV or JSON file into the pets table.
+ * <p>
+ * The file is parsed one row at a time, so memory use doesn't depend on its size. Every row is
+ * checked with the same rules as {@link PetProvider#insert}; rejected rows are written to an
+ * error file in CSV, with the reason in an extra column, and the others are inserted through
+ * {@link ContentResolver#bulkInsert} in batches of {@link #BATCH_SIZE}, one transaction each.
+ * <p>
+ * A CSV file starts with a header naming its columns; name, breed, gender and weight are read
+ * and any other column is ignored. A JSON file holds an array of objects with the same keys.
+ * Genders are given as their number or as male, female or unknown.
+ */
+public class PetImporter {
+
+    /**
+     * Pets inserted per transaction.
+     */
+    static final int BATCH_SIZE = 1000;
+
+    /**
+     * Called after every batch.
+     */
+    public interface ProgressListener {
+        void onImportProgress(int rowsImported, int rowsRejected);
+    }
+
+    /**
+     * Outcome of an import.
+     */
+    public static final class Result {
+        public final int rowsImported;
+        public final int rowsRejected;
+
+        Result(int rowsImported, int rowsRejected) {
+            this.rowsImported = rowsImported;
+            this.rowsRejected = rowsRejected;
+        }
+    }
+
+    /**
+     * Fields of a row, in the order they are written to the error file.
+     */
+    private static final String[] FIELDS = {
+            PetContract.PetsEntry.COLUMN_PET_NAME,
+            PetContract.PetsEntry.COLUMN_PET_BREED,
+            PetContract.PetsEntry.COLUMN_PET_GENDER,
+            PetContract.PetsEntry.COLUMN_PET_WEIGHT};
+
+    private static final int NAME = 0;
+    private static final int BREED = 1;
+    private static final int GENDER = 2;
+    private static final int WEIGHT = 3;
+
+    private final ContentResolver mContentResolver;
+    private final Uri mInsertUri;
+    private final Writer mErrors;
+    private final ProgressListener mListener;
+
+    private final ContentValues[] mBatch = new ContentValues[BATCH_SIZE];
+    private int mBatchSize;
+    private int mRowsImported;
+    private int mRowsRejected;
+
+    /**
+     * Raw text of the fields of the current row, indexed like {@link #FIELDS}.
+     */
+    private final String[] mRow = new String[FIELDS.length];
+
+    /**
+     * @param errors   where to write the rejected rows, or null to drop them
+     * @param listener told about the progress, or null
+     */
+    public PetImporter(ContentResolver contentResolver, @Nullable Writer errors, @Nullable ProgressListener listener) {
+        mContentResolver = contentResolver;
+        // Observers are notified once at the end instead of after every batch
+        mInsertUri = PetContract.PetsEntry.CONTENT_URI.buildUpon()
+                .appendQueryParameter(PetContract.QUERY_PARAMETER_NOTIFY, "false")
+                .build();
+        mErrors = errors;
+        mListener = listener;
+    }
+
+    public Result importCsv(Reader reader) throws IOException {
+        CsvReader csv = new CsvReader(reader);
+        String[] header = csv.readRecord();
+        if (header == null) {
+            return finish();
+        }
+        // Position of each of FIELDS in the records, or -1 if the file doesn't have it
+        int[] columns = new int[FIELDS.length];
+        for (int field = 0; field < FIELDS.length; field++) {
+            columns[field] = -1;
+            for (int column = 0; column < header.length; column++) {
+                if (FIELDS[field].equalsIgnoreCase(header[column].trim())) {
+                    columns[field] = column;
+                }
+            }
+        }
+        if (columns[NAME] == -1) {
+            throw new IOException("CSV header has no " + FIELDS[NAME] + " column");
+        }
+        writeErrorHeader();
+
+        String[] record;
+        while ((record = csv.readRecord()) != null) {
+            if (record.length == 1 && record[0].isEmpty()) {
+                // Blank line
+                continue;
+            }
+            for (int field = 0; field < FIELDS.length; field++) {
+                int column = columns[field];
+                mRow[field] = column != -1 && column < record.length ? record[column] : null;
+            }
+            addRow(csv.getLineNumber());
+        }
+        return finish();
+    }
+
+    public Result importJson(Reader reader) throws IOException {
+        JsonReader json = new JsonReader(reader);
+        writeErrorHeader();
+        int index = 0;
+        json.beginArray();
+        while (json.hasNext()) {
+            for (int field = 0; field < FIELDS.length; field++) {
+                mRow[field] = null;
+            }
+            json.beginObject();
+            while (json.hasNext()) {
+                int field = indexOf(json.nextName());
+                if (field == -1 || json.peek() == JsonToken.NULL) {
+                    json.skipValue();
+                } else {
+                    // Numbers are read as their text, the same as in CSV
+                    mRow[field] = json.nextString();
+                }
+            }
+            json.endObject();
+            addRow(index++);
+        }
+        json.endArray();
+        return finish();
+    }
+
+    private static int indexOf(String name) {
+        for (int field = 0; field < FIELDS.length; field++) {
+            if (FIELDS[field].equals(name)) {
+                return field;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Check the row in {@link #mRow} and queue it for insertion, or write it to the error file.
+     *
+     * @param position line or array index of the row in the file, for the error file
+     */
+    private void addRow(int position) throws IOException {
+        ContentValues values = new ContentValues(FIELDS.length);
+        try {
+            values.put(PetContract.PetsEntry.COLUMN_PET_NAME, mRow[NAME]);
+            values.put(PetContract.PetsEntry.COLUMN_PET_BREED, mRow[BREED]);
+            if (mRow[GENDER] != null) {
+                values.put(PetContract.PetsEntry.COLUMN_PET_GENDER, parseGender(mRow[GENDER]));
+            }
+            if (mRow[WEIGHT] != null && !mRow[WEIGHT].trim().isEmpty()) {
+                values.put(PetContract.PetsEntry.COLUMN_PET_WEIGHT, parseNumber(mRow[WEIGHT], "weight"));
+            }
+            PetProvider.checkInsertValues(values);
+        } catch (IllegalArgumentException e) {
+            reject(position, e.getMessage());
+            return;
+        }
+
+        mBatch[mBatchSize++] = values;
+        if (mBatchSize == BATCH_SIZE) {
+            flush();
+        }
+    }
+
+    private static int parseGender(String text) {
+        text = text.trim();
+        if ("male".equalsIgnoreCase(text)) {
+            return PetContract.PetsEntry.GENDER_MALE;
+        } else if ("female".equalsIgnoreCase(text)) {
+            return PetContract.PetsEntry.GENDER_FEMALE;
+        } else if ("unknown".equalsIgnoreCase(text)) {
+            return PetContract.PetsEntry.GENDER_UNKNOWN;
+        }
+        return parseNumber(text, "gender");
+    }
+
+    private static int parseNumber(String text, String field) {
+        try {
+            return Integer.parseInt(text.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid " + field + " " + text);
+        }
+    }
+
+    private void flush() {
+        if (mBatchSize == 0) {
+            return;
+        }
+        ContentValues[] batch = mBatch;
+        if (mBatchSize < BATCH_SIZE) {
+            batch = new ContentValues[mBatchSize];
+            System.arraycopy(mBatch, 0, batch, 0, mBatchSize);
+        }
+        mRowsImported += mContentResolver.bulkInsert(mInsertUri, batch);
+        for (int i = 0; i < mBatchSize; i++) {
+            mBatch[i] = null;
+        }
+        mBatchSize = 0;
+        if (mListener != null) {
+            mListener.onImportProgress(mRowsImported, mRowsRejected);
+        }
+    }
+
+    private Result finish() throws IOException {
+        flush();
+        if (mErrors != null) {
+            mErrors.flush();
+        }
+        if (mRowsImported != 0) {
+            mContentResolver.notifyChange(PetContract.PetsEntry.CONTENT_URI, null);
+        }
+        return new Result(mRowsImported, mRowsRejected);
+    }
+
+    private void writeErrorHeader() throws IOException {
+        if (mErrors != null) {
+            mErrors.write("row,");
+            for (String field : FIELDS) {
+                mErrors.write(field);
+                mErrors.write(',');
+            }
+            mErrors.write("error\n");
+        }
+    }
+
+    private void reject(int position, String reason) throws IOException {
+        mRowsRejected++;
+        if (mErrors != null) {
+            mErrors.write(String.valueOf(position));
+            mErrors.write(',');
+            for (String value : mRow) {
+                CsvReader.writeField(mErrors, value);
+                mErrors.write(',');
+            }
+            CsvReader.writeField(mErrors, reason);
+            mErrors.write('\n');
+        }
+    }
+}
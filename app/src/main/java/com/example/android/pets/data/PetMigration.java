@@ -0,0 +1,21 @@
+package com.example.android.pets.data;
+
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * One step of the schema history of the pets database. A migration upgrades a database at
+ * {@link #startVersion} to the version right after it, keeping the rows already stored.
+ */
+abstract class PetMigration {
+    final int startVersion;
+
+    PetMigration(int startVersion) {
+        this.startVersion = startVersion;
+    }
+
+    /**
+     * Change the schema and move the existing data over. Called inside a transaction, so a
+     * failure leaves the database at {@link #startVersion}.
+     */
+    abstract void migrate(SQLiteDatabase db);
+}
@@ -0,0 +1,185 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.AsyncTask;
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Photos of the pets, one JPEG file per pet in the photos directory of the app, served by
+ * {@link PetProvider#openFile} on {@link PetContract.PetsEntry#buildPhotoUri(long)}.
+ * <p>
+ * Readers get a descriptor of the file itself, so the photo is never copied through the
+ * provider. A new photo is written to a temporary file and renamed over the old one once
+ * complete, so readers only ever see a whole photo.
+ */
+public final class PetPhotoStore {
+
+    private static final String LOG_TAG = PetPhotoStore.class.getSimpleName();
+
+    private static final String DIRECTORY = "photos";
+    private static final String SUFFIX = ".jpg";
+
+    /**
+     * Told when a new photo replaced the old one.
+     */
+    interface CommitListener {
+        void onPhotoCommitted(long id);
+    }
+
+    private final File mDirectory;
+
+    PetPhotoStore(Context context) {
+        mDirectory = new File(context.getFilesDir(), DIRECTORY);
+    }
+
+    private File getFile(long id) {
+        return new File(mDirectory, id + SUFFIX);
+    }
+
+    ParcelFileDescriptor openForReading(long id) throws FileNotFoundException {
+        return ParcelFileDescriptor.open(getFile(id), ParcelFileDescriptor.MODE_READ_ONLY);
+    }
+
+    /**
+     * Return the write end of a pipe for a new photo of the given pet. What is written to it is
+     * copied to a temporary file on a background thread, which replaces the photo once the
+     * writer closes the pipe, if it holds an image.
+     */
+    ParcelFileDescriptor openForWriting(final long id, final CommitListener listener) throws FileNotFoundException {
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            throw new FileNotFoundException("Cannot create " + mDirectory);
+        }
+        final ParcelFileDescriptor[] pipe;
+        try {
+            pipe = ParcelFileDescriptor.createPipe();
+        } catch (IOException e) {
+            throw new FileNotFoundException("Cannot create pipe: " + e.getMessage());
+        }
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (commit(id, new ParcelFileDescriptor.AutoCloseInputStream(pipe[0]))) {
+                        listener.onPhotoCommitted(id);
+                    }
+                } catch (IOException e) {
+                    Log.w(LOG_TAG, "Photo of pet " + id + " not saved", e);
+                }
+            }
+        });
+        return pipe[1];
+    }
+
+    private boolean commit(long id, InputStream in) throws IOException {
+        File temporary = File.createTempFile(id + "_", ".tmp", mDirectory);
+        try {
+            OutputStream out = new FileOutputStream(temporary);
+            try {
+                byte[] buffer = new byte[8192];
+                int count;
+                while ((count = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, count);
+                }
+            } finally {
+                out.close();
+                in.close();
+            }
+            // A writer that failed halfway leaves something that doesn't decode; keep the old
+            // photo then
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeFile(temporary.getPath(), options);
+            if (options.outWidth <= 0 || options.outHeight <= 0) {
+                Log.w(LOG_TAG, "Photo of pet " + id + " is not an image");
+                return false;
+            }
+            return temporary.renameTo(getFile(id));
+        } finally {
+            temporary.delete();
+        }
+    }
+
+    boolean delete(long id) {
+        return getFile(id).delete();
+    }
+
+    /**
+     * Delete the photos of pets that no longer exist, after pets were deleted by a selection.
+     */
+    void deleteOrphans(SQLiteDatabase db) {
+        String[] names = mDirectory.list();
+        if (names == null) {
+            return;
+        }
+        String[] args = new String[1];
+        for (String name : names) {
+            if (!name.endsWith(SUFFIX)) {
+                continue;
+            }
+            args[0] = name.substring(0, name.length() - SUFFIX.length());
+            if (DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM " + PetContract.PetsEntry.TABLE_NAME +
+                    " WHERE " + PetContract.PetsEntry._ID + "=?", args) == 0) {
+                new File(mDirectory, name).delete();
+            }
+        }
+    }
+
+    /**
+     * Decode the image at the given URI at the smallest power-of-two reduction that still
+     * covers minSize pixels on both sides, so a large photo is never decoded at full size.
+     *
+     * @return the image, or null if it couldn't be decoded
+     */
+    public static Bitmap decodeSampled(ContentResolver contentResolver, Uri uri, int minSize) throws IOException {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        decode(contentResolver, uri, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize(options.outWidth, options.outHeight, minSize);
+        return decode(contentResolver, uri, options);
+    }
+
+    private static Bitmap decode(ContentResolver contentResolver, Uri uri, BitmapFactory.Options options)
+            throws IOException {
+        // Opened again for each pass, the stream may be a pipe that can't be rewound
+        InputStream in = contentResolver.openInputStream(uri);
+        if (in == null) {
+            throw new FileNotFoundException("Cannot open " + uri);
+        }
+        try {
+            return BitmapFactory.decodeStream(in, null, options);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Return the largest power of two that the given dimensions can be divided by while the
+     * shorter side stays at least minSize.
+     */
+    static int sampleSize(int width, int height, int minSize) {
+        int shorterSide = Math.min(width, height);
+        int sampleSize = 1;
+        while (shorterSide / (sampleSize * 2) >= minSize) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+}
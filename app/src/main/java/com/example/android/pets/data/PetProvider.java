@@ -1,26 +1,85 @@
 package com.example.android.pets.data;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
+import android.text.TextUtils;
 import android.util.Log;
+import android.util.LruCache;
 
 import org.jetbrains.annotations.NotNull;
 
+import java.io.BufferedWriter;
+import java.io.FileDescriptor;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
 import static com.example.android.pets.data.PetContract.CONTENT_AUTHORITY;
+import static com.example.android.pets.data.PetContract.PATH_CHANGES;
+import static com.example.android.pets.data.PetContract.PATH_EXPORT;
+import static com.example.android.pets.data.PetContract.PATH_GENDER;
+import static com.example.android.pets.data.PetContract.PATH_METRICS;
 import static com.example.android.pets.data.PetContract.PATH_PETS;
+import static com.example.android.pets.data.PetContract.PATH_PHOTO;
+import static com.example.android.pets.data.PetContract.PATH_SEARCH;
+import static com.example.android.pets.data.PetContract.PATH_SECTIONS;
+import static com.example.android.pets.data.PetContract.PATH_STATS;
+import static com.example.android.pets.data.PetContract.PATH_WEIGHT;
 
 public class PetProvider extends ContentProvider {
     private PetDBHelper mPetDBHelper;
 
+    /**
+     * Pets recently read by _ID. Staff keep going back to the same few dozen animals, so
+     * 128 KiB holds all of them with room to spare.
+     */
+    private final PetRowCache mRowCache = new PetRowCache(128 * 1024);
+
+    /**
+     * Whether SQLite finds the pets of a list query through an index, by the SQL of the
+     * query; see {@link #isIndexed(SQLiteDatabase, ListQuery)}.
+     */
+    private final LruCache<String, Boolean> mIndexedQueries = new LruCache<>(64);
+
+    private PetPhotoStore mPhotoStore;
 
     public static final int PETS = 100;
     public static final int PETS_ID = 101;
+    public static final int PETS_SEARCH = 102;
+    public static final int PETS_EXPORT = 103;
+    public static final int PETS_STATS = 104;
+    public static final int PETS_METRICS = 105;
+    public static final int PETS_ID_PHOTO = 106;
+    public static final int PETS_GENDER = 107;
+    public static final int PETS_WEIGHT = 108;
+    public static final int PETS_SECTIONS = 109;
+    public static final int PETS_CHANGES = 110;
 
     public static UriMatcher sUriMatcher = new UriMatcher(UriMatcher.NO_MATCH);
 
@@ -30,14 +89,153 @@ public class PetProvider extends ContentProvider {
 
         sUriMatcher.addURI(CONTENT_AUTHORITY, PATH_PETS + "/#", PETS_ID);
 
+        sUriMatcher.addURI(CONTENT_AUTHORITY, PATH_PETS + "/" + PATH_SEARCH, PETS_SEARCH);
+
+        sUriMatcher.addURI(CONTENT_AUTHORITY, PATH_PETS + "/" + PATH_EXPORT, PETS_EXPORT);
+
+        sUriMatcher.addURI(CONTENT_AUTHORITY, PATH_PETS + "/" + PATH_STATS, PETS_STATS);
+
+        sUriMatcher.addURI(CONTENT_AUTHORITY, PATH_PETS + "/" + PATH_METRICS, PETS_METRICS);
+
+        sUriMatcher.addURI(CONTENT_AUTHORITY, PATH_PETS + "/#/" + PATH_PHOTO, PETS_ID_PHOTO);
+
+        sUriMatcher.addURI(CONTENT_AUTHORITY, PATH_PETS + "/" + PATH_GENDER + "/#", PETS_GENDER);
+
+        sUriMatcher.addURI(CONTENT_AUTHORITY, PATH_PETS + "/" + PATH_WEIGHT, PETS_WEIGHT);
+
+        sUriMatcher.addURI(CONTENT_AUTHORITY, PATH_PETS + "/" + PATH_SECTIONS, PETS_SECTIONS);
+
+        sUriMatcher.addURI(CONTENT_AUTHORITY, PATH_PETS + "/" + PATH_CHANGES, PETS_CHANGES);
+
+    }
+
+
+    /**
+     * Columns that can be read from lists of pets. A query for any other column, or for an
+     * expression, is rejected. {@link PetContract.PetsEntry#_COUNT} counts the pets instead.
+     */
+    private static final HashMap<String, String> sPetsProjectionMap = new HashMap<>();
+
+    /**
+     * Columns read when a query of a list of pets has no projection.
+     */
+    private static final String[] PETS_DEFAULT_PROJECTION = {
+            PetContract.PetsEntry._ID,
+            PetContract.PetsEntry.COLUMN_PET_NAME,
+            PetContract.PetsEntry.COLUMN_PET_BREED,
+            PetContract.PetsEntry.COLUMN_PET_GENDER,
+            PetContract.PetsEntry.COLUMN_PET_WEIGHT,
+            PetContract.PetsEntry.COLUMN_PET_VERSION,
+            PetContract.PetsEntry.COLUMN_PET_PHOTO_VERSION};
+
+    static {
+        for (String column : PETS_DEFAULT_PROJECTION) {
+            sPetsProjectionMap.put(column, column);
+        }
+        sPetsProjectionMap.put(PetContract.PetsEntry._COUNT, "COUNT(*) AS " + PetContract.PetsEntry._COUNT);
     }
 
+    /**
+     * One term of a sort order: a column, optionally followed by ASC or DESC.
+     */
+    private static final Pattern SORT_TERM = Pattern.compile("\\s*(\\w+)(?:\\s+(ASC|DESC))?\\s*",
+            Pattern.CASE_INSENSITIVE);
+
+    /**
+     * Sort orders a list can be read in, without their directions: the leading columns of one
+     * of the list indexes of {@link PetDBHelper}, so sorting walks an index instead of sorting
+     * the whole table in memory.
+     */
+    private static final HashSet<String> sIndexedSortOrders = new HashSet<>(Arrays.asList(
+            PetContract.PetsEntry._ID,
+            PetContract.PetsEntry.COLUMN_PET_NAME,
+            PetContract.PetsEntry.COLUMN_PET_NAME + "," + PetContract.PetsEntry._ID,
+            PetContract.PetsEntry.COLUMN_PET_BREED,
+            PetContract.PetsEntry.COLUMN_PET_BREED + "," + PetContract.PetsEntry._ID,
+            PetContract.PetsEntry.COLUMN_PET_GENDER,
+            PetContract.PetsEntry.COLUMN_PET_GENDER + "," + PetContract.PetsEntry._ID,
+            PetContract.PetsEntry.COLUMN_PET_GENDER + "," + PetContract.PetsEntry.COLUMN_PET_NAME,
+            PetContract.PetsEntry.COLUMN_PET_GENDER + "," + PetContract.PetsEntry.COLUMN_PET_NAME + "," +
+                    PetContract.PetsEntry._ID,
+            PetContract.PetsEntry.COLUMN_PET_WEIGHT,
+            PetContract.PetsEntry.COLUMN_PET_WEIGHT + "," + PetContract.PetsEntry._ID));
+
+    /**
+     * A step of a query plan reading every pet, from the table or from an index, rather than
+     * a range. "SCAN TABLE pets" up to SQLite 3.35, "SCAN pets" after.
+     */
+    private static final Pattern FULL_SCAN = Pattern.compile("^SCAN (TABLE )?" + PetContract.PetsEntry.TABLE_NAME + "\\b");
+
+    /**
+     * Pets read by {@link #warmUp()}: a page of the catalog.
+     */
+    private static final int WARM_UP_ROWS = 100;
+
+    /**
+     * How long deleted pets can be restored before {@link #purge(long)} removes them.
+     */
+    private static final long PURGE_AFTER_MILLIS = 24 * 60 * 60 * 1000L;
+
+    /**
+     * Tombstones removed per transaction by {@link #purge(long)}, short enough that writes of the
+     * app don't wait on it for long.
+     */
+    private static final int PURGE_CHUNK_SIZE = 500;
+
+    /**
+     * Removes the next chunk of tombstones deleted at or before the time ?, found through the
+     * index of deleted pets.
+     */
+    static final String PURGE_SQL = "DELETE FROM " + PetContract.PetsEntry.TABLE_NAME +
+            " WHERE " + PetContract.PetsEntry._ID + " IN (SELECT " + PetContract.PetsEntry._ID +
+            " FROM " + PetContract.PetsEntry.TABLE_NAME +
+            " WHERE " + PetDBHelper.DELETED_PETS + " AND " + PetContract.PetsEntry.COLUMN_PET_DELETED + "<=?" +
+            " LIMIT " + PURGE_CHUNK_SIZE + ")";
+
+    /**
+     * How long changes stay in the change log, i.e. how long a consumer can go without
+     * syncing before it has to read every pet again.
+     */
+    private static final long CHANGE_LOG_RETENTION_MILLIS = 30 * 24 * 60 * 60 * 1000L;
 
     /**
      * Tag for the log messages
      */
     public static final String LOG_TAG = PetProvider.class.getSimpleName();
 
+    /**
+     * Timings of the calls to the provider, by operation and by URI.
+     */
+    private final PetProviderMetrics mMetrics = new PetProviderMetrics(PETS, new String[]{
+            PATH_PETS,
+            PATH_PETS + "/#",
+            PATH_PETS + "/" + PATH_SEARCH,
+            PATH_PETS + "/" + PATH_EXPORT,
+            PATH_PETS + "/" + PATH_STATS,
+            PATH_PETS + "/" + PATH_METRICS,
+            PATH_PETS + "/#/" + PATH_PHOTO,
+            PATH_PETS + "/" + PATH_GENDER + "/#",
+            PATH_PETS + "/" + PATH_WEIGHT,
+            PATH_PETS + "/" + PATH_SECTIONS,
+            PATH_PETS + "/" + PATH_CHANGES});
+
+    /**
+     * Compiled write statements of the current thread. Binder threads live as long as the
+     * process, so each one compiles its statements once.
+     */
+    private final ThreadLocal<PetStatements> mStatements = new ThreadLocal<>();
+
+    /**
+     * State of the batch running on the current thread, or null outside of
+     * {@link #applyBatch(ArrayList)}. While a batch is running, change notifications are held
+     * back until the batch commits.
+     */
+    private final ThreadLocal<Batch> mBatch = new ThreadLocal<>();
+
+    private static class Batch {
+        boolean changed;
+    }
+
     /**
      * Initialize the provider and the database helper object.
      */
@@ -45,6 +243,7 @@ public class PetProvider extends ContentProvider {
     public boolean onCreate() {
         // TODO: Create and initialize a PetDbHelper object to gain access to the pets database.
         mPetDBHelper = new PetDBHelper(getContext());
+        mPhotoStore = new PetPhotoStore(getContext());
         // Make sure the variable is a global variable, so it can be referenced from other
         // ContentProvider methods.
         return true;
@@ -56,18 +255,46 @@ public class PetProvider extends ContentProvider {
     @Override
     public Cursor query(@NotNull Uri uri, String[] projection, String selection, String[] selectionArgs,
                         String sortOrder) {
+        long start = mMetrics.start();
         SQLiteDatabase database = mPetDBHelper.getReadableDatabase();
         Cursor cursor;
+        Uri notificationUri = uri;
 
         int match = sUriMatcher.match(uri);
         switch (match) {
+            case PETS_METRICS:
+                return mMetrics.toCursor();
             case PETS:
-                // For the PETS code, query the pets table directly with the given
-                // projection, selection, selection arguments, and sort order. The cursor
-                // could contain multiple rows of the pets table.
-                // COMPLETED: Perform database query on pets table
-                cursor = database.query(PetContract.PetsEntry.TABLE_NAME, projection, selection, selectionArgs,
-                        null, null, sortOrder);
+            case PETS_GENDER:
+            case PETS_WEIGHT:
+            case PETS_SEARCH:
+                ListQuery listQuery = buildListQuery(uri, projection, selection, selectionArgs, sortOrder);
+                cursor = listQuery.run(database);
+                // Checked once the query builder has validated the selection. The cursor
+                // hasn't read a row yet.
+                if (listQuery.isUnbounded() && !isIndexed(database, listQuery)) {
+                    cursor.close();
+                    throw new IllegalArgumentException("Reading every pet requires a limit, a sort order or a" +
+                            " selection an index can serve " + uri);
+                }
+                break;
+            case PETS_STATS:
+                // Read from the summary tables, a row per group, instead of from the pets
+                cursor = database.rawQuery(buildStatsQuery(
+                        uri.getQueryParameter(PetContract.PetStatsEntry.QUERY_PARAMETER_GROUP)), null);
+                // Any change to any pet may change the statistics
+                notificationUri = PetContract.BASE_CONTENT_URI;
+                break;
+            case PETS_SECTIONS:
+                cursor = database.rawQuery(SECTIONS_QUERY, null);
+                // Renaming a pet may move it to another section. Renames notify the lists,
+                // other edits of single pets don't change the sections.
+                notificationUri = PetContract.PetsEntry.CONTENT_URI;
+                break;
+            case PETS_CHANGES:
+                cursor = queryChanges(database, uri);
+                // Any change to any pet adds to the log
+                notificationUri = PetContract.BASE_CONTENT_URI;
                 break;
             case PETS_ID:
                 // For the PET_ID code, extract out the ID from the URI.
@@ -78,36 +305,440 @@ public class PetProvider extends ContentProvider {
                 // For every "?" in the selection, we need to have an element in the selection
                 // arguments that will fill in the "?". Since we have 1 question mark in the
                 // selection, we have 1 String in the selection arguments' String array.
-                selection = PetContract.PetsEntry._ID + "=?";
-                selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
+                long id = ContentUris.parseId(uri);
+                // A single pet only needs to reload when that pet changes
+                notificationUri = ContentUris.withAppendedId(PetContract.PetsEntry.CONTENT_CHANGES_URI, id);
 
-                // This will perform a query on the pets table where the _id equals 3 to return a
-                // Cursor containing that row of the table.
-                cursor = database.query(PetContract.PetsEntry.TABLE_NAME, projection, selection, selectionArgs,
-                        null, null, sortOrder);
+                // Serve the pet from the row cache if it was read recently. Otherwise this
+                // will perform a query on the pets table where the _id equals 3, and keep the
+                // whole row for the next time.
+                PetRowCache.Pet pet = mRowCache.get(id);
+                if (pet == null) {
+                    int token = mRowCache.beginLoad();
+                    Cursor row = database.rawQuery(PetStatements.QUERY_BY_ID_SQL, new String[]{String.valueOf(id)});
+                    try {
+                        if (row.moveToFirst()) {
+                            pet = new PetRowCache.Pet(row);
+                            mRowCache.putIfCurrent(id, pet, token);
+                        }
+                    } finally {
+                        row.close();
+                    }
+                }
+                cursor = PetRowCache.toCursor(pet, projection);
                 break;
             default:
                 throw new IllegalArgumentException("Cannot query unknown URI " + uri);
         }
 
         //Notify data changes to contentResolver then to onCreateLoader which call on load finished
-        cursor.setNotificationUri(getContext().getContentResolver(), uri);
+        cursor.setNotificationUri(getContext().getContentResolver(), notificationUri);
 
+        // Counting fills the first window of the cursor, which its reader would do right away
+        // anyway
+        mMetrics.record(PetProviderMetrics.QUERY, match, start, cursor.getCount());
         return cursor;
     }
 
+    /**
+     * A query of a list of pets, as checked and rewritten by {@link #buildListQuery}.
+     */
+    static final class ListQuery {
+        final String[] projection;
+        final String selection;
+        final String[] selectionArgs;
+        final String sortOrder;
+        final String limit;
+
+        ListQuery(String[] projection, String selection, String[] selectionArgs, String sortOrder, String limit) {
+            this.projection = projection;
+            this.selection = selection;
+            this.selectionArgs = selectionArgs;
+            this.sortOrder = sortOrder;
+            this.limit = limit;
+        }
+
+        /**
+         * Return whether the query may return every pet: it has a selection, but no limit or
+         * sort order.
+         */
+        boolean isUnbounded() {
+            return limit == null && sortOrder == null && !isCount(projection);
+        }
+
+        Cursor run(SQLiteDatabase database) {
+            return newBuilder().query(database, projection, selection, selectionArgs, null, null, sortOrder, limit);
+        }
+
+        /**
+         * Return the SQL the query runs, with {@link #selectionArgs} left as parameters.
+         */
+        String toSql() {
+            return newBuilder().buildQuery(projection, selection, null, null, sortOrder, limit);
+        }
+
+        private static SQLiteQueryBuilder newBuilder() {
+            SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
+            builder.setTables(PetContract.PetsEntry.TABLE_NAME);
+            builder.setProjectionMap(sPetsProjectionMap);
+            builder.setStrict(true);
+            return builder;
+        }
+    }
+
+    /**
+     * Build the query of a list of pets: {@link PetContract.PetsEntry#CONTENT_URI}, or the
+     * pets of one gender, of a weight range or matching a search. Applies the sort and keyset
+     * paging parameters of the URI if present.
+     * <p>
+     * Requests are checked before they reach SQLite, so no caller can make the provider run
+     * an arbitrarily expensive query: columns must come from {@link #sPetsProjectionMap}, the
+     * selection must be a well-formed expression, the sort order must be the order of an
+     * index, and a list must be paged, sorted or narrowed down by a selection rather than
+     * read whole in no particular order. Whether the selection narrows it down through an
+     * index is only known from the query plan, see {@link ListQuery#isUnbounded()}. Sort
+     * orders are rewritten to one spelling, so the same query always compiles to the same SQL
+     * and reuses its cached statement.
+     * <p>
+     * Lists with a sort column, see {@link PetContract.PetsEntry#getSortColumn(Uri)}, are
+     * ordered by that column and then _id, the order of an index, and their pages continue
+     * after the sort key and _id of the last pet of the previous page.
+     */
+    static ListQuery buildListQuery(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                                    String sortOrder) {
+        switch (sUriMatcher.match(uri)) {
+            case PETS:
+                // For the PETS code, query the pets table directly with the given
+                // projection, selection, selection arguments, and sort order. The cursor
+                // could contain multiple rows of the pets table.
+                // COMPLETED: Perform database query on pets table
+                break;
+            case PETS_GENDER:
+                // Pets of one gender are a range of the gender index, in _id or name order
+                selection = DatabaseUtils.concatenateWhere(selection, PetContract.PetsEntry.COLUMN_PET_GENDER + "=?");
+                selectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs,
+                        new String[]{String.valueOf(ContentUris.parseId(uri))});
+                break;
+            case PETS_WEIGHT:
+                // A range of the weight index, read in weight order
+                selection = DatabaseUtils.concatenateWhere(selection, PetContract.PetsEntry.COLUMN_PET_WEIGHT + ">=? AND " +
+                        PetContract.PetsEntry.COLUMN_PET_WEIGHT + "<=?");
+                selectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs, new String[]{
+                        String.valueOf(getIntParameter(uri, PetContract.QUERY_PARAMETER_MIN_WEIGHT, 0)),
+                        String.valueOf(getIntParameter(uri, PetContract.QUERY_PARAMETER_MAX_WEIGHT, Integer.MAX_VALUE))});
+                break;
+            case PETS_SEARCH:
+                if (uri.getQueryParameter(PetContract.QUERY_PARAMETER_SORT) != null) {
+                    throw new IllegalArgumentException("Search results are always sorted by _id " + uri);
+                }
+                // Narrow the pets down to the ones whose name or breed match the search text,
+                // using the full-text index instead of scanning the table with LIKE.
+                String matchQuery = buildMatchQuery(uri.getQueryParameter(PetContract.QUERY_PARAMETER_SEARCH));
+                if (matchQuery != null) {
+                    selection = DatabaseUtils.concatenateWhere(selection, PetContract.PetsEntry._ID +
+                            " IN (SELECT docid FROM " + PetDBHelper.FTS_TABLE_NAME +
+                            " WHERE " + PetDBHelper.FTS_TABLE_NAME + " MATCH ?)");
+                    selectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs, new String[]{matchQuery});
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Not a list of pets " + uri);
+        }
+        sortOrder = normalizeSortOrder(sortOrder);
+        if (projection == null) {
+            projection = PETS_DEFAULT_PROJECTION;
+        }
+        String sortColumn = getSortColumn(uri);
+        if (sortColumn != null && sortOrder != null) {
+            throw new IllegalArgumentException("Cannot sort pets by " + sortOrder + ", " + uri +
+                    " is sorted by " + sortColumn);
+        }
+        String afterId = uri.getQueryParameter(PetContract.QUERY_PARAMETER_AFTER_ID);
+        if (afterId != null) {
+            afterId = String.valueOf(Long.parseLong(afterId));
+            if (sortColumn == null) {
+                selection = DatabaseUtils.concatenateWhere(selection, PetContract.PetsEntry._ID + ">?");
+                selectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs, new String[]{afterId});
+            } else {
+                String afterKey = uri.getQueryParameter(PetContract.QUERY_PARAMETER_AFTER_KEY);
+                if (afterKey == null) {
+                    throw new IllegalArgumentException("Pages sorted by " + sortColumn + " start after a "
+                            + PetContract.QUERY_PARAMETER_AFTER_KEY + " " + uri);
+                }
+                if (PetContract.PetsEntry.COLUMN_PET_WEIGHT.equals(sortColumn)) {
+                    afterKey = String.valueOf(Long.parseLong(afterKey));
+                }
+                // Written so the index range starts at the key, with the rest checked on
+                // the index entries
+                selection = DatabaseUtils.concatenateWhere(selection, sortColumn + ">=? AND (" +
+                        sortColumn + ">? OR " + PetContract.PetsEntry._ID + ">?)");
+                selectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs,
+                        new String[]{afterKey, afterKey, afterId});
+            }
+        }
+        if (sortColumn != null && !isCount(projection)) {
+            sortOrder = sortColumn + "," + PetContract.PetsEntry._ID;
+        }
+        String limit = uri.getQueryParameter(PetContract.QUERY_PARAMETER_LIMIT);
+        if (limit != null) {
+            // Keyset pages walk an index, so each page is a range scan that costs the same
+            // no matter how deep into the table it starts.
+            if (sortColumn == null) {
+                if (sortOrder != null) {
+                    throw new IllegalArgumentException("Paged queries are always sorted by _id " + uri);
+                }
+                sortOrder = PetContract.PetsEntry._ID;
+            }
+            limit = String.valueOf(Integer.parseInt(limit));
+            String offset = uri.getQueryParameter(PetContract.QUERY_PARAMETER_OFFSET);
+            if (offset != null) {
+                // Only from a sort key, so the pets skipped are a short stretch of an index
+                // rather than everything before the page
+                if (sortColumn == null || afterId == null) {
+                    throw new IllegalArgumentException("An " + PetContract.QUERY_PARAMETER_OFFSET +
+                            " needs a sorted page starting at an " + PetContract.QUERY_PARAMETER_AFTER_KEY + " " + uri);
+                }
+                limit = Integer.parseInt(offset) + "," + limit;
+            }
+        } else if (sortOrder == null && TextUtils.isEmpty(selection) && !isCount(projection)) {
+            throw new IllegalArgumentException("Reading every pet requires a limit or a sort order " + uri);
+        }
+
+        // Leave out deleted pets, which also lets SQLite use the partial list indexes
+        selection = DatabaseUtils.concatenateWhere(selection, PetDBHelper.LIVE_PETS);
+        return new ListQuery(projection, selection, selectionArgs, sortOrder, limit);
+    }
+
+    /**
+     * Return the column the list of the URI is sorted by before _id, or null for _id alone.
+     */
+    private static String getSortColumn(Uri uri) {
+        String sort = uri.getQueryParameter(PetContract.QUERY_PARAMETER_SORT);
+        if (sort != null && (!PetContract.SORT_NAME.equals(sort)
+                || sUriMatcher.match(uri) == PETS_WEIGHT)) {
+            throw new IllegalArgumentException("Cannot sort " + uri + " by " + sort);
+        }
+        return PetContract.PetsEntry.getSortColumn(uri);
+    }
+
+    private static int getIntParameter(Uri uri, String name, int defaultValue) {
+        String value = uri.getQueryParameter(name);
+        return value != null ? Integer.parseInt(value) : defaultValue;
+    }
+
+    private static boolean isCount(String[] projection) {
+        return projection.length == 1 && PetContract.PetsEntry._COUNT.equals(projection[0]);
+    }
+
+    /**
+     * Check that a sort order is the order of an index, one of {@link #sIndexedSortOrders}
+     * with every column in the same direction, and write it the same way every time, e.g.
+     * "Gender  asc,name" becomes "gender,name".
+     */
+    static String normalizeSortOrder(String sortOrder) {
+        if (TextUtils.isEmpty(sortOrder)) {
+            return null;
+        }
+        StringBuilder columns = new StringBuilder();
+        StringBuilder normalized = new StringBuilder();
+        Boolean descending = null;
+        for (String term : sortOrder.split(",")) {
+            Matcher matcher = SORT_TERM.matcher(term);
+            if (!matcher.matches()) {
+                throw new IllegalArgumentException("Cannot sort pets by " + term.trim());
+            }
+            String column = matcher.group(1).toLowerCase(Locale.US);
+            boolean termDescending = "DESC".equalsIgnoreCase(matcher.group(2));
+            // An index can be walked backwards, but not with some columns one way and some
+            // the other
+            if (descending != null && descending != termDescending) {
+                throw new IllegalArgumentException("Cannot sort pets by " + sortOrder +
+                        ", every column must be sorted in the same direction");
+            }
+            descending = termDescending;
+            if (columns.length() > 0) {
+                columns.append(',');
+                normalized.append(',');
+            }
+            columns.append(column);
+            normalized.append(column);
+            if (termDescending) {
+                normalized.append(" DESC");
+            }
+        }
+        if (!sIndexedSortOrders.contains(columns.toString())) {
+            throw new IllegalArgumentException("Cannot sort pets by " + sortOrder + ", no index is in that order");
+        }
+        return normalized.toString();
+    }
+
+    /**
+     * Return whether SQLite finds the pets of the query through an index rather than by
+     * reading every one. The plan only depends on the SQL, so the answer is kept for the next
+     * query with the same SQL.
+     */
+    private boolean isIndexed(SQLiteDatabase database, ListQuery query) {
+        String sql = query.toSql();
+        Boolean indexed = mIndexedQueries.get(sql);
+        if (indexed == null) {
+            indexed = true;
+            Cursor plan = database.rawQuery("EXPLAIN QUERY PLAN " + sql, query.selectionArgs);
+            try {
+                // The detail is the last column, whatever the version of SQLite
+                int detail = plan.getColumnCount() - 1;
+                while (plan.moveToNext()) {
+                    if (FULL_SCAN.matcher(plan.getString(detail)).find()) {
+                        indexed = false;
+                    }
+                }
+            } finally {
+                plan.close();
+            }
+            mIndexedQueries.put(sql, indexed);
+        }
+        return indexed;
+    }
+
+    /**
+     * Section index of the pets sorted by name, in one grouped pass over the summary table:
+     * the position of a section is the number of pets in the sections before it. The table
+     * holds a row per first character in use, a few dozen, so joining it with itself costs
+     * next to nothing.
+     */
+    static final String SECTIONS_QUERY = "SELECT a.rowid AS " + PetContract.PetSectionsEntry._ID + "," +
+            "a." + PetContract.PetSectionsEntry.COLUMN_SECTION + " AS " + PetContract.PetSectionsEntry.COLUMN_SECTION + "," +
+            "a." + PetContract.PetSectionsEntry._COUNT + " AS " + PetContract.PetSectionsEntry._COUNT + "," +
+            "SUM(b." + PetContract.PetSectionsEntry._COUNT + ")-a." + PetContract.PetSectionsEntry._COUNT +
+            " AS " + PetContract.PetSectionsEntry.COLUMN_POSITION +
+            " FROM " + PetDBHelper.SECTIONS_TABLE_NAME + " a JOIN " + PetDBHelper.SECTIONS_TABLE_NAME + " b" +
+            " ON b." + PetContract.PetSectionsEntry.COLUMN_SECTION + "<=a." + PetContract.PetSectionsEntry.COLUMN_SECTION +
+            " GROUP BY a." + PetContract.PetSectionsEntry.COLUMN_SECTION +
+            " ORDER BY a." + PetContract.PetSectionsEntry.COLUMN_SECTION;
+
+    /**
+     * Changes after the sequence ?1, at most ?2 of them or all for -1: the last entry of the
+     * change log of every pet changed since, in sequence order, with the current values of the
+     * pet. Only the entries after ?1 are read, through the sequence key, so syncing costs the
+     * number of changes rather than the number of pets. A consumer starting out, or behind the
+     * watermark, gets a single reset row holding the last sequence handed out instead. Both are
+     * one statement, so they see the same state of the log.
+     */
+    static final String CHANGES_QUERY;
+
+    static {
+        String sequence = PetContract.PetChangesEntry.COLUMN_SEQUENCE;
+        String since = "CAST(?1 AS INTEGER)";
+        String reset = "(" + since + "=0 OR " + since + "<(SELECT " + PetDBHelper.COLUMN_CHANGE_WATERMARK +
+                " FROM " + PetDBHelper.CHANGE_LOG_STATE_TABLE_NAME + "))";
+        StringBuilder resetRow = new StringBuilder("SELECT IFNULL((SELECT seq FROM sqlite_sequence WHERE name='" +
+                PetDBHelper.CHANGE_LOG_TABLE_NAME + "'),0) AS " + sequence + "," +
+                "NULL AS " + PetContract.PetChangesEntry._ID + "," +
+                PetContract.PetChangesEntry.OP_RESET + " AS " + PetContract.PetChangesEntry.COLUMN_OPERATION);
+        StringBuilder changeRows = new StringBuilder("SELECT l." + sequence + "," +
+                "l." + PetDBHelper.COLUMN_CHANGE_PET_ID + ",l." + PetContract.PetChangesEntry.COLUMN_OPERATION);
+        // Every pet column but the _ID, null unless the pet is there to read
+        for (int i = 1; i < PETS_DEFAULT_PROJECTION.length; i++) {
+            resetRow.append(",NULL AS ").append(PETS_DEFAULT_PROJECTION[i]);
+            changeRows.append(",p.").append(PETS_DEFAULT_PROJECTION[i]);
+        }
+        CHANGES_QUERY = resetRow + " WHERE " + reset +
+                " UNION ALL " + changeRows +
+                " FROM " + PetDBHelper.CHANGE_LOG_TABLE_NAME + " l LEFT JOIN " + PetContract.PetsEntry.TABLE_NAME + " p" +
+                " ON p." + PetContract.PetsEntry._ID + "=l." + PetDBHelper.COLUMN_CHANGE_PET_ID +
+                " AND p." + PetDBHelper.LIVE_PETS +
+                " WHERE NOT " + reset + " AND l." + sequence + " IN (SELECT MAX(" + sequence + ")" +
+                " FROM " + PetDBHelper.CHANGE_LOG_TABLE_NAME + " WHERE " + sequence + ">" + since +
+                " GROUP BY " + PetDBHelper.COLUMN_CHANGE_PET_ID + ")" +
+                " ORDER BY 1 LIMIT CAST(?2 AS INTEGER)";
+    }
+
+    private static Cursor queryChanges(SQLiteDatabase database, Uri uri) {
+        String since = uri.getQueryParameter(PetContract.PetChangesEntry.QUERY_PARAMETER_SINCE);
+        if (since == null || Long.parseLong(since) < 0) {
+            throw new IllegalArgumentException("Changes need a sequence to start after " + uri);
+        }
+        int limit = getIntParameter(uri, PetContract.QUERY_PARAMETER_LIMIT, -1);
+        return database.rawQuery(CHANGES_QUERY, new String[]{since, String.valueOf(limit)});
+    }
+
+    /**
+     * Build the query reading the statistics of the given group, or the totals for null.
+     */
+    static String buildStatsQuery(String group) {
+        String count = PetContract.PetStatsEntry._COUNT;
+        String totalWeight = PetContract.PetStatsEntry.COLUMN_TOTAL_WEIGHT;
+        String weights = "SUM(" + count + ") AS " + count + "," +
+                "SUM(" + totalWeight + ") AS " + totalWeight + "," +
+                "SUM(" + totalWeight + ")*1.0/SUM(" + count + ") AS " + PetContract.PetStatsEntry.COLUMN_AVERAGE_WEIGHT;
+        if (group == null) {
+            return "SELECT 0 AS " + PetContract.PetStatsEntry._ID + "," + weights +
+                    " FROM " + PetDBHelper.STATS_TABLE_NAME;
+        }
+        switch (group) {
+            case PetContract.PetStatsEntry.GROUP_GENDER:
+                return "SELECT " + PetContract.PetStatsEntry.COLUMN_GENDER + " AS " + PetContract.PetStatsEntry._ID + "," +
+                        PetContract.PetStatsEntry.COLUMN_GENDER + "," + weights +
+                        " FROM " + PetDBHelper.STATS_TABLE_NAME +
+                        " GROUP BY " + PetContract.PetStatsEntry.COLUMN_GENDER +
+                        " ORDER BY " + PetContract.PetStatsEntry.COLUMN_GENDER;
+            case PetContract.PetStatsEntry.GROUP_BREED:
+                return "SELECT MIN(rowid) AS " + PetContract.PetStatsEntry._ID + "," +
+                        PetContract.PetStatsEntry.COLUMN_BREED + "," + weights +
+                        " FROM " + PetDBHelper.STATS_TABLE_NAME +
+                        " GROUP BY " + PetContract.PetStatsEntry.COLUMN_BREED +
+                        " ORDER BY " + PetContract.PetStatsEntry.COLUMN_BREED;
+            case PetContract.PetStatsEntry.GROUP_WEIGHT:
+                int bucketSize = PetContract.PetStatsEntry.WEIGHT_BUCKET_SIZE;
+                String bucket = PetDBHelper.COLUMN_STATS_BUCKET;
+                return "SELECT " + bucket + " AS " + PetContract.PetStatsEntry._ID + "," +
+                        bucket + "*" + bucketSize + " AS " + PetContract.PetStatsEntry.COLUMN_WEIGHT_MIN + "," +
+                        bucket + "*" + bucketSize + "+" + (bucketSize - 1) + " AS " + PetContract.PetStatsEntry.COLUMN_WEIGHT_MAX + "," +
+                        count +
+                        " FROM " + PetDBHelper.WEIGHT_STATS_TABLE_NAME +
+                        " ORDER BY " + bucket;
+            default:
+                throw new IllegalArgumentException("Unknown statistics group " + group);
+        }
+    }
+
+    /**
+     * Turn the text typed by the user into a full-text MATCH expression where every word is a
+     * prefix query, e.g. "gold ret" becomes "gold* ret*". Characters with a meaning in the
+     * MATCH syntax are dropped. Returns null when there is nothing to search for.
+     */
+    static String buildMatchQuery(String text) {
+        if (text == null) {
+            return null;
+        }
+        StringBuilder match = new StringBuilder();
+        for (String word : text.split("[^\\p{L}\\p{N}]+")) {
+            if (!word.isEmpty()) {
+                if (match.length() > 0) {
+                    match.append(' ');
+                }
+                match.append(word).append('*');
+            }
+        }
+        return match.length() > 0 ? match.toString() : null;
+    }
+
     /**
      * Insert new data into the provider with the given ContentValues.
      */
     @Override
     public Uri insert(Uri uri, ContentValues contentValues) {
+        long start = mMetrics.start();
+        Uri newUri;
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case PETS:
-                return insertPet(uri, contentValues);
+                newUri = insertPet(uri, contentValues);
+                break;
             default:
                 throw new IllegalArgumentException("Insertion is not supported for " + uri);
         }
+        mMetrics.record(PetProviderMetrics.INSERT, match, start, newUri != null ? 1 : 0);
+        return newUri;
     }
 
     /**
@@ -115,32 +746,213 @@ public class PetProvider extends ContentProvider {
      * for that specific row in the database.
      */
     private Uri insertPet(Uri uri, ContentValues contentValues) {
-        //Sanity checks -------------
+        checkInsertValues(contentValues);
+
+        long rowID = getStatements().insert(contentValues);
+        if (rowID == -1) {
+            Log.e(LOG_TAG, "Failed to insert row for " + uri);
+            return null;
+        }
+
+        // Notify changes to contentResolver then to Activity
+        notifyListsChanged();
+        // Once we know the ID of the new row in the table,
+        // return the new URI with the ID appended to the end of it
+        return ContentUris.withAppendedId(uri, rowID);
+    }
+
+    /**
+     * Insert all of the given pets in a single transaction, using one compiled statement for
+     * every row and sending one change notification once the whole batch is committed.
+     */
+    @Override
+    public int bulkInsert(@NonNull Uri uri, @NonNull ContentValues[] values) {
+        long start = mMetrics.start();
+        int rowsInserted;
+        final int match = sUriMatcher.match(uri);
+        switch (match) {
+            case PETS:
+                rowsInserted = bulkInsertPets(uri, values);
+                break;
+            default:
+                throw new IllegalArgumentException("Insertion is not supported for " + uri);
+        }
+        mMetrics.record(PetProviderMetrics.BULK_INSERT, match, start, rowsInserted);
+        return rowsInserted;
+    }
+
+    private int bulkInsertPets(Uri uri, ContentValues[] values) {
+        // Check every row before writing anything, so a bad row rejects the whole batch
+        for (ContentValues contentValues : values) {
+            checkInsertValues(contentValues);
+        }
+
+        SQLiteDatabase database = mPetDBHelper.getWritableDatabase();
+        PetStatements statements = getStatements();
+        int rowsInserted = 0;
+        database.beginTransaction();
+        try {
+            for (ContentValues contentValues : values) {
+                if (statements.insert(contentValues) != -1) {
+                    rowsInserted++;
+                }
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        if (rowsInserted != 0 && isNotifyEnabled(uri)) {
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+        return rowsInserted;
+    }
+
+    /**
+     * Apply all of the operations inside a single transaction. Per-row change notifications
+     * are coalesced into one notification for the lists of pets and one for the single pets,
+     * sent after the transaction commits.
+     */
+    @NonNull
+    @Override
+    public ContentProviderResult[] applyBatch(@NonNull ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        SQLiteDatabase database = mPetDBHelper.getWritableDatabase();
+        Batch batch = new Batch();
+        mBatch.set(batch);
+        ContentProviderResult[] results;
+        database.beginTransaction();
+        try {
+            results = super.applyBatch(operations);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+            mBatch.remove();
+            // Other threads may have cached rows the batch changed before it committed
+            mRowCache.invalidateAll();
+        }
+
+        if (batch.changed) {
+            getContext().getContentResolver().notifyChange(PetContract.PetsEntry.CONTENT_URI, null);
+            getContext().getContentResolver().notifyChange(PetContract.PetsEntry.CONTENT_CHANGES_URI, null);
+        }
+        return results;
+    }
+
+    /**
+     * Sanity checks for a pet about to be inserted. Also used by {@link PetImporter} to reject
+     * bad rows before they reach a batch.
+     */
+    static void checkInsertValues(ContentValues contentValues) {
+        if (!PetStatements.hasOnlyPetColumns(contentValues)) {
+            throw new IllegalArgumentException("Only the name, breed, gender and weight of a pet can be inserted");
+        }
         String name = contentValues.getAsString(PetContract.PetsEntry.COLUMN_PET_NAME);
-        if (name.isEmpty()) {
+        if (name == null || name.isEmpty()) {
             throw new IllegalArgumentException("Pet requires a name");
         }
-        Integer gender = contentValues.getAsInteger(PetContract.PetsEntry.COLUMN_PET_GENDER);
-        if (gender == null || !PetContract.PetsEntry.isValidGender(gender)) {
+        checkGender(contentValues);
+        checkWeight(contentValues);
+    }
+
+    private static void checkGender(ContentValues contentValues) {
+        // MISSING is not a valid gender, so this also rejects a missing or null gender
+        int gender = PetStatements.getInt(contentValues, PetContract.PetsEntry.COLUMN_PET_GENDER);
+        if (!PetContract.PetsEntry.isValidGender(gender)) {
             throw new IllegalArgumentException("Pet requires valid gender");
         }
-        Integer weight = contentValues.getAsInteger(PetContract.PetsEntry.COLUMN_PET_WEIGHT);
-        if (weight != null && weight < 0) {
+    }
+
+    private static void checkWeight(ContentValues contentValues) {
+        int weight = PetStatements.getInt(contentValues, PetContract.PetsEntry.COLUMN_PET_WEIGHT);
+        if (weight != PetStatements.MISSING && weight < 0) {
             throw new IllegalArgumentException("Pet requires valid weight");
         }
-        //--------------------
+    }
+
+    /**
+     * Open the database, which creates or upgrades it if needed, compile the write statements
+     * of the calling thread and read the first page of the catalog, so that its rows are in the
+     * page cache and the query is compiled by the time the catalog asks for it.
+     */
+    private void warmUp() {
+        long start = SystemClock.elapsedRealtime();
         SQLiteDatabase database = mPetDBHelper.getWritableDatabase();
-        long rowID = database.insert(PetContract.PetsEntry.TABLE_NAME, null, contentValues);
-        if (rowID == -1) {
-            Log.e(LOG_TAG, "Failed to insert row for " + uri);
-            return null;
+        getStatements().compileAll();
+        Cursor cursor = buildListQuery(
+                PetContract.PetsEntry.buildPageUri(PetContract.PetsEntry.CONTENT_URI, 0, WARM_UP_ROWS),
+                new String[]{PetContract.PetsEntry._ID, PetContract.PetsEntry.COLUMN_PET_NAME, PetContract.PetsEntry.COLUMN_PET_BREED},
+                null, null, null).run(database);
+        try {
+            cursor.getCount();
+        } finally {
+            cursor.close();
         }
+        Log.i(LOG_TAG, "Warmed up in " + (SystemClock.elapsedRealtime() - start) + " ms");
+    }
 
-        // Notify changes to contentResolver then to Activity
-        getContext().getContentResolver().notifyChange(uri, null);
-        // Once we know the ID of the new row in the table,
-        // return the new URI with the ID appended to the end of it
-        return ContentUris.withAppendedId(uri, rowID);
+    /**
+     * Return the compiled statements of the current thread.
+     */
+    private PetStatements getStatements() {
+        PetStatements statements = mStatements.get();
+        if (statements == null) {
+            statements = new PetStatements(mPetDBHelper.getWritableDatabase());
+            mStatements.set(statements);
+        }
+        return statements;
+    }
+
+    /**
+     * Return false if the caller asked to hold back change notifications with
+     * {@link PetContract#QUERY_PARAMETER_NOTIFY}.
+     */
+    private static boolean isNotifyEnabled(Uri uri) {
+        return !"false".equals(uri.getQueryParameter(PetContract.QUERY_PARAMETER_NOTIFY));
+    }
+
+    /**
+     * Notify observers of a change to the given URI, or remember it for the end of the batch
+     * when called from inside {@link #applyBatch(ArrayList)}.
+     */
+    private void notifyChange(Uri uri) {
+        Batch batch = mBatch.get();
+        if (batch != null) {
+            batch.changed = true;
+        } else {
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+    }
+
+    /**
+     * Notify the observers of lists of pets, e.g. the catalog, that pets were added, removed
+     * or moved.
+     */
+    private void notifyListsChanged() {
+        notifyChange(PetContract.PetsEntry.CONTENT_URI);
+    }
+
+    /**
+     * Notify the observers of the pet with the given _ID that its contents changed. Lists of
+     * pets are not requeried; they can watch {@link PetContract.PetsEntry#CONTENT_CHANGES_URI}
+     * and refresh only the changed row.
+     */
+    private void notifyRowChanged(long id) {
+        notifyChange(ContentUris.withAppendedId(PetContract.PetsEntry.CONTENT_CHANGES_URI, id));
+        // Before Jelly Bean a ContentObserver is not told which URI changed, so lists could not
+        // tell which row to refresh; have them requery instead.
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            notifyListsChanged();
+        }
+    }
+
+    /**
+     * Notify every observer, for changes to rows picked by a selection we don't know the
+     * _IDs of.
+     */
+    private void notifyAllRowsChanged() {
+        notifyListsChanged();
+        notifyChange(PetContract.PetsEntry.CONTENT_CHANGES_URI);
     }
 
     /**
@@ -148,97 +960,398 @@ public class PetProvider extends ContentProvider {
      */
     @Override
     public int update(@NonNull Uri uri, ContentValues contentValues, String selection, String[] selectionArgs) {
-
+        long start = mMetrics.start();
+        int rowsUpdated;
         int match = sUriMatcher.match(uri);
         switch (match) {
             case PETS:
-                return updatePet(uri, contentValues, selection, selectionArgs);
+                if (uri.getQueryParameter(PetContract.QUERY_PARAMETER_EXPECTED_VERSION) != null) {
+                    throw new IllegalArgumentException("Only single pets can be updated conditionally " + uri);
+                }
+                rowsUpdated = updatePet(-1, -1, contentValues, selection, selectionArgs);
+                break;
             case PETS_ID:
-                selection = PetContract.PetsEntry._ID + "=?";
-                selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
-                return updatePet(uri, contentValues, selection, selectionArgs);
+                String expectedVersion = uri.getQueryParameter(PetContract.QUERY_PARAMETER_EXPECTED_VERSION);
+                rowsUpdated = updatePet(ContentUris.parseId(uri),
+                        expectedVersion != null ? Long.parseLong(expectedVersion) : -1,
+                        contentValues, null, null);
+                break;
             default:
                 throw new IllegalArgumentException("Update operation failed with Uri: " + uri);
         }
-
-
+        mMetrics.record(PetProviderMetrics.UPDATE, match, start, rowsUpdated);
+        return rowsUpdated;
     }
 
-    private int updatePet(Uri uri, ContentValues contentValues, String selection, String[] selectionArgs) {
+    /**
+     * Update the pet with the given _ID, or the pets matching the selection when the id is -1.
+     * Only the given columns are written. With an expected version other than -1, the pet is
+     * only updated if it is still at that version, and a {@link PetConflictException} is
+     * thrown if it is at another one.
+     */
+    private int updatePet(long id, long expectedVersion, ContentValues contentValues,
+                          String selection, String[] selectionArgs) {
+        if (!PetStatements.hasOnlyPetColumns(contentValues)) {
+            throw new IllegalArgumentException("Only the name, breed, gender and weight of a pet can be updated");
+        }
+
         //Sanity Checks
         if (contentValues.containsKey(PetContract.PetsEntry.COLUMN_PET_NAME)) {
             String name = contentValues.getAsString(PetContract.PetsEntry.COLUMN_PET_NAME);
-            if (name.isEmpty()) {
+            if (name == null || name.isEmpty()) {
                 throw new IllegalArgumentException("Pet requires a name");
             }
         }
 
         if (contentValues.containsKey(PetContract.PetsEntry.COLUMN_PET_GENDER)) {
-            Integer gender = contentValues.getAsInteger(PetContract.PetsEntry.COLUMN_PET_GENDER);
-            if (gender == null || !PetContract.PetsEntry.isValidGender(gender)) {
-                throw new IllegalArgumentException("Pet requires valid gender");
-            }
+            checkGender(contentValues);
         }
 
         if (contentValues.containsKey(PetContract.PetsEntry.COLUMN_PET_WEIGHT)) {
-            Integer weight = contentValues.getAsInteger(PetContract.PetsEntry.COLUMN_PET_WEIGHT);
-            if (weight != null && weight < 0) {
-                throw new IllegalArgumentException("Pet requires valid weight");
-            }
+            checkWeight(contentValues);
         }
 
         if (contentValues.size() == 0) {
             return 0;
         }
 
-        SQLiteDatabase database = mPetDBHelper.getWritableDatabase();
-        int rowsUpdated = database.update(PetContract.PetsEntry.TABLE_NAME, contentValues, selection, selectionArgs);
+        int rowsUpdated;
+        if (id != -1) {
+            rowsUpdated = getStatements().updateById(id, contentValues, expectedVersion);
+            // Nothing written either because the pet is gone or because it is at another
+            // version; only the second is a conflict
+            if (rowsUpdated == 0 && expectedVersion != -1 && DatabaseUtils.queryNumEntries(
+                    mPetDBHelper.getReadableDatabase(), PetContract.PetsEntry.TABLE_NAME,
+                    PetContract.PetsEntry._ID + "=? AND " + PetDBHelper.LIVE_PETS,
+                    new String[]{String.valueOf(id)}) != 0) {
+                throw new PetConflictException(id, expectedVersion);
+            }
+        } else {
+            rowsUpdated = PetStatements.update(mPetDBHelper.getWritableDatabase(), contentValues,
+                    DatabaseUtils.concatenateWhere(selection, PetDBHelper.LIVE_PETS), selectionArgs);
+        }
 
         if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            if (id != -1) {
+                mRowCache.invalidate(id);
+                // Lists only patch the row of the pet for a new photo; a new name, breed,
+                // gender or weight can change which lists the pet is in and where
+                if ((PetStatements.columnMask(contentValues) & PetStatements.LIST_COLUMNS) != 0) {
+                    notifyListsChanged();
+                }
+                notifyRowChanged(id);
+            } else {
+                mRowCache.invalidateAll();
+                notifyAllRowsChanged();
+            }
         }
         return rowsUpdated;
     }
 
     /**
-     * Delete the data at the given selection and selection arguments.
+     * Delete the data at the given selection and selection arguments. Pets are only marked
+     * with a tombstone, an update of their row that neither frees pages nor rewrites indexes;
+     * {@link #purge(long)} removes them later, along with their photos.
      */
     @Override
     public int delete(@NotNull Uri uri, String selection, String[] selectionArgs) {
-        SQLiteDatabase database = mPetDBHelper.getWritableDatabase();
+        long start = mMetrics.start();
+        long id = -1;
+        int rowsDeleted;
         int match = sUriMatcher.match(uri);
         switch (match) {
             case PETS:
+                selection = DatabaseUtils.concatenateWhere(selection, PetDBHelper.LIVE_PETS);
+                String limit = uri.getQueryParameter(PetContract.QUERY_PARAMETER_LIMIT);
+                if (limit != null) {
+                    // Only delete the first pets, so a large delete runs as a series of short
+                    // transactions instead of holding the write lock for the whole table
+                    selection = PetContract.PetsEntry._ID + " IN (SELECT " + PetContract.PetsEntry._ID +
+                            " FROM " + PetContract.PetsEntry.TABLE_NAME +
+                            " WHERE " + selection +
+                            " ORDER BY " + PetContract.PetsEntry._ID +
+                            " LIMIT " + Integer.parseInt(limit) + ")";
+                }
+                ContentValues tombstone = new ContentValues();
+                tombstone.put(PetContract.PetsEntry.COLUMN_PET_DELETED, System.currentTimeMillis());
+                rowsDeleted = mPetDBHelper.getWritableDatabase().update(PetContract.PetsEntry.TABLE_NAME,
+                        tombstone, selection, selectionArgs);
                 break;
             case PETS_ID:
-                selection = PetContract.PetsEntry._ID + "=?";
-                selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
+                id = ContentUris.parseId(uri);
+                rowsDeleted = getStatements().deleteById(id, System.currentTimeMillis());
                 break;
+            case PETS_ID_PHOTO:
+                id = parsePhotoId(uri);
+                rowsDeleted = mPhotoStore.delete(id) ? 1 : 0;
+                if (rowsDeleted != 0) {
+                    setPhotoVersion(id, false);
+                }
+                mMetrics.record(PetProviderMetrics.DELETE, match, start, rowsDeleted);
+                return rowsDeleted;
             default:
                 throw new IllegalArgumentException("Unable to delete data with Uri: " + uri);
         }
-        int rowsDeleted = database.delete(PetContract.PetsEntry.TABLE_NAME, selection, selectionArgs);
 
         if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
-
+            boolean notify = isNotifyEnabled(uri);
+            if (id != -1) {
+                mRowCache.invalidate(id);
+                if (notify) {
+                    notifyListsChanged();
+                    notifyRowChanged(id);
+                }
+            } else {
+                mRowCache.invalidateAll();
+                if (notify) {
+                    notifyAllRowsChanged();
+                }
+            }
         }
+        mMetrics.record(PetProviderMetrics.DELETE, match, start, rowsDeleted);
         return rowsDeleted;
     }
 
+    /**
+     * Return the _ID of the pet of a pets/#/photo URI.
+     */
+    private static long parsePhotoId(Uri uri) {
+        return Long.parseLong(uri.getPathSegments().get(1));
+    }
+
+    /**
+     * Record that the photo of the given pet was replaced, or removed. A new photo gets the
+     * current time as its version, or one more than the old version if the clock went back or
+     * two photos were saved within a millisecond. If the pet was deleted while its photo was
+     * being written, the photo is deleted too.
+     */
+    private void setPhotoVersion(long id, boolean hasPhoto) {
+        SQLiteStatement statement = mPetDBHelper.getWritableDatabase().compileStatement(
+                "UPDATE " + PetContract.PetsEntry.TABLE_NAME +
+                        " SET " + PetContract.PetsEntry.COLUMN_PET_PHOTO_VERSION + "=" +
+                        (hasPhoto ? "MAX(" + PetContract.PetsEntry.COLUMN_PET_PHOTO_VERSION + "+1,?)" : "?") +
+                        " WHERE " + PetContract.PetsEntry._ID + "=?");
+        int rows;
+        try {
+            statement.bindLong(1, hasPhoto ? System.currentTimeMillis() : 0);
+            statement.bindLong(2, id);
+            rows = statement.executeUpdateDelete();
+        } finally {
+            statement.close();
+        }
+        mRowCache.invalidate(id);
+        if (rows != 0) {
+            notifyRowChanged(id);
+        } else {
+            mPhotoStore.delete(id);
+        }
+    }
+
+    @Override
+    public Bundle call(@NonNull String method, String arg, Bundle extras) {
+        if (PetContract.METHOD_RECLAIM_SPACE.equals(method)) {
+            PetDBHelper.reclaimSpace(mPetDBHelper.getWritableDatabase(), true);
+            return null;
+        }
+        if (PetContract.METHOD_WARM_UP.equals(method)) {
+            warmUp();
+            return null;
+        }
+        if (PetContract.METHOD_RESTORE.equals(method)) {
+            restore(Long.parseLong(arg));
+            return null;
+        }
+        if (PetContract.METHOD_PURGE.equals(method)) {
+            purge(arg != null ? Long.parseLong(arg) : PURGE_AFTER_MILLIS,
+                    extras == null || !extras.getBoolean(PetContract.EXTRA_SKIP_VACUUM));
+            return null;
+        }
+        return super.call(method, arg, extras);
+    }
+
+    /**
+     * Bring back the deleted pet with the given _ID, if it wasn't purged yet.
+     */
+    private void restore(long id) {
+        ContentValues values = new ContentValues();
+        values.put(PetContract.PetsEntry.COLUMN_PET_DELETED, 0);
+        int rows = mPetDBHelper.getWritableDatabase().update(PetContract.PetsEntry.TABLE_NAME, values,
+                PetContract.PetsEntry._ID + "=? AND " + PetDBHelper.DELETED_PETS, new String[]{String.valueOf(id)});
+        if (rows != 0) {
+            mRowCache.invalidate(id);
+            notifyListsChanged();
+            notifyRowChanged(id);
+        }
+    }
+
+    /**
+     * Remove the pets deleted more than the given time ago for good, in chunks of
+     * {@link #PURGE_CHUNK_SIZE} each in its own transaction, then delete their photos, compact
+     * the change log down to {@link #CHANGE_LOG_RETENTION_MILLIS} and return the freed pages
+     * to the file system, with a full VACUUM only if allowed. Nothing that can be read
+     * changes, so no one is notified.
+     */
+    private void purge(long olderThanMillis, boolean allowVacuum) {
+        long start = SystemClock.elapsedRealtime();
+        SQLiteDatabase database = mPetDBHelper.getWritableDatabase();
+        SQLiteStatement statement = database.compileStatement(PURGE_SQL);
+        int rowsPurged = 0;
+        int rows;
+        try {
+            statement.bindLong(1, System.currentTimeMillis() - olderThanMillis);
+            do {
+                rows = statement.executeUpdateDelete();
+                rowsPurged += rows;
+            } while (rows == PURGE_CHUNK_SIZE);
+        } finally {
+            statement.close();
+        }
+        if (rowsPurged != 0) {
+            mPhotoStore.deleteOrphans(database);
+        }
+        int changesDropped = PetDBHelper.compactChangeLog(database,
+                System.currentTimeMillis() - CHANGE_LOG_RETENTION_MILLIS);
+        if (rowsPurged != 0 || changesDropped != 0) {
+            PetDBHelper.reclaimSpace(database, allowVacuum);
+        }
+        Log.i(LOG_TAG, "Purged " + rowsPurged + " pets and " + changesDropped + " changes in " +
+                (SystemClock.elapsedRealtime() - start) + " ms");
+    }
+
     /**
      * Returns the MIME type of data for the content URI.
      */
     @Override
     public String getType(@NotNull Uri uri) {
+        long start = mMetrics.start();
+        String type;
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case PETS:
-                return PetContract.PetsEntry.PET_CONTENT_LIST_TYPE;
+            case PETS_SEARCH:
+            case PETS_GENDER:
+            case PETS_WEIGHT:
+                type = PetContract.PetsEntry.PET_CONTENT_LIST_TYPE;
+                break;
             case PETS_ID:
-                return PetContract.PetsEntry.PET_CONTENT_ITEM_TYPE;
+                type = PetContract.PetsEntry.PET_CONTENT_ITEM_TYPE;
+                break;
+            case PETS_STATS:
+                type = PetContract.PetStatsEntry.CONTENT_TYPE;
+                break;
+            case PETS_SECTIONS:
+                type = PetContract.PetSectionsEntry.CONTENT_TYPE;
+                break;
+            case PETS_CHANGES:
+                type = PetContract.PetChangesEntry.CONTENT_TYPE;
+                break;
+            case PETS_METRICS:
+                type = PetContract.PetMetricsEntry.CONTENT_TYPE;
+                break;
+            case PETS_ID_PHOTO:
+                type = PetContract.PetsEntry.PHOTO_TYPE;
+                break;
+            case PETS_EXPORT:
+                type = getExportType(uri);
+                break;
             default:
                 throw new IllegalStateException("Unknown URI " + uri + " with match " + match);
         }
+        mMetrics.record(PetProviderMetrics.GET_TYPE, match, start, 0);
+        return type;
+    }
+
+    /**
+     * MIME type of an export, for openFile as well as getType. Only calls made from outside
+     * the provider go through getType, so only those are timed.
+     */
+    private static String getExportType(Uri uri) {
+        return isJsonExport(uri) ? PetContract.PetsEntry.EXPORT_JSON_TYPE : PetContract.PetsEntry.EXPORT_CSV_TYPE;
+    }
+
+    private static boolean isJsonExport(Uri uri) {
+        String format = uri.getQueryParameter(PetContract.QUERY_PARAMETER_FORMAT);
+        if (format == null || PetContract.FORMAT_CSV.equals(format)) {
+            return false;
+        } else if (PetContract.FORMAT_JSON.equals(format)) {
+            return true;
+        }
+        throw new IllegalArgumentException("Unknown export format " + format);
+    }
+
+    /**
+     * Open an export of every pet, or the photo of a pet. The pets are written into a pipe on a
+     * background thread while the caller reads the other end, so the export never has to fit
+     * in memory. Photos are opened for reading with "r", or replaced with "w".
+     */
+    @Override
+    public ParcelFileDescriptor openFile(@NonNull Uri uri, @NonNull String mode) throws FileNotFoundException {
+        int match = sUriMatcher.match(uri);
+        switch (match) {
+            case PETS_EXPORT:
+                if (!"r".equals(mode)) {
+                    throw new FileNotFoundException("Exports can only be read " + uri);
+                }
+                return openPipeHelper(uri, getExportType(uri), null, mPetDBHelper.getReadableDatabase(),
+                        new PipeDataWriter<SQLiteDatabase>() {
+                            @Override
+                            public void writeDataToPipe(@NonNull ParcelFileDescriptor output, @NonNull Uri uri,
+                                                        @NonNull String mimeType, Bundle opts, SQLiteDatabase database) {
+                                Writer out = new BufferedWriter(new OutputStreamWriter(
+                                        new FileOutputStream(output.getFileDescriptor()), PetExporter.CHARSET), 8192);
+                                try {
+                                    new PetExporter(out, isJsonExport(uri)).export(database);
+                                } catch (IOException e) {
+                                    // Usually the reader closed its end early
+                                    Log.w(LOG_TAG, "Export of " + uri + " stopped", e);
+                                } finally {
+                                    try {
+                                        out.close();
+                                    } catch (IOException e) {
+                                        // The pipe is gone either way
+                                    }
+                                }
+                            }
+                        });
+            case PETS_ID_PHOTO:
+                long id = parsePhotoId(uri);
+                if ("r".equals(mode)) {
+                    return mPhotoStore.openForReading(id);
+                } else if (!"w".equals(mode) && !"wt".equals(mode)) {
+                    throw new FileNotFoundException("Photos can only be read or replaced " + uri);
+                }
+                if (DatabaseUtils.queryNumEntries(mPetDBHelper.getReadableDatabase(), PetContract.PetsEntry.TABLE_NAME,
+                        PetContract.PetsEntry._ID + "=? AND " + PetDBHelper.LIVE_PETS,
+                        new String[]{String.valueOf(id)}) == 0) {
+                    throw new FileNotFoundException("No pet at " + uri);
+                }
+                return mPhotoStore.openForWriting(id, new PetPhotoStore.CommitListener() {
+                    @Override
+                    public void onPhotoCommitted(long id) {
+                        setPhotoVersion(id, true);
+                    }
+                });
+            default:
+                throw new FileNotFoundException("No file at " + uri);
+        }
+    }
+
+    /**
+     * Print the call timings of the provider and the hit, miss and eviction counts of the
+     * row cache, e.g. with "adb shell dumpsys activity provider com.example.android.pets".
+     * Add the argument "stats" to also check the statistics against a full recount of the pets.
+     */
+    @Override
+    public void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        mMetrics.dump(writer);
+        writer.println("Row cache: " + mRowCache.size() + "/" + mRowCache.maxSize() + " bytes, "
+                + mRowCache.hitCount() + " hits, "
+                + mRowCache.missCount() + " misses, "
+                + mRowCache.evictionCount() + " evictions");
+        if (args != null && Arrays.asList(args).contains("stats")) {
+            long mismatches = PetDBHelper.countStatsMismatches(mPetDBHelper.getReadableDatabase());
+            writer.println("Statistics: " + (mismatches == 0 ? "match a full recount"
+                    : mismatches + " groups differ from a full recount"));
+        }
     }
 }
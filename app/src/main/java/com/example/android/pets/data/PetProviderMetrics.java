@@ -0,0 +1,166 @@
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+
+import java.io.PrintWriter;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Call counts, latencies and row counts of the provider, per operation and per URI matched.
+ * <p>
+ * Recording is lock-free and allocation-free: every operation and URI has a slot of counters,
+ * and latencies go into a histogram of power-of-two buckets from which the percentiles are
+ * estimated, each to within a factor of two. Recording a call costs two clock reads and a few
+ * atomic additions; see the "metrics record" case of the benchmark module.
+ */
+public final class PetProviderMetrics {
+
+    public static final int QUERY = 0;
+    public static final int INSERT = 1;
+    public static final int BULK_INSERT = 2;
+    public static final int UPDATE = 3;
+    public static final int DELETE = 4;
+    public static final int GET_TYPE = 5;
+
+    private static final String[] OPERATION_NAMES = {"query", "insert", "bulkInsert", "update", "delete", "getType"};
+
+    /**
+     * Latency buckets; bucket b counts calls that took less than 2^b ns, and the last one
+     * everything slower (about 9 minutes and up).
+     */
+    private static final int BUCKETS = 40;
+
+    private final int mFirstMatch;
+    private final String[] mMatchNames;
+
+    /**
+     * Slots per operation: one per URI name, and one for URIs that didn't match.
+     */
+    private final int mMatches;
+
+    private final AtomicLongArray mCounts;
+    private final AtomicLongArray mNanos;
+    private final AtomicLongArray mRows;
+    private final AtomicLongArray mHistograms;
+
+    /**
+     * @param firstMatch UriMatcher code of the first URI name
+     * @param matchNames names of the URIs with consecutive UriMatcher codes from firstMatch
+     */
+    public PetProviderMetrics(int firstMatch, String[] matchNames) {
+        mFirstMatch = firstMatch;
+        mMatchNames = matchNames;
+        mMatches = matchNames.length + 1;
+        int slots = OPERATION_NAMES.length * mMatches;
+        mCounts = new AtomicLongArray(slots);
+        mNanos = new AtomicLongArray(slots);
+        mRows = new AtomicLongArray(slots);
+        mHistograms = new AtomicLongArray(slots * BUCKETS);
+    }
+
+    /**
+     * Return the start time of a call, to pass to {@link #record}.
+     */
+    public long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Record a call that started at the given time.
+     *
+     * @param operation one of {@link #QUERY}, {@link #INSERT}, ...
+     * @param match     UriMatcher code of the URI of the call
+     * @param rows      rows returned by a query, or written by an insert, update or delete
+     */
+    public void record(int operation, int match, long start, int rows) {
+        long nanos = System.nanoTime() - start;
+        int matchIndex = match - mFirstMatch;
+        if (matchIndex < 0 || matchIndex >= mMatchNames.length) {
+            matchIndex = mMatchNames.length;
+        }
+        int slot = operation * mMatches + matchIndex;
+        mCounts.incrementAndGet(slot);
+        mNanos.addAndGet(slot, nanos);
+        mRows.addAndGet(slot, rows);
+        int bucket = Math.min(64 - Long.numberOfLeadingZeros(nanos), BUCKETS - 1);
+        mHistograms.incrementAndGet(slot * BUCKETS + bucket);
+    }
+
+    /**
+     * Columns of {@link #toCursor()}, see {@link PetContract.PetMetricsEntry}.
+     */
+    private static final String[] COLUMNS = {
+            PetContract.PetMetricsEntry._ID,
+            PetContract.PetMetricsEntry.COLUMN_OPERATION,
+            PetContract.PetMetricsEntry.COLUMN_URI,
+            PetContract.PetMetricsEntry._COUNT,
+            PetContract.PetMetricsEntry.COLUMN_ROWS,
+            PetContract.PetMetricsEntry.COLUMN_MEAN_US,
+            PetContract.PetMetricsEntry.COLUMN_P50_US,
+            PetContract.PetMetricsEntry.COLUMN_P95_US,
+            PetContract.PetMetricsEntry.COLUMN_P99_US};
+
+    /**
+     * Return a row for every operation and URI that was called at least once.
+     */
+    Cursor toCursor() {
+        MatrixCursor cursor = new MatrixCursor(COLUMNS);
+        for (int slot = 0; slot < mCounts.length(); slot++) {
+            long count = mCounts.get(slot);
+            if (count != 0) {
+                cursor.addRow(new Object[]{
+                        slot,
+                        OPERATION_NAMES[slot / mMatches],
+                        matchName(slot),
+                        count,
+                        mRows.get(slot),
+                        mNanos.get(slot) / count / 1000.0,
+                        percentile(slot, count, 50) / 1000.0,
+                        percentile(slot, count, 95) / 1000.0,
+                        percentile(slot, count, 99) / 1000.0});
+            }
+        }
+        return cursor;
+    }
+
+    void dump(PrintWriter writer) {
+        writer.println(String.format(Locale.US, "%-10s %-14s %10s %12s %10s %10s %10s %10s",
+                "operation", "uri", "calls", "rows", "mean us", "p50 us", "p95 us", "p99 us"));
+        for (int slot = 0; slot < mCounts.length(); slot++) {
+            long count = mCounts.get(slot);
+            if (count != 0) {
+                writer.println(String.format(Locale.US, "%-10s %-14s %10d %12d %10.1f %10.1f %10.1f %10.1f",
+                        OPERATION_NAMES[slot / mMatches],
+                        matchName(slot),
+                        count,
+                        mRows.get(slot),
+                        mNanos.get(slot) / count / 1000.0,
+                        percentile(slot, count, 50) / 1000.0,
+                        percentile(slot, count, 95) / 1000.0,
+                        percentile(slot, count, 99) / 1000.0));
+            }
+        }
+    }
+
+    private String matchName(int slot) {
+        int matchIndex = slot % mMatches;
+        return matchIndex < mMatchNames.length ? mMatchNames[matchIndex] : "unknown";
+    }
+
+    /**
+     * Return the upper bound, in ns, of the bucket holding the given percentile of the calls.
+     */
+    private long percentile(int slot, long count, int percentile) {
+        long rank = (count * percentile + 99) / 100;
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += mHistograms.get(slot * BUCKETS + bucket);
+            if (seen >= rank) {
+                return 1L << bucket;
+            }
+        }
+        return 1L << (BUCKETS - 1);
+    }
+}
@@ -0,0 +1,61 @@
+package com.example.android.pets.data;
+
+import android.annotation.TargetApi;
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.os.Build;
+import android.os.Process;
+
+/**
+ * Purges deleted pets once a day while the device is idle and charging, see
+ * {@link PetContract#METHOD_PURGE}, so removing the rows and reclaiming their space never
+ * competes with the user for the database.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class PetPurgeJobService extends JobService {
+
+    private static final int JOB_ID = 1;
+
+    private static final long PERIOD_MILLIS = 24 * 60 * 60 * 1000L;
+
+    /**
+     * Schedule the purge, unless it already is. Scheduling it again would restart its period.
+     */
+    public static void schedule(Context context) {
+        JobScheduler scheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        for (JobInfo job : scheduler.getAllPendingJobs()) {
+            if (job.getId() == JOB_ID) {
+                return;
+            }
+        }
+        scheduler.schedule(new JobInfo.Builder(JOB_ID, new ComponentName(context, PetPurgeJobService.class))
+                .setRequiresDeviceIdle(true)
+                .setRequiresCharging(true)
+                .setPeriodic(PERIOD_MILLIS)
+                .build());
+    }
+
+    @Override
+    public boolean onStartJob(final JobParameters params) {
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                getContentResolver().call(PetContract.PetsEntry.CONTENT_URI, PetContract.METHOD_PURGE, null, null);
+                jobFinished(params, false);
+            }
+        }, PetPurgeJobService.class.getSimpleName()).start();
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        // The purge goes on to the end of its current run, which commits chunk by chunk; what
+        // is left is picked up the next time
+        return false;
+    }
+}
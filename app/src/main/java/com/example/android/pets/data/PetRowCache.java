@@ -0,0 +1,156 @@
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.util.LruCache;
+
+import com.example.android.pets.data.PetContract.PetsEntry;
+
+/**
+ * Bounded cache of whole pet rows keyed by _ID, so opening a pet that was shown recently
+ * doesn't have to go back to the database. The size of an entry is an estimate of the bytes
+ * it holds on the heap.
+ */
+class PetRowCache extends LruCache<Long, PetRowCache.Pet> {
+
+    /**
+     * Columns of a cached row, in the order they are read from the database.
+     */
+    static final String[] COLUMNS = new String[]{
+            PetsEntry._ID,
+            PetsEntry.COLUMN_PET_NAME,
+            PetsEntry.COLUMN_PET_BREED,
+            PetsEntry.COLUMN_PET_GENDER,
+            PetsEntry.COLUMN_PET_WEIGHT,
+            PetsEntry.COLUMN_PET_VERSION,
+            PetsEntry.COLUMN_PET_PHOTO_VERSION};
+
+    /**
+     * Number of invalidations so far. A row read from the database is only cached if no
+     * invalidation happened while it was being read, otherwise it may already be stale.
+     */
+    private int mGeneration;
+
+    static final class Pet {
+        final long id;
+        final String name;
+        final String breed;
+        final int gender;
+        final int weight;
+        final long version;
+        final long photoVersion;
+
+        Pet(Cursor cursor) {
+            id = cursor.getLong(0);
+            name = cursor.getString(1);
+            breed = cursor.getString(2);
+            gender = cursor.getInt(3);
+            weight = cursor.getInt(4);
+            version = cursor.getLong(5);
+            photoVersion = cursor.getLong(6);
+        }
+
+        Object get(int column) {
+            switch (column) {
+                case 0:
+                    return id;
+                case 1:
+                    return name;
+                case 2:
+                    return breed;
+                case 3:
+                    return gender;
+                case 4:
+                    return weight;
+                case 5:
+                    return version;
+                default:
+                    return photoVersion;
+            }
+        }
+    }
+
+    PetRowCache(int maxSizeBytes) {
+        super(maxSizeBytes);
+    }
+
+    @Override
+    protected int sizeOf(Long id, Pet pet) {
+        // Object headers and fields, plus two bytes per character of the strings
+        int size = 64;
+        if (pet.name != null) {
+            size += 40 + 2 * pet.name.length();
+        }
+        if (pet.breed != null) {
+            size += 40 + 2 * pet.breed.length();
+        }
+        return size;
+    }
+
+    /**
+     * Start reading a row from the database. Pass the returned token to
+     * {@link #putIfCurrent(long, Pet, int)} once the row is read.
+     */
+    synchronized int beginLoad() {
+        return mGeneration;
+    }
+
+    /**
+     * Cache a row read from the database, unless it was invalidated since
+     * {@link #beginLoad()} returned the given token.
+     */
+    synchronized void putIfCurrent(long id, Pet pet, int token) {
+        if (token == mGeneration) {
+            put(id, pet);
+        }
+    }
+
+    /**
+     * Drop the pet with the given _ID, after it was updated or deleted.
+     */
+    synchronized void invalidate(long id) {
+        mGeneration++;
+        remove(id);
+    }
+
+    /**
+     * Drop every pet, after a change to pets we don't know the _IDs of.
+     */
+    synchronized void invalidateAll() {
+        mGeneration++;
+        evictAll();
+    }
+
+    /**
+     * Return a cursor over the given pet, or an empty cursor if it is null, with the columns
+     * of the projection. A null projection returns every column.
+     */
+    static Cursor toCursor(Pet pet, String[] projection) {
+        if (projection == null) {
+            projection = COLUMNS;
+        }
+        int[] columns = new int[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            columns[i] = indexOf(projection[i]);
+        }
+
+        MatrixCursor cursor = new MatrixCursor(projection, 1);
+        if (pet != null) {
+            Object[] row = new Object[columns.length];
+            for (int i = 0; i < columns.length; i++) {
+                row[i] = pet.get(columns[i]);
+            }
+            cursor.addRow(row);
+        }
+        return cursor;
+    }
+
+    private static int indexOf(String column) {
+        for (int i = 0; i < COLUMNS.length; i++) {
+            if (COLUMNS[i].equals(column)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Unknown column " + column);
+    }
+}
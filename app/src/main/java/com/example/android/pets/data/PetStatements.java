@@ -0,0 +1,282 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.text.TextUtils;
+
+import com.example.android.pets.data.PetContract.PetsEntry;
+
+import java.util.Arrays;
+
+/**
+ * Compiled statements for the fixed-shape writes of {@link PetProvider}: insert, update by _ID
+ * and delete by _ID. Deleted pets are only marked with a tombstone, and are neither read
+ * nor written by _ID any more. Binding values straight into a statement skips building the SQL and
+ * copying the ContentValues that {@link SQLiteDatabase#insert} and friends do on every call.
+ * <p>
+ * Updates only write the columns they are given and add one to the version of the pet. There
+ * is an update statement per set of columns, compiled the first time it is used, with and
+ * without a check of the version the caller expects.
+ * <p>
+ * A SQLiteStatement keeps its bindings between calls, so an instance must only be used by one
+ * thread at a time; the provider keeps one per thread.
+ */
+final class PetStatements {
+
+    /**
+     * Value returned by {@link #getInt(ContentValues, String)} when there is no int to read.
+     */
+    static final int MISSING = Integer.MIN_VALUE;
+
+    /**
+     * Query for the whole row of one pet. Always passing the same SQL lets the connection reuse
+     * its prepared statement.
+     */
+    static final String QUERY_BY_ID_SQL =
+            "SELECT " + PetsEntry._ID + ","
+                    + PetsEntry.COLUMN_PET_NAME + ","
+                    + PetsEntry.COLUMN_PET_BREED + ","
+                    + PetsEntry.COLUMN_PET_GENDER + ","
+                    + PetsEntry.COLUMN_PET_WEIGHT + ","
+                    + PetsEntry.COLUMN_PET_VERSION + ","
+                    + PetsEntry.COLUMN_PET_PHOTO_VERSION
+                    + " FROM " + PetsEntry.TABLE_NAME
+                    + " WHERE " + PetsEntry._ID + "=? AND " + PetDBHelper.LIVE_PETS;
+
+    private static final String INSERT_SQL =
+            "INSERT INTO " + PetsEntry.TABLE_NAME + " ("
+                    + PetsEntry.COLUMN_PET_NAME + ","
+                    + PetsEntry.COLUMN_PET_BREED + ","
+                    + PetsEntry.COLUMN_PET_GENDER + ","
+                    + PetsEntry.COLUMN_PET_WEIGHT + ") VALUES (?,?,?,?)";
+
+    /**
+     * Columns a caller can write, in the order of their bits in a column mask.
+     */
+    private static final String[] PET_COLUMNS = {
+            PetsEntry.COLUMN_PET_NAME,
+            PetsEntry.COLUMN_PET_BREED,
+            PetsEntry.COLUMN_PET_GENDER,
+            PetsEntry.COLUMN_PET_WEIGHT};
+
+    /**
+     * Added to a column mask for the update statement that also checks the version.
+     */
+    private static final int CHECK_VERSION = 1 << PET_COLUMNS.length;
+
+    /**
+     * Mask of the columns the lists of pets are filtered, searched or sorted by. Writing one
+     * can move a pet into, out of or within a list, which patching its row can't show.
+     */
+    static final int LIST_COLUMNS = maskOf(PetsEntry.COLUMN_PET_NAME, PetsEntry.COLUMN_PET_BREED,
+            PetsEntry.COLUMN_PET_GENDER, PetsEntry.COLUMN_PET_WEIGHT);
+
+    private static final String DELETE_BY_ID_SQL =
+            "UPDATE " + PetsEntry.TABLE_NAME + " SET " + PetsEntry.COLUMN_PET_DELETED + "=?"
+                    + " WHERE " + PetsEntry._ID + "=? AND " + PetDBHelper.LIVE_PETS;
+
+    private final SQLiteDatabase mDatabase;
+    private SQLiteStatement mInsert;
+    private SQLiteStatement mDeleteById;
+
+    /**
+     * Update statements by _ID, indexed by column mask plus {@link #CHECK_VERSION} for the
+     * ones that check the version.
+     */
+    private final SQLiteStatement[] mUpdatesById = new SQLiteStatement[2 * CHECK_VERSION];
+
+    PetStatements(SQLiteDatabase database) {
+        mDatabase = database;
+    }
+
+    /**
+     * Return true if the values only hold columns the statements bind, so they can be written
+     * with them. The provider rejects values holding any other column.
+     */
+    static boolean hasOnlyPetColumns(ContentValues values) {
+        return Integer.bitCount(columnMask(values)) == values.size();
+    }
+
+    /**
+     * Return the mask of the pet columns held by the values, a bit per column of
+     * {@link #PET_COLUMNS}.
+     */
+    static int columnMask(ContentValues values) {
+        int mask = 0;
+        for (int i = 0; i < PET_COLUMNS.length; i++) {
+            if (values.containsKey(PET_COLUMNS[i])) {
+                mask |= 1 << i;
+            }
+        }
+        return mask;
+    }
+
+    private static int maskOf(String... columns) {
+        int mask = 0;
+        for (String column : columns) {
+            mask |= 1 << Arrays.asList(PET_COLUMNS).indexOf(column);
+        }
+        return mask;
+    }
+
+    /**
+     * Build an update of the columns of the mask that also adds one to the version, for the
+     * pets matching the given WHERE clause, if any. The columns are bound first, in the order
+     * of {@link #PET_COLUMNS}, followed by the arguments of the WHERE clause.
+     */
+    static String buildUpdateSql(int mask, String where) {
+        StringBuilder sql = new StringBuilder("UPDATE ").append(PetsEntry.TABLE_NAME).append(" SET ");
+        for (int i = 0; i < PET_COLUMNS.length; i++) {
+            if ((mask & 1 << i) != 0) {
+                sql.append(PET_COLUMNS[i]).append("=?,");
+            }
+        }
+        sql.append(PetsEntry.COLUMN_PET_VERSION).append('=').append(PetsEntry.COLUMN_PET_VERSION).append("+1");
+        if (!TextUtils.isEmpty(where)) {
+            sql.append(" WHERE ").append(where);
+        }
+        return sql.toString();
+    }
+
+    /**
+     * Read an int value without boxing it, as {@link ContentValues#getAsInteger(String)} does.
+     * Returns {@link #MISSING} if the value is absent, null or not a number.
+     */
+    static int getInt(ContentValues values, String key) {
+        Object value = values.get(key);
+        if (value instanceof Number) {
+            return ((Number) value).intValue();
+        }
+        if (value instanceof String) {
+            try {
+                return Integer.parseInt((String) value);
+            } catch (NumberFormatException e) {
+                return MISSING;
+            }
+        }
+        return MISSING;
+    }
+
+    /**
+     * Compile the insert and delete statements, and the update of every column, now rather
+     * than on first use.
+     */
+    void compileAll() {
+        if (mInsert == null) {
+            mInsert = mDatabase.compileStatement(INSERT_SQL);
+        }
+        if (mDeleteById == null) {
+            mDeleteById = mDatabase.compileStatement(DELETE_BY_ID_SQL);
+        }
+        getUpdateById(CHECK_VERSION - 1, false);
+        getUpdateById(CHECK_VERSION - 1, true);
+    }
+
+    /**
+     * Insert a checked pet. A missing weight falls back to the column default of 0.
+     */
+    long insert(ContentValues values) {
+        if (mInsert == null) {
+            mInsert = mDatabase.compileStatement(INSERT_SQL);
+        }
+        bindPet(mInsert, values);
+        return mInsert.executeInsert();
+    }
+
+    /**
+     * Write the pet columns held by the values to the pet with the given _ID. With an
+     * expected version other than -1, the pet is only written if it is still at that version,
+     * otherwise nothing is written and 0 is returned.
+     */
+    int updateById(long id, ContentValues values, long expectedVersion) {
+        int mask = columnMask(values);
+        boolean checkVersion = expectedVersion != -1;
+        SQLiteStatement statement = getUpdateById(mask, checkVersion);
+        statement.clearBindings();
+        int index = bindColumns(statement, mask, values);
+        statement.bindLong(index++, id);
+        if (checkVersion) {
+            statement.bindLong(index, expectedVersion);
+        }
+        return statement.executeUpdateDelete();
+    }
+
+    private SQLiteStatement getUpdateById(int mask, boolean checkVersion) {
+        int index = checkVersion ? mask + CHECK_VERSION : mask;
+        if (mUpdatesById[index] == null) {
+            String where = PetsEntry._ID + "=? AND " + PetDBHelper.LIVE_PETS;
+            if (checkVersion) {
+                where += " AND " + PetsEntry.COLUMN_PET_VERSION + "=?";
+            }
+            mUpdatesById[index] = mDatabase.compileStatement(buildUpdateSql(mask, where));
+        }
+        return mUpdatesById[index];
+    }
+
+    /**
+     * Write the pet columns held by the values to every pet matching the selection. The
+     * statement depends on the selection, so it is compiled for this call only.
+     */
+    static int update(SQLiteDatabase database, ContentValues values, String selection, String[] selectionArgs) {
+        int mask = columnMask(values);
+        SQLiteStatement statement = database.compileStatement(buildUpdateSql(mask, selection));
+        try {
+            int index = bindColumns(statement, mask, values);
+            if (selectionArgs != null) {
+                for (String arg : selectionArgs) {
+                    statement.bindString(index++, arg);
+                }
+            }
+            return statement.executeUpdateDelete();
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * Bind the columns of the mask from the values, from index 1 on, and return the next index.
+     */
+    private static int bindColumns(SQLiteStatement statement, int mask, ContentValues values) {
+        int index = 1;
+        for (int i = 0; i < PET_COLUMNS.length; i++) {
+            if ((mask & 1 << i) != 0) {
+                Object value = values.get(PET_COLUMNS[i]);
+                if (value == null) {
+                    statement.bindNull(index);
+                } else if (value instanceof Number) {
+                    statement.bindLong(index, ((Number) value).longValue());
+                } else {
+                    statement.bindString(index, value.toString());
+                }
+                index++;
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Mark the pet with the given _ID as deleted at the given time, a single-row update. Its
+     * row, index entries and photo stay until the pet is purged.
+     */
+    int deleteById(long id, long time) {
+        if (mDeleteById == null) {
+            mDeleteById = mDatabase.compileStatement(DELETE_BY_ID_SQL);
+        }
+        mDeleteById.bindLong(1, time);
+        mDeleteById.bindLong(2, id);
+        return mDeleteById.executeUpdateDelete();
+    }
+
+    private static void bindPet(SQLiteStatement statement, ContentValues values) {
+        statement.clearBindings();
+        statement.bindString(1, values.getAsString(PetsEntry.COLUMN_PET_NAME));
+        String breed = values.getAsString(PetsEntry.COLUMN_PET_BREED);
+        if (breed != null) {
+            statement.bindString(2, breed);
+        }
+        statement.bindLong(3, getInt(values, PetsEntry.COLUMN_PET_GENDER));
+        int weight = getInt(values, PetsEntry.COLUMN_PET_WEIGHT);
+        statement.bindLong(4, weight != MISSING ? weight : 0);
+    }
+}
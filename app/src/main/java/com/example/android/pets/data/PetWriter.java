@@ -0,0 +1,525 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Runs the inserts, updates and deletes of the activities one after the other on a background
+ * thread, so the UI never waits for SQLite, and reports the results back on the main thread.
+ * <p>
+ * Updates of a pet that is still waiting to be written are merged into the waiting update, so
+ * rapid successive saves cost a single write.
+ */
+public final class PetWriter {
+
+    private static final String LOG_TAG = PetWriter.class.getSimpleName();
+
+    /**
+     * Called on the main thread once an insert ran.
+     */
+    public interface InsertCallback {
+        /**
+         * @param uri URI of the new pet, or null if it couldn't be inserted
+         */
+        void onInsertComplete(@Nullable Uri uri);
+    }
+
+    /**
+     * Called on the main thread once an update or delete ran.
+     */
+    public interface WriteCallback {
+        /**
+         * @param rows number of pets written, 0 if none could be, or {@link #CONFLICT} if a
+         *             conditional update found the pet changed by someone else
+         */
+        void onWriteComplete(int rows);
+    }
+
+    /**
+     * Passed to {@link WriteCallback#onWriteComplete(int)} for an update of a pet at a version,
+     * see {@link PetContract.PetsEntry#buildVersionedUri(Uri, long)}, that someone else changed
+     * since.
+     */
+    public static final int CONFLICT = -1;
+
+    /**
+     * Called on the main thread while {@link #deleteAll(DeleteProgressCallback)} runs.
+     */
+    public interface DeleteProgressCallback {
+        /**
+         * Called after every chunk.
+         *
+         * @param rowsDeleted number of pets deleted so far
+         * @param rowsTotal   number of pets there were when the delete started
+         */
+        void onDeleteProgress(int rowsDeleted, int rowsTotal);
+
+        /**
+         * @param rowsDeleted number of pets deleted
+         * @param cancelled   true if the delete was cancelled before every pet was deleted
+         */
+        void onDeleteComplete(int rowsDeleted, boolean cancelled);
+    }
+
+    /**
+     * Called on the main thread while {@link #importPets(Uri, ImportCallback)} runs.
+     */
+    public interface ImportCallback {
+        /**
+         * Called after every batch.
+         */
+        void onImportProgress(int rowsImported, int rowsRejected);
+
+        /**
+         * @param result    counts of imported and rejected pets, or null if the file couldn't
+         *                  be read
+         * @param errorFile CSV file listing the rejected rows, or null if there were none
+         */
+        void onImportComplete(@Nullable PetImporter.Result result, @Nullable File errorFile);
+    }
+
+    /**
+     * A running {@link #deleteAll(DeleteProgressCallback)}.
+     */
+    public static final class BulkDelete {
+        private volatile boolean mCancelled;
+
+        /**
+         * Stop deleting after the current chunk. Pets deleted so far stay deleted.
+         */
+        public void cancel() {
+            mCancelled = true;
+        }
+    }
+
+    /**
+     * Pets deleted per transaction by {@link #deleteAll(DeleteProgressCallback)}. Small enough
+     * that readers and other writers never wait long for the write lock.
+     */
+    private static final int DELETE_CHUNK_SIZE = 500;
+
+    /**
+     * Photos are stored decoded at the smallest power-of-two reduction that keeps their shorter
+     * side at least this many pixels, and re-encoded as JPEG at {@link #PHOTO_QUALITY}.
+     */
+    private static final int PHOTO_SIZE = 1024;
+    private static final int PHOTO_QUALITY = 90;
+
+    /**
+     * Shortest time between two runs of {@link #purgeIfDue()}, the period of
+     * {@link PetPurgeJobService}.
+     */
+    private static final long PURGE_INTERVAL_MILLIS = 24 * 60 * 60 * 1000L;
+
+    private static final String PREFERENCES_NAME = "pet_writer";
+
+    /**
+     * Time of the last run of {@link #purgeIfDue()}, in milliseconds since the epoch.
+     */
+    private static final String KEY_LAST_PURGE = "last_purge";
+
+    private static PetWriter sInstance;
+
+    private final Context mContext;
+    private final ContentResolver mContentResolver;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            return new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }
+            }, LOG_TAG);
+        }
+    });
+
+    /**
+     * Updates waiting to be written, by pet URI.
+     */
+    private final HashMap<Uri, PendingUpdate> mPendingUpdates = new HashMap<>();
+
+    private static class PendingUpdate {
+        final ContentValues values;
+        final ArrayList<WriteCallback> callbacks = new ArrayList<>();
+
+        PendingUpdate(ContentValues values) {
+            this.values = values;
+        }
+    }
+
+    private PetWriter(Context context) {
+        mContext = context.getApplicationContext();
+        mContentResolver = mContext.getContentResolver();
+    }
+
+    public static synchronized PetWriter getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new PetWriter(context);
+        }
+        return sInstance;
+    }
+
+    public void insert(Uri uri, ContentValues values, @Nullable InsertCallback callback) {
+        insert(uri, values, null, callback);
+    }
+
+    /**
+     * Insert a pet, then save the image at the given URI as its photo, see
+     * {@link #savePhoto(Uri, Uri, WriteCallback)}.
+     */
+    public void insert(final Uri uri, ContentValues values, @Nullable final Uri photo,
+                       @Nullable final InsertCallback callback) {
+        // Copy the values, the caller may reuse them before the insert runs
+        final ContentValues copy = new ContentValues(values);
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Uri result;
+                try {
+                    result = mContentResolver.insert(uri, copy);
+                } catch (IllegalArgumentException e) {
+                    Log.e(LOG_TAG, "Failed to insert " + uri, e);
+                    result = null;
+                }
+                if (result != null && photo != null) {
+                    writePhoto(result, photo);
+                }
+                if (callback != null) {
+                    final Uri newUri = result;
+                    mMainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            callback.onInsertComplete(newUri);
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    public void update(final Uri uri, ContentValues values, @Nullable WriteCallback callback) {
+        synchronized (mPendingUpdates) {
+            PendingUpdate pending = mPendingUpdates.get(uri);
+            if (pending != null) {
+                // Not written yet, the newer values simply replace the older ones
+                pending.values.putAll(values);
+                if (callback != null) {
+                    pending.callbacks.add(callback);
+                }
+                return;
+            }
+            pending = new PendingUpdate(new ContentValues(values));
+            if (callback != null) {
+                pending.callbacks.add(callback);
+            }
+            mPendingUpdates.put(uri, pending);
+        }
+
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                PendingUpdate update;
+                synchronized (mPendingUpdates) {
+                    update = mPendingUpdates.remove(uri);
+                }
+                int rows;
+                try {
+                    rows = mContentResolver.update(uri, update.values, null, null);
+                } catch (IllegalArgumentException e) {
+                    Log.e(LOG_TAG, "Failed to update " + uri, e);
+                    rows = 0;
+                } catch (IllegalStateException e) {
+                    // A PetConflictException, which is an IllegalStateException once it has
+                    // crossed processes
+                    Log.w(LOG_TAG, "Not updating " + uri + ": " + e.getMessage());
+                    rows = CONFLICT;
+                }
+                deliver(update.callbacks, rows);
+            }
+        });
+    }
+
+    public void delete(final Uri uri, @Nullable final WriteCallback callback) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                int rows;
+                try {
+                    rows = mContentResolver.delete(uri, null, null);
+                } catch (IllegalArgumentException e) {
+                    Log.e(LOG_TAG, "Failed to delete " + uri, e);
+                    rows = 0;
+                }
+                ArrayList<WriteCallback> callbacks = new ArrayList<>();
+                if (callback != null) {
+                    callbacks.add(callback);
+                }
+                deliver(callbacks, rows);
+            }
+        });
+    }
+
+    /**
+     * Replace the photo of a pet with the image at the given URI, reduced and re-encoded as
+     * JPEG so a photo straight from the camera doesn't take megabytes per pet.
+     */
+    public void savePhoto(final Uri petUri, final Uri source, @Nullable final WriteCallback callback) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                int rows = writePhoto(petUri, source) ? 1 : 0;
+                ArrayList<WriteCallback> callbacks = new ArrayList<>();
+                if (callback != null) {
+                    callbacks.add(callback);
+                }
+                deliver(callbacks, rows);
+            }
+        });
+    }
+
+    private boolean writePhoto(Uri petUri, Uri source) {
+        try {
+            Bitmap photo = PetPhotoStore.decodeSampled(mContentResolver, source, PHOTO_SIZE);
+            if (photo == null) {
+                return false;
+            }
+            OutputStream out = mContentResolver.openOutputStream(
+                    PetContract.PetsEntry.buildPhotoUri(ContentUris.parseId(petUri)), "w");
+            try {
+                return photo.compress(Bitmap.CompressFormat.JPEG, PHOTO_QUALITY, out);
+            } finally {
+                out.close();
+                photo.recycle();
+            }
+        } catch (IOException | RuntimeException e) {
+            Log.e(LOG_TAG, "Failed to save photo of " + petUri, e);
+            return false;
+        }
+    }
+
+    /**
+     * Open the database and prepare the statements of the writer thread in the background,
+     * ahead of the first query and write. Queries made meanwhile wait for the database to open
+     * instead of opening it a second time.
+     */
+    public void warmUp() {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mContentResolver.call(PetContract.PetsEntry.CONTENT_URI, PetContract.METHOD_WARM_UP, null, null);
+            }
+        });
+    }
+
+    /**
+     * Purge the pets deleted more than a day ago, see {@link PetContract#METHOD_PURGE}, on a
+     * background thread of its own, so writes queued meanwhile don't wait for it, unless the
+     * last purge from here was less than {@link #PURGE_INTERVAL_MILLIS} ago.
+     * <p>
+     * For devices without JobScheduler, which otherwise run it with
+     * {@link PetPurgeJobService} while the device is idle. Here it may run while the app is in
+     * use, so it never rebuilds the database with a full VACUUM.
+     */
+    public void purgeIfDue() {
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                SharedPreferences preferences = mContext.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+                long now = System.currentTimeMillis();
+                long lastPurge = preferences.getLong(KEY_LAST_PURGE, 0);
+                // A last purge in the future means the clock was set back; purge then too
+                if (lastPurge <= now && now - lastPurge < PURGE_INTERVAL_MILLIS) {
+                    return;
+                }
+                Bundle extras = new Bundle();
+                extras.putBoolean(PetContract.EXTRA_SKIP_VACUUM, true);
+                mContentResolver.call(PetContract.PetsEntry.CONTENT_URI, PetContract.METHOD_PURGE, null, extras);
+                preferences.edit().putLong(KEY_LAST_PURGE, now).apply();
+            }
+        }, LOG_TAG + "-purge").start();
+    }
+
+    /**
+     * Delete every pet in chunks of {@link #DELETE_CHUNK_SIZE}, each in its own transaction so
+     * other work gets the database between chunks. Observers are notified once at the end.
+     * The pets are only marked as deleted; their space is returned later by the purge, see
+     * {@link #purgeIfDue()}.
+     */
+    public BulkDelete deleteAll(final DeleteProgressCallback callback) {
+        final BulkDelete bulkDelete = new BulkDelete();
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final int rowsTotal = countPets();
+                Uri chunkUri = PetContract.PetsEntry.CONTENT_URI.buildUpon()
+                        .appendQueryParameter(PetContract.QUERY_PARAMETER_LIMIT, String.valueOf(DELETE_CHUNK_SIZE))
+                        .appendQueryParameter(PetContract.QUERY_PARAMETER_NOTIFY, "false")
+                        .build();
+                int rowsDeleted = 0;
+                int rows;
+                do {
+                    rows = mContentResolver.delete(chunkUri, null, null);
+                    rowsDeleted += rows;
+                    final int progress = rowsDeleted;
+                    mMainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            callback.onDeleteProgress(progress, rowsTotal);
+                        }
+                    });
+                } while (rows == DELETE_CHUNK_SIZE && !bulkDelete.mCancelled);
+                // A short chunk means there was nothing left to delete
+                final boolean cancelled = rows == DELETE_CHUNK_SIZE;
+
+                if (rowsDeleted != 0) {
+                    mContentResolver.notifyChange(PetContract.PetsEntry.CONTENT_URI, null);
+                    mContentResolver.notifyChange(PetContract.PetsEntry.CONTENT_CHANGES_URI, null);
+                }
+
+                final int deleted = rowsDeleted;
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onDeleteComplete(deleted, cancelled);
+                    }
+                });
+            }
+        });
+        return bulkDelete;
+    }
+
+    /**
+     * Import the pets of a CSV or JSON file with {@link PetImporter}. JSON files are told
+     * apart by their type or extension. Rejected rows are written to import_errors.csv in the
+     * external files directory of the app, where they can be fixed and imported again.
+     */
+    public void importPets(final Uri source, final ImportCallback callback) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                File errorFile = getImportErrorFile();
+                PetImporter.Result result = null;
+                try {
+                    result = importPets(source, errorFile);
+                } catch (IOException | RuntimeException e) {
+                    Log.e(LOG_TAG, "Failed to import " + source, e);
+                }
+                if (result == null || result.rowsRejected == 0) {
+                    errorFile.delete();
+                    errorFile = null;
+                }
+
+                final PetImporter.Result importResult = result;
+                final File importErrorFile = errorFile;
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onImportComplete(importResult, importErrorFile);
+                    }
+                });
+            }
+
+            private PetImporter.Result importPets(Uri source, File errorFile) throws IOException {
+                InputStream in = mContentResolver.openInputStream(source);
+                if (in == null) {
+                    throw new IOException("Cannot open " + source);
+                }
+                Reader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+                Writer errors = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(errorFile), "UTF-8"));
+                try {
+                    PetImporter importer = new PetImporter(mContentResolver, errors,
+                            new PetImporter.ProgressListener() {
+                                @Override
+                                public void onImportProgress(final int rowsImported, final int rowsRejected) {
+                                    mMainHandler.post(new Runnable() {
+                                        @Override
+                                        public void run() {
+                                            callback.onImportProgress(rowsImported, rowsRejected);
+                                        }
+                                    });
+                                }
+                            });
+                    return isJson(source) ? importer.importJson(reader) : importer.importCsv(reader);
+                } finally {
+                    errors.close();
+                    reader.close();
+                }
+            }
+        });
+    }
+
+    private boolean isJson(Uri source) {
+        String type = mContentResolver.getType(source);
+        String path = source.getPath();
+        return (type != null && type.endsWith("json")) || (path != null && path.endsWith(".json"));
+    }
+
+    private File getImportErrorFile() {
+        File directory = mContext.getExternalFilesDir(null);
+        if (directory == null) {
+            // No external storage mounted
+            directory = mContext.getFilesDir();
+        }
+        return new File(directory, "import_errors.csv");
+    }
+
+    private int countPets() {
+        Cursor cursor = mContentResolver.query(PetContract.PetsEntry.CONTENT_URI,
+                new String[]{PetContract.PetsEntry._COUNT}, null, null, null);
+        if (cursor == null) {
+            return 0;
+        }
+        try {
+            return cursor.moveToFirst() ? cursor.getInt(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void deliver(final ArrayList<WriteCallback> callbacks, final int rows) {
+        if (callbacks.isEmpty()) {
+            return;
+        }
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (WriteCallback callback : callbacks) {
+                    callback.onWriteComplete(rows);
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,267 @@
+package com.example.android.pets;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Intent;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Looper;
+import android.os.ParcelFileDescriptor;
+import android.os.StrictMode;
+import android.widget.EditText;
+import android.widget.ListView;
+
+import com.example.android.pets.data.PetContract;
+import com.example.android.pets.data.PetContract.PetsEntry;
+import com.example.android.pets.data.PetProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.android.controller.ActivityController;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.LooperMode;
+
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Drives the catalog and the editor through loading, adding, editing and deleting pets, and
+ * fails if any of it reads or writes the database on the main thread.
+ * <p>
+ * The main thread runs under a StrictMode policy that kills the app on disk reads and writes,
+ * as on a device. StrictMode can't see the I/O of the JVM's SQLite, though, so the provider
+ * itself also fails every call made on the main thread.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+@LooperMode(LooperMode.Mode.PAUSED)
+public class MainThreadIoTest {
+
+    private static final long TIMEOUT_MILLIS = 10000;
+
+    private static final int PETS = 10;
+
+    private StrictMode.ThreadPolicy mOldPolicy;
+
+    /**
+     * Provider that records the calls made on the main thread.
+     */
+    public static class MainThreadCheckingProvider extends PetProvider {
+
+        static final List<String> sMainThreadCalls = Collections.synchronizedList(new ArrayList<String>());
+
+        /**
+         * Set while the test itself reads or writes the pets to set up or check a step.
+         */
+        static volatile boolean sAllowMainThread;
+
+        private static void check(String call, Uri uri) {
+            if (!sAllowMainThread && Looper.myLooper() == Looper.getMainLooper()) {
+                sMainThreadCalls.add(call + " " + uri);
+            }
+        }
+
+        @Override
+        public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                            String sortOrder) {
+            check("query", uri);
+            return super.query(uri, projection, selection, selectionArgs, sortOrder);
+        }
+
+        @Override
+        public Uri insert(Uri uri, ContentValues contentValues) {
+            check("insert", uri);
+            return super.insert(uri, contentValues);
+        }
+
+        @Override
+        public int bulkInsert(Uri uri, ContentValues[] values) {
+            check("bulkInsert", uri);
+            return super.bulkInsert(uri, values);
+        }
+
+        @Override
+        public int update(Uri uri, ContentValues contentValues, String selection, String[] selectionArgs) {
+            check("update", uri);
+            return super.update(uri, contentValues, selection, selectionArgs);
+        }
+
+        @Override
+        public int delete(Uri uri, String selection, String[] selectionArgs) {
+            check("delete", uri);
+            return super.delete(uri, selection, selectionArgs);
+        }
+
+        @Override
+        public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+                throws android.content.OperationApplicationException {
+            check("applyBatch", PetsEntry.CONTENT_URI);
+            return super.applyBatch(operations);
+        }
+
+        @Override
+        public Bundle call(String method, String arg, Bundle extras) {
+            check("call " + method, PetsEntry.CONTENT_URI);
+            return super.call(method, arg, extras);
+        }
+
+        @Override
+        public ParcelFileDescriptor openFile(Uri uri, String mode) throws FileNotFoundException {
+            check("openFile", uri);
+            return super.openFile(uri, mode);
+        }
+    }
+
+    /**
+     * A step to wait for.
+     */
+    private interface Condition {
+        boolean isMet();
+    }
+
+    @Before
+    public void setUp() {
+        Robolectric.setupContentProvider(MainThreadCheckingProvider.class, PetContract.CONTENT_AUTHORITY);
+        MainThreadCheckingProvider.sMainThreadCalls.clear();
+        ContentValues[] pets = new ContentValues[PETS];
+        for (int i = 0; i < PETS; i++) {
+            pets[i] = new ContentValues();
+            pets[i].put(PetsEntry.COLUMN_PET_NAME, "Pet " + i);
+            pets[i].put(PetsEntry.COLUMN_PET_BREED, "Tabby");
+            pets[i].put(PetsEntry.COLUMN_PET_GENDER, i % 3);
+            pets[i].put(PetsEntry.COLUMN_PET_WEIGHT, i);
+        }
+        MainThreadCheckingProvider.sAllowMainThread = true;
+        RuntimeEnvironment.application.getContentResolver().bulkInsert(PetsEntry.CONTENT_URI, pets);
+        MainThreadCheckingProvider.sAllowMainThread = false;
+
+        mOldPolicy = StrictMode.getThreadPolicy();
+        StrictMode.setThreadPolicy(new StrictMode.ThreadPolicy.Builder()
+                .detectDiskReads()
+                .detectDiskWrites()
+                .penaltyDeath()
+                .build());
+    }
+
+    @After
+    public void tearDown() {
+        StrictMode.setThreadPolicy(mOldPolicy);
+    }
+
+    @Test
+    public void catalogLoadsAndWritesOffTheMainThread() throws Exception {
+        ActivityController<CatalogActivity> controller = Robolectric.buildActivity(CatalogActivity.class).setup();
+        final ListView listView = controller.get().findViewById(R.id.list_view);
+        waitFor(new Condition() {
+            @Override
+            public boolean isMet() {
+                return listView.getAdapter() != null && listView.getAdapter().getCount() == PETS;
+            }
+        });
+
+        shadowOf(controller.get()).clickMenuItem(R.id.action_insert_dummy_data);
+        waitFor(new Condition() {
+            @Override
+            public boolean isMet() {
+                return listView.getAdapter().getCount() == PETS + 1;
+            }
+        });
+
+        shadowOf(controller.get()).clickMenuItem(R.id.action_delete_all_entries);
+        waitFor(new Condition() {
+            @Override
+            public boolean isMet() {
+                return listView.getAdapter().getCount() == 0;
+            }
+        });
+        controller.pause().stop().destroy();
+
+        assertEquals(Collections.<String>emptyList(), MainThreadCheckingProvider.sMainThreadCalls);
+    }
+
+    @Test
+    public void editorLoadsAndSavesOffTheMainThread() throws Exception {
+        Uri petUri = firstPetUri();
+        ActivityController<EditorActivity> controller = Robolectric.buildActivity(EditorActivity.class,
+                new Intent(Intent.ACTION_EDIT, petUri)).setup();
+        final EditText name = controller.get().findViewById(R.id.edit_pet_name);
+        waitFor(new Condition() {
+            @Override
+            public boolean isMet() {
+                return "Pet 0".equals(name.getText().toString());
+            }
+        });
+
+        name.setText("Renamed");
+        shadowOf(controller.get()).clickMenuItem(R.id.action_save);
+        final Uri uri = petUri;
+        waitFor(new Condition() {
+            @Override
+            public boolean isMet() {
+                return "Renamed".equals(readName(uri));
+            }
+        });
+        controller.pause().stop().destroy();
+
+        assertEquals(Collections.<String>emptyList(), MainThreadCheckingProvider.sMainThreadCalls);
+    }
+
+    private Uri firstPetUri() {
+        MainThreadCheckingProvider.sAllowMainThread = true;
+        try {
+            Cursor cursor = RuntimeEnvironment.application.getContentResolver().query(
+                    PetsEntry.buildPageUri(PetsEntry.CONTENT_URI, 0, 1), new String[]{PetsEntry._ID}, null, null, null);
+            cursor.moveToFirst();
+            long id = cursor.getLong(0);
+            cursor.close();
+            return ContentUris.withAppendedId(PetsEntry.CONTENT_URI, id);
+        } finally {
+            MainThreadCheckingProvider.sAllowMainThread = false;
+        }
+    }
+
+    private static String readName(Uri uri) {
+        MainThreadCheckingProvider.sAllowMainThread = true;
+        try {
+            Cursor cursor = RuntimeEnvironment.application.getContentResolver().query(
+                    uri, new String[]{PetsEntry.COLUMN_PET_NAME}, null, null, null);
+            String name = cursor.moveToFirst() ? cursor.getString(0) : null;
+            cursor.close();
+            return name;
+        } finally {
+            MainThreadCheckingProvider.sAllowMainThread = false;
+        }
+    }
+
+    /**
+     * Run the main looper until the condition is met, while the loaders and writers finish
+     * their work on their own threads.
+     */
+    private static void waitFor(Condition condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (true) {
+            shadowOf(Looper.getMainLooper()).idle();
+            if (condition.isMet()) {
+                return;
+            }
+            if (System.currentTimeMillis() > deadline) {
+                throw new AssertionError("Timed out; main thread calls so far: "
+                        + MainThreadCheckingProvider.sMainThreadCalls);
+            }
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.example.android.pets;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+
+import com.example.android.pets.data.PetContract.PetSectionsEntry;
+import com.example.android.pets.data.PetContract.PetsEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Pages of the list sorted by name: asked for as rows are read, and closed once scrolled far
+ * away, without changing the number of rows of the list.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class PetSectionCursorTest {
+
+    private static final String[] COLUMNS = {PetsEntry._ID, PetsEntry.COLUMN_PET_NAME};
+    private static final int PAGE_SIZE = 100;
+
+    /**
+     * Starts of the pages asked for, in order.
+     */
+    private final List<Integer> mRequests = new ArrayList<>();
+    private PetSectionCursor mCursor;
+
+    @Before
+    public void setUp() {
+        MatrixCursor sections = new MatrixCursor(new String[]{PetSectionsEntry.COLUMN_SECTION,
+                PetSectionsEntry.COLUMN_POSITION, PetSectionsEntry._COUNT});
+        sections.addRow(new Object[]{"A", 0, 250});
+        sections.addRow(new Object[]{"B", 250, 50});
+        mCursor = new PetSectionCursor(COLUMNS, sections, PAGE_SIZE, new PetSectionCursor.PageRequester() {
+            @Override
+            public void requestPage(int pageStart, String section, int offset, int pageSize) {
+                mRequests.add(pageStart);
+            }
+        });
+        sections.close();
+    }
+
+    @Test
+    public void farPagesAreClosedAndAskedForAgain() {
+        Cursor[] pages = new Cursor[4];
+        int[] pageStarts = {0, 100, 200, 250};
+        int[] pageSizes = {100, 100, 50, 50};
+        for (int i = 0; i < pages.length; i++) {
+            assertTrue(mCursor.moveToPosition(pageStarts[i]));
+            pages[i] = page(pageStarts[i], pageSizes[i]);
+            mCursor.setPage(pageStarts[i], pages[i]);
+        }
+        assertEquals(4, mRequests.size());
+
+        // Showing the last rows with one page kept on either side
+        mCursor.trimPages(260, 10, 1);
+
+        assertTrue(pages[0].isClosed());
+        assertFalse(pages[1].isClosed());
+        assertFalse(pages[2].isClosed());
+        assertFalse(pages[3].isClosed());
+        assertEquals(300, mCursor.getCount());
+
+        // Scrolled back to, the closed page reads as loading and is asked for once more
+        assertTrue(mCursor.moveToPosition(5));
+        assertTrue(mCursor.isNull(0));
+        assertEquals(Integer.valueOf(0), mRequests.get(mRequests.size() - 1));
+        assertEquals(5, mRequests.size());
+
+        mCursor.close();
+        assertTrue(pages[1].isClosed());
+    }
+
+    private static Cursor page(int pageStart, int size) {
+        MatrixCursor page = new MatrixCursor(COLUMNS);
+        for (int i = 0; i < size; i++) {
+            page.addRow(new Object[]{pageStart + i + 1, "Pet " + (pageStart + i)});
+        }
+        return page;
+    }
+}
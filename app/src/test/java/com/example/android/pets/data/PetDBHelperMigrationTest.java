@@ -0,0 +1,207 @@
+package com.example.android.pets.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.SystemClock;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Upgrades of a database created by the first release, which only had the pets table, through
+ * every migration of {@link PetDBHelper}.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class PetDBHelperMigrationTest {
+
+    /**
+     * Schema of version 1, as the first release created it.
+     */
+    private static final String BASE_SCHEMA = "CREATE TABLE pets(" +
+            "_id INTEGER PRIMARY KEY AUTOINCREMENT," +
+            "name TEXT NOT NULL," +
+            "breed TEXT," +
+            "gender INTEGER NOT NULL," +
+            "weight INTEGER DEFAULT 0);";
+
+    private static final String[] BREEDS = {"Terrier", "Tabby", "Labrador", "Persian", "", "Beagle"};
+
+    /**
+     * Longest an upgrade of a shelter with {@link #LARGE_SHELTER_ROWS} pets may take. The
+     * upgrade runs once, on the first start of a new release, behind the splash of the catalog.
+     */
+    private static final long MIGRATION_BUDGET_MILLIS = 20000;
+
+    private static final int LARGE_SHELTER_ROWS = 500000;
+
+    private Context mContext;
+    private String mDatabaseName;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+        mDatabaseName = new PetDBHelper(mContext).getDatabaseName();
+        mContext.deleteDatabase(mDatabaseName);
+    }
+
+    @After
+    public void tearDown() {
+        mContext.deleteDatabase(mDatabaseName);
+    }
+
+    @Test
+    public void upgradeKeepsPetsAndMatchesFreshInstall() {
+        PetDBHelper fresh = new PetDBHelper(mContext);
+        SQLiteDatabase freshDb = fresh.getWritableDatabase();
+        int currentVersion = freshDb.getVersion();
+        List<String> freshSchema = schemaOf(freshDb);
+        fresh.close();
+        mContext.deleteDatabase(mDatabaseName);
+
+        createVersion1(1000);
+        PetDBHelper helper = new PetDBHelper(mContext);
+        SQLiteDatabase db = helper.getWritableDatabase();
+        try {
+            assertEquals(currentVersion, db.getVersion());
+            assertEquals(currentVersion, DatabaseUtils.longForQuery(db, "PRAGMA user_version", null));
+            assertEquals(freshSchema, schemaOf(db));
+
+            Cursor cursor = db.rawQuery("SELECT _id,name,breed,gender,weight,version,photo_version,deleted" +
+                    " FROM pets ORDER BY _id", null);
+            try {
+                assertEquals(1000, cursor.getCount());
+                for (int i = 0; cursor.moveToNext(); i++) {
+                    assertEquals(i + 1, cursor.getLong(0));
+                    assertEquals("Pet " + i, cursor.getString(1));
+                    assertEquals(breed(i), cursor.getString(2));
+                    assertEquals(i % 3, cursor.getInt(3));
+                    assertEquals(i % 60, cursor.getInt(4));
+                    assertEquals(1, cursor.getInt(5));
+                    assertEquals(0, cursor.getInt(6));
+                    assertEquals(0, cursor.getInt(7));
+                }
+            } finally {
+                cursor.close();
+            }
+
+            // The tables filled from the existing pets
+            assertEquals(1000, DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM " + PetDBHelper.FTS_TABLE_NAME, null));
+            assertEquals(expectedBreedCount(1000, "Tabby"), DatabaseUtils.longForQuery(db,
+                    "SELECT COUNT(*) FROM " + PetDBHelper.FTS_TABLE_NAME + " WHERE " + PetDBHelper.FTS_TABLE_NAME +
+                            " MATCH 'Tabby'", null));
+            assertEquals(0, PetDBHelper.countStatsMismatches(db));
+            assertEquals(1000, DatabaseUtils.longForQuery(db, "SELECT SUM(" + PetContract.PetSectionsEntry._COUNT +
+                    ") FROM " + PetDBHelper.SECTIONS_TABLE_NAME, null));
+
+            // The triggers keep them up to date from then on
+            db.execSQL("INSERT INTO pets(name,breed,gender,weight) VALUES ('Zed','Tabby',1,12)");
+            db.execSQL("UPDATE pets SET weight=40 WHERE _id=1");
+            db.execSQL("UPDATE pets SET deleted=1 WHERE _id=2");
+            assertEquals(0, PetDBHelper.countStatsMismatches(db));
+            assertEquals(expectedBreedCount(1000, "Tabby") + 1, DatabaseUtils.longForQuery(db,
+                    "SELECT COUNT(*) FROM " + PetDBHelper.FTS_TABLE_NAME + " WHERE " + PetDBHelper.FTS_TABLE_NAME +
+                            " MATCH 'Tabby'", null));
+            assertEquals(3, DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM " + PetDBHelper.CHANGE_LOG_TABLE_NAME, null));
+        } finally {
+            helper.close();
+        }
+    }
+
+    @Test
+    public void upgradeOfLargeShelterStaysWithinBudget() {
+        createVersion1(LARGE_SHELTER_ROWS);
+        PetDBHelper helper = new PetDBHelper(mContext);
+        long start = SystemClock.elapsedRealtime();
+        SQLiteDatabase db = helper.getWritableDatabase();
+        long elapsed = SystemClock.elapsedRealtime() - start;
+        try {
+            System.out.println("Migrated " + LARGE_SHELTER_ROWS + " pets in " + elapsed + " ms");
+            assertTrue("Migrating " + LARGE_SHELTER_ROWS + " pets took " + elapsed + " ms",
+                    elapsed <= MIGRATION_BUDGET_MILLIS);
+            assertEquals(LARGE_SHELTER_ROWS, DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM pets", null));
+            assertEquals(0, PetDBHelper.countStatsMismatches(db));
+        } finally {
+            helper.close();
+        }
+    }
+
+    /**
+     * Create the database as version 1 with the given number of pets.
+     */
+    private void createVersion1(int rows) {
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(mContext.getDatabasePath(mDatabaseName), null);
+        try {
+            db.execSQL(BASE_SCHEMA);
+            db.beginTransaction();
+            SQLiteStatement insert = db.compileStatement("INSERT INTO pets(name,breed,gender,weight) VALUES (?,?,?,?)");
+            try {
+                for (int i = 0; i < rows; i++) {
+                    insert.bindString(1, "Pet " + i);
+                    if (breed(i) == null) {
+                        insert.bindNull(2);
+                    } else {
+                        insert.bindString(2, breed(i));
+                    }
+                    insert.bindLong(3, i % 3);
+                    insert.bindLong(4, i % 60);
+                    insert.executeInsert();
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                insert.close();
+                db.endTransaction();
+            }
+            db.setVersion(1);
+        } finally {
+            db.close();
+        }
+    }
+
+    /**
+     * Breed of the i-th seeded pet; every seventh has none.
+     */
+    private static String breed(int i) {
+        return i % 7 == 0 ? null : BREEDS[i % BREEDS.length];
+    }
+
+    private static long expectedBreedCount(int rows, String breed) {
+        long count = 0;
+        for (int i = 0; i < rows; i++) {
+            if (breed.equals(breed(i))) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Every table, index and trigger of the database with its SQL, sorted by name.
+     */
+    private static List<String> schemaOf(SQLiteDatabase db) {
+        List<String> schema = new ArrayList<>();
+        Cursor cursor = db.rawQuery("SELECT type,name,sql FROM sqlite_master ORDER BY name", null);
+        try {
+            while (cursor.moveToNext()) {
+                schema.add(cursor.getString(0) + " " + cursor.getString(1) + ": " + cursor.getString(2));
+            }
+        } finally {
+            cursor.close();
+        }
+        return schema;
+    }
+}
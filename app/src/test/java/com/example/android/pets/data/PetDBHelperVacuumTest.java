@@ -0,0 +1,55 @@
+package com.example.android.pets.data;
+
+import android.content.Context;
+import android.database.DatabaseUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * New databases keep the pages freed by deletes for PRAGMA incremental_vacuum, so reclaiming
+ * space never needs a full VACUUM on a fresh install.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class PetDBHelperVacuumTest {
+
+    private static final int AUTO_VACUUM_INCREMENTAL = 2;
+
+    private Context mContext;
+    private PetDBHelper mHelper;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+        mHelper = new PetDBHelper(mContext);
+        mContext.deleteDatabase(mHelper.getDatabaseName());
+    }
+
+    @After
+    public void tearDown() {
+        mHelper.close();
+        mContext.deleteDatabase(mHelper.getDatabaseName());
+    }
+
+    @Test
+    public void newDatabaseUsesIncrementalVacuum() {
+        assertEquals(AUTO_VACUUM_INCREMENTAL, autoVacuum());
+
+        // Still so once opened again
+        mHelper.close();
+        mHelper = new PetDBHelper(mContext);
+        assertEquals(AUTO_VACUUM_INCREMENTAL, autoVacuum());
+    }
+
+    private long autoVacuum() {
+        return DatabaseUtils.longForQuery(mHelper.getWritableDatabase(), "PRAGMA auto_vacuum", null);
+    }
+}
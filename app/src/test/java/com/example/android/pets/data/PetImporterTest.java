@@ -0,0 +1,216 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.example.android.pets.data.PetContract.PetsEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Imports through {@link PetImporter} into a real provider: what ends up in the pets table,
+ * what is written to the error file, and how the batches are reported and notified.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class PetImporterTest {
+
+    private static final String[] PROJECTION = {
+            PetsEntry.COLUMN_PET_NAME,
+            PetsEntry.COLUMN_PET_BREED,
+            PetsEntry.COLUMN_PET_GENDER,
+            PetsEntry.COLUMN_PET_WEIGHT};
+
+    private static final String ERROR_HEADER = "row,name,breed,gender,weight,error\n";
+
+    private ContentResolver mResolver;
+
+    @Before
+    public void setUp() {
+        Robolectric.setupContentProvider(PetProvider.class, PetContract.CONTENT_AUTHORITY);
+        mResolver = RuntimeEnvironment.application.getContentResolver();
+    }
+
+    @Test
+    public void csvImportsValidRowsAndRejectsTheOthers() throws Exception {
+        // Columns in any order and case, with one the importer doesn't know
+        String csv = "weight,Name,colour,breed,gender\n" +
+                "12,Rex,brown,Terrier,male\n" +
+                "4,\"Rex, Jr.\",white,\"Tabby \"\"the cat\"\"\",female\n" +
+                "\n" +
+                ",Mia,,,unknown\n" +
+                "7,,black,Beagle,1\n" +
+                "3,Bob,grey,Persian,robot\n" +
+                "-2,Max,grey,Labrador,0\n" +
+                "heavy,Tom,grey,Labrador,2\n" +
+                "5,Zed\n" +
+                "9,Ann,grey,Persian,2\n";
+        StringWriter errors = new StringWriter();
+
+        PetImporter.Result result = new PetImporter(mResolver, errors, null).importCsv(new StringReader(csv));
+
+        assertEquals(4, result.rowsImported);
+        assertEquals(5, result.rowsRejected);
+        List<String> pets = readPets();
+        assertEquals(4, pets.size());
+        assertEquals("Rex|Terrier|" + PetsEntry.GENDER_MALE + "|12", pets.get(0));
+        assertEquals("Rex, Jr.|Tabby \"the cat\"|" + PetsEntry.GENDER_FEMALE + "|4", pets.get(1));
+        assertEquals("Mia||" + PetsEntry.GENDER_UNKNOWN + "|0", pets.get(2));
+        assertEquals("Ann|Persian|" + PetsEntry.GENDER_FEMALE + "|9", pets.get(3));
+
+        // Rows are numbered by their line in the file, header and blank lines included
+        assertEquals(ERROR_HEADER +
+                "6,,Beagle,1,7,Pet requires a name\n" +
+                "7,Bob,Persian,robot,3,Invalid gender robot\n" +
+                "8,Max,Labrador,0,-2,Pet requires valid weight\n" +
+                "9,Tom,Labrador,2,heavy,Invalid weight heavy\n" +
+                "10,Zed,,,5,Pet requires valid gender\n", errors.toString());
+    }
+
+    @Test
+    public void csvRowNumbersCountTheLinesOfQuotedFields() throws Exception {
+        String csv = "name,breed,gender,weight\n" +
+                "\"Two\nlines\",Tabby,1,3\n" +
+                "Bad,Tabby,9,3\n";
+        StringWriter errors = new StringWriter();
+
+        PetImporter.Result result = new PetImporter(mResolver, errors, null).importCsv(new StringReader(csv));
+
+        assertEquals(1, result.rowsImported);
+        assertEquals(ERROR_HEADER + "4,Bad,Tabby,9,3,Pet requires valid gender\n", errors.toString());
+        assertEquals("Two\nlines|Tabby|1|3", readPets().get(0));
+    }
+
+    @Test
+    public void csvWithoutANameColumnIsRefused() throws Exception {
+        try {
+            new PetImporter(mResolver, null, null).importCsv(new StringReader("breed,gender\nTabby,1\n"));
+            fail("Imported a CSV file without names");
+        } catch (IOException expected) {
+            // The file is refused before anything is written
+        }
+        assertEquals(0, readPets().size());
+    }
+
+    @Test
+    public void emptyFilesImportNothing() throws Exception {
+        PetImporter.Result csv = new PetImporter(mResolver, null, null).importCsv(new StringReader(""));
+        PetImporter.Result json = new PetImporter(mResolver, null, null).importJson(new StringReader("[]"));
+
+        assertEquals(0, csv.rowsImported + csv.rowsRejected);
+        assertEquals(0, json.rowsImported + json.rowsRejected);
+        assertEquals(0, readPets().size());
+    }
+
+    @Test
+    public void jsonImportsValidObjectsAndRejectsTheOthers() throws Exception {
+        String json = "[" +
+                "{\"name\":\"Rex\",\"breed\":\"Terrier\",\"gender\":\"male\",\"weight\":12,\"chip\":{\"id\":[7]}}," +
+                "{\"weight\":null,\"gender\":2,\"breed\":null,\"name\":\"Mia\"}," +
+                "{\"name\":\"\",\"gender\":1}," +
+                "{\"name\":\"Bob\",\"gender\":1,\"weight\":-1}," +
+                "{\"name\":\"Tom\"}" +
+                "]";
+        StringWriter errors = new StringWriter();
+
+        PetImporter.Result result = new PetImporter(mResolver, errors, null).importJson(new StringReader(json));
+
+        assertEquals(2, result.rowsImported);
+        assertEquals(3, result.rowsRejected);
+        List<String> pets = readPets();
+        assertEquals("Rex|Terrier|" + PetsEntry.GENDER_MALE + "|12", pets.get(0));
+        assertEquals("Mia|null|" + PetsEntry.GENDER_FEMALE + "|0", pets.get(1));
+
+        // Rows are numbered by their index in the array
+        assertEquals(ERROR_HEADER +
+                "2,,,1,,Pet requires a name\n" +
+                "3,Bob,,1,-1,Pet requires valid weight\n" +
+                "4,Tom,,,,Pet requires valid gender\n", errors.toString());
+    }
+
+    @Test
+    public void largeImportsAreWrittenInBatchesAndNotifiedOnce() throws Exception {
+        int rows = PetImporter.BATCH_SIZE * 2 + PetImporter.BATCH_SIZE / 2;
+        StringBuilder csv = new StringBuilder("name,gender\n");
+        for (int i = 0; i < rows; i++) {
+            // Every hundredth row is rejected, and counted in the progress of its batch
+            csv.append("Pet ").append(i).append(',').append(i % 100 == 99 ? 7 : i % 3).append('\n');
+        }
+        final List<String> progress = new ArrayList<>();
+        PetImporter.ProgressListener listener = new PetImporter.ProgressListener() {
+            @Override
+            public void onImportProgress(int rowsImported, int rowsRejected) {
+                progress.add(rowsImported + "/" + rowsRejected);
+            }
+        };
+        final List<Uri> changes = new ArrayList<>();
+        ContentObserver observer = new ContentObserver(null) {
+            @Override
+            public void onChange(boolean selfChange, Uri uri) {
+                changes.add(uri);
+            }
+        };
+        mResolver.registerContentObserver(PetsEntry.CONTENT_URI, true, observer);
+
+        PetImporter.Result result;
+        try {
+            result = new PetImporter(mResolver, null, listener).importCsv(new StringReader(csv.toString()));
+        } finally {
+            mResolver.unregisterContentObserver(observer);
+        }
+
+        assertEquals(rows - rows / 100, result.rowsImported);
+        assertEquals(rows / 100, result.rowsRejected);
+        List<String> expected = new ArrayList<>();
+        expected.add("1000/10");
+        expected.add("2000/20");
+        expected.add(result.rowsImported + "/" + result.rowsRejected);
+        assertEquals(expected, progress);
+        assertEquals(1, changes.size());
+        assertEquals(PetsEntry.CONTENT_URI, changes.get(0));
+        assertEquals(result.rowsImported, readPets().size());
+    }
+
+    @Test
+    public void rejectedRowsAreDroppedWithoutAnErrorFile() throws Exception {
+        PetImporter.Result result = new PetImporter(mResolver, null, null)
+                .importCsv(new StringReader("name,gender\nRex,1\n,1\n"));
+
+        assertEquals(1, result.rowsImported);
+        assertEquals(1, result.rowsRejected);
+        assertEquals(1, readPets().size());
+    }
+
+    /**
+     * Every pet in the table, oldest first, as name|breed|gender|weight.
+     */
+    private List<String> readPets() {
+        List<String> pets = new ArrayList<>();
+        Cursor cursor = mResolver.query(PetsEntry.CONTENT_URI, PROJECTION, null, null, PetsEntry._ID);
+        try {
+            while (cursor.moveToNext()) {
+                pets.add(cursor.getString(0) + "|" + cursor.getString(1) + "|" + cursor.getInt(2) + "|" + cursor.getInt(3));
+            }
+        } finally {
+            cursor.close();
+        }
+        return pets;
+    }
+}
@@ -0,0 +1,74 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.example.android.pets.data.PetContract.PetsEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Edits of single pets tell the lists showing them to requery when the edit can change which
+ * pets a list holds, see {@link PetStatements#LIST_COLUMNS}.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class PetListNotificationTest {
+
+    private static final String[] PROJECTION = {PetsEntry._ID, PetsEntry.COLUMN_PET_NAME};
+
+    private ContentResolver mResolver;
+    private Uri mTabbyUri;
+
+    @Before
+    public void setUp() {
+        Robolectric.setupContentProvider(PetProvider.class, PetContract.CONTENT_AUTHORITY);
+        mResolver = RuntimeEnvironment.application.getContentResolver();
+        mResolver.insert(PetsEntry.CONTENT_URI, pet("Rex", "Terrier"));
+        mTabbyUri = mResolver.insert(PetsEntry.CONTENT_URI, pet("Mia", "Tabby"));
+    }
+
+    @Test
+    public void breedEditRequeriesASearch() {
+        Uri searchUri = PetsEntry.buildSearchUri("terrier");
+        Cursor results = mResolver.query(searchUri, PROJECTION, null, null, null);
+        final boolean[] changed = new boolean[1];
+        results.registerContentObserver(new ContentObserver(null) {
+            @Override
+            public void onChange(boolean selfChange) {
+                changed[0] = true;
+            }
+        });
+        assertEquals(1, results.getCount());
+
+        ContentValues values = new ContentValues();
+        values.put(PetsEntry.COLUMN_PET_BREED, "Terrier");
+        assertEquals(1, mResolver.update(mTabbyUri, values, null, null));
+
+        assertTrue("The search results were not told to requery", changed[0]);
+        results.close();
+        Cursor requeried = mResolver.query(searchUri, PROJECTION, null, null, null);
+        assertEquals(2, requeried.getCount());
+        requeried.close();
+    }
+
+    private static ContentValues pet(String name, String breed) {
+        ContentValues values = new ContentValues();
+        values.put(PetsEntry.COLUMN_PET_NAME, name);
+        values.put(PetsEntry.COLUMN_PET_BREED, breed);
+        values.put(PetsEntry.COLUMN_PET_GENDER, PetsEntry.GENDER_UNKNOWN);
+        return values;
+    }
+}
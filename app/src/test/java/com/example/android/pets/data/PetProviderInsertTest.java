@@ -0,0 +1,76 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import com.example.android.pets.data.PetContract.PetsEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Inserts of pets only write the columns of {@link PetStatements}: the _ID of a pet is the
+ * provider's to set, and other columns are rejected rather than handed to SQLite.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class PetProviderInsertTest {
+
+    private ContentResolver mResolver;
+
+    @Before
+    public void setUp() {
+        Robolectric.setupContentProvider(PetProvider.class, PetContract.CONTENT_AUTHORITY);
+        mResolver = RuntimeEnvironment.application.getContentResolver();
+    }
+
+    @Test
+    public void insertsWithOtherColumnsAreRejected() {
+        String[] columns = {PetsEntry._ID, "owner"};
+        for (String column : columns) {
+            ContentValues values = pet("Rex");
+            values.put(column, 7);
+            try {
+                mResolver.insert(PetsEntry.CONTENT_URI, values);
+                fail("Inserted a pet with its " + column);
+            } catch (IllegalArgumentException expected) {
+                // Nothing written
+            }
+            try {
+                mResolver.bulkInsert(PetsEntry.CONTENT_URI, new ContentValues[]{pet("Mia"), values});
+                fail("Bulk inserted a pet with its " + column);
+            } catch (IllegalArgumentException expected) {
+                // Not even the valid pet before it
+            }
+        }
+        assertEquals(0, count());
+
+        mResolver.insert(PetsEntry.CONTENT_URI, pet("Rex"));
+        assertEquals(1, count());
+    }
+
+    private int count() {
+        Cursor cursor = mResolver.query(PetsEntry.CONTENT_URI, new String[]{PetsEntry._ID}, null, null, PetsEntry._ID);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static ContentValues pet(String name) {
+        ContentValues values = new ContentValues();
+        values.put(PetsEntry.COLUMN_PET_NAME, name);
+        values.put(PetsEntry.COLUMN_PET_GENDER, PetsEntry.GENDER_UNKNOWN);
+        return values;
+    }
+}
@@ -0,0 +1,115 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import com.example.android.pets.data.PetContract.PetsEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * The checks {@link PetProvider} makes on the queries of lists of pets before running them:
+ * sort orders must be the order of an index, and a list read without a limit or a sort order
+ * must be narrowed down through an index.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class PetProviderQueryTest {
+
+    private static final String[] PROJECTION = {PetsEntry._ID, PetsEntry.COLUMN_PET_NAME};
+
+    private ContentResolver mResolver;
+
+    @Before
+    public void setUp() {
+        Robolectric.setupContentProvider(PetProvider.class, PetContract.CONTENT_AUTHORITY);
+        mResolver = RuntimeEnvironment.application.getContentResolver();
+        ContentValues[] pets = new ContentValues[100];
+        for (int i = 0; i < pets.length; i++) {
+            pets[i] = new ContentValues();
+            pets[i].put(PetsEntry.COLUMN_PET_NAME, "Pet " + i);
+            pets[i].put(PetsEntry.COLUMN_PET_BREED, i % 2 == 0 ? "Tabby" : "Terrier");
+            pets[i].put(PetsEntry.COLUMN_PET_GENDER, i % 3);
+            pets[i].put(PetsEntry.COLUMN_PET_WEIGHT, i % 60);
+        }
+        mResolver.bulkInsert(PetsEntry.CONTENT_URI, pets);
+    }
+
+    @Test
+    public void sortOrdersAreNormalized() {
+        assertEquals("_id", PetProvider.normalizeSortOrder(" _ID asc"));
+        assertEquals("name DESC,_id DESC", PetProvider.normalizeSortOrder("Name desc, _id DESC"));
+        assertEquals("gender,name", PetProvider.normalizeSortOrder("gender,NAME"));
+        assertEquals("breed,_id", PetProvider.normalizeSortOrder("breed ASC,_id"));
+        assertEquals(null, PetProvider.normalizeSortOrder(""));
+    }
+
+    @Test
+    public void sortOrdersWithoutAnIndexAreRejected() {
+        String[] sortOrders = {
+                PetsEntry.COLUMN_PET_VERSION,
+                PetsEntry.COLUMN_PET_PHOTO_VERSION,
+                PetsEntry.COLUMN_PET_NAME + "," + PetsEntry.COLUMN_PET_BREED,
+                PetsEntry.COLUMN_PET_WEIGHT + "," + PetsEntry.COLUMN_PET_NAME,
+                PetsEntry._ID + "," + PetsEntry.COLUMN_PET_NAME,
+                PetsEntry.COLUMN_PET_NAME + " DESC," + PetsEntry._ID + " ASC",
+                "random()",
+                PetsEntry.COLUMN_PET_NAME + " COLLATE NOCASE"};
+        for (String sortOrder : sortOrders) {
+            assertRejected(sortOrder, null, null, sortOrder);
+        }
+    }
+
+    @Test
+    public void unboundedListsMustBeNarrowedDownThroughAnIndex() {
+        // Narrowed down through an index: allowed without a limit or a sort order
+        assertEquals(50, count(PetsEntry.COLUMN_PET_BREED + "=?", new String[]{"Tabby"}, null));
+        assertEquals(20, count(PetsEntry.COLUMN_PET_WEIGHT + "<?", new String[]{"10"}, null));
+        assertEquals(1, count(PetsEntry.COLUMN_PET_NAME + "=?", new String[]{"Pet 7"}, null));
+
+        // Every pet would be read to find the ones to return
+        assertRejected("no selection", null, null, null);
+        assertRejected("selection of every pet", "1", null, null);
+        assertRejected("selection without an index", PetsEntry.COLUMN_PET_BREED + " LIKE ?", new String[]{"Tab%"}, null);
+        assertRejected("selection of an unindexed column", PetsEntry.COLUMN_PET_VERSION + "=?", new String[]{"1"}, null);
+
+        // Asked for twice, the second time from the cache of the provider
+        assertRejected("selection of every pet", "1", null, null);
+
+        // The same selections are fine with a sort order, or on a page
+        assertEquals(100, count("1", null, PetsEntry._ID));
+        assertEquals(50, count(PetsEntry.COLUMN_PET_BREED + " LIKE ?", new String[]{"Tab%"}, PetsEntry.COLUMN_PET_NAME));
+        Cursor page = mResolver.query(PetsEntry.buildPageUri(PetsEntry.CONTENT_URI, 0, 10), PROJECTION,
+                PetsEntry.COLUMN_PET_BREED + " LIKE ?", new String[]{"Tab%"}, null);
+        assertEquals(10, page.getCount());
+        page.close();
+    }
+
+    private int count(String selection, String[] selectionArgs, String sortOrder) {
+        Cursor cursor = mResolver.query(PetsEntry.CONTENT_URI, PROJECTION, selection, selectionArgs, sortOrder);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void assertRejected(String what, String selection, String[] selectionArgs, String sortOrder) {
+        try {
+            mResolver.query(PetsEntry.CONTENT_URI, PROJECTION, selection, selectionArgs, sortOrder).close();
+            fail("Ran a query with " + what);
+        } catch (IllegalArgumentException expected) {
+            // Rejected before reading any pet
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Bundle;
+
+import com.example.android.pets.data.PetContract.PetsEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Purges of a database created before incremental vacuum was turned on: only a purge allowed
+ * to run a full VACUUM switches it over, see {@link PetContract#EXTRA_SKIP_VACUUM}.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class PetPurgeTest {
+
+    private static final int AUTO_VACUUM_NONE = 0;
+    private static final int AUTO_VACUUM_INCREMENTAL = 2;
+
+    private Context mContext;
+    private ContentResolver mResolver;
+    private PetDBHelper mHelper;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+        mHelper = new PetDBHelper(mContext);
+        mContext.deleteDatabase(mHelper.getDatabaseName());
+        SQLiteDatabase db = mHelper.getWritableDatabase();
+        db.execSQL("PRAGMA auto_vacuum=NONE");
+        db.execSQL("VACUUM");
+        mHelper.close();
+
+        Robolectric.setupContentProvider(PetProvider.class, PetContract.CONTENT_AUTHORITY);
+        mResolver = mContext.getContentResolver();
+        ContentValues[] pets = new ContentValues[100];
+        for (int i = 0; i < pets.length; i++) {
+            pets[i] = new ContentValues();
+            pets[i].put(PetsEntry.COLUMN_PET_NAME, "Pet " + i);
+            pets[i].put(PetsEntry.COLUMN_PET_GENDER, i % 3);
+        }
+        mResolver.bulkInsert(PetsEntry.CONTENT_URI, pets);
+        mResolver.delete(PetsEntry.CONTENT_URI, null, null);
+    }
+
+    @After
+    public void tearDown() {
+        mHelper.close();
+        mContext.deleteDatabase(mHelper.getDatabaseName());
+    }
+
+    @Test
+    public void purgeWithoutVacuumLeavesTheFileAsItIs() {
+        Bundle extras = new Bundle();
+        extras.putBoolean(PetContract.EXTRA_SKIP_VACUUM, true);
+        mResolver.call(PetsEntry.CONTENT_URI, PetContract.METHOD_PURGE, "0", extras);
+
+        assertEquals(0, countRows());
+        assertEquals(AUTO_VACUUM_NONE, autoVacuum());
+    }
+
+    @Test
+    public void purgeSwitchesToIncrementalVacuum() {
+        mResolver.call(PetsEntry.CONTENT_URI, PetContract.METHOD_PURGE, "0", null);
+
+        assertEquals(0, countRows());
+        assertEquals(AUTO_VACUUM_INCREMENTAL, autoVacuum());
+    }
+
+    private long countRows() {
+        return DatabaseUtils.queryNumEntries(mHelper.getReadableDatabase(), PetsEntry.TABLE_NAME);
+    }
+
+    private long autoVacuum() {
+        return DatabaseUtils.longForQuery(mHelper.getReadableDatabase(), "PRAGMA auto_vacuum", null);
+    }
+}
@@ -0,0 +1,211 @@
+package com.example.android.pets.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.net.Uri;
+
+import com.example.android.pets.data.PetContract.PetStatsEntry;
+import com.example.android.pets.data.PetContract.PetsEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertFalse;
+
+/**
+ * EXPLAIN QUERY PLAN of every query shape the provider runs, on the schema of a fresh
+ * install. None may read the whole pets table or sort its rows: lists walk an index in the
+ * order they are sorted by, so the cost of a page doesn't grow with the table.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class PetQueryPlanTest {
+
+    /**
+     * A step reading every row of the table rather than a range of the primary key or an
+     * index. "SCAN TABLE pets" up to SQLite 3.35, "SCAN pets" after.
+     */
+    private static final Pattern FULL_SCAN = Pattern.compile("^SCAN (TABLE )?pets\\b(?! USING)");
+
+    /**
+     * Same for the tables read by the change feed.
+     */
+    private static final Pattern FULL_SCAN_OF_LOG = Pattern.compile("^SCAN (TABLE )?(pets|pet_change_log)\\b(?! USING)");
+
+    private static final String TEMP_B_TREE = "USE TEMP B-TREE";
+
+    private static final String[] BREEDS = {"Terrier", "Tabby", "Labrador", "Persian", "", "Beagle"};
+
+    private static final String[] CATALOG_PROJECTION = {
+            PetsEntry._ID,
+            PetsEntry.COLUMN_PET_NAME,
+            PetsEntry.COLUMN_PET_BREED,
+            PetsEntry.COLUMN_PET_PHOTO_VERSION};
+
+    private static final int PAGE_SIZE = 100;
+
+    private Context mContext;
+    private PetDBHelper mHelper;
+    private SQLiteDatabase mDb;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+        mHelper = new PetDBHelper(mContext);
+        mContext.deleteDatabase(mHelper.getDatabaseName());
+        mDb = mHelper.getWritableDatabase();
+        seed(2000);
+    }
+
+    @After
+    public void tearDown() {
+        mHelper.close();
+        mContext.deleteDatabase(mHelper.getDatabaseName());
+    }
+
+    @Test
+    public void pagesReadARangeOfAnIndex() {
+        Uri byName = PetsEntry.buildSortedUri(PetsEntry.CONTENT_URI, PetContract.SORT_NAME);
+        Uri female = PetsEntry.buildGenderUri(PetsEntry.GENDER_FEMALE);
+        Uri femaleByName = PetsEntry.buildSortedUri(female, PetContract.SORT_NAME);
+        Uri weight = PetsEntry.buildWeightUri(5, 20);
+        Uri search = PetsEntry.buildSearchUri("Tabby");
+
+        assertListIndexed(PetsEntry.buildPageUri(PetsEntry.CONTENT_URI, 0, PAGE_SIZE));
+        assertListIndexed(PetsEntry.buildPageUri(PetsEntry.CONTENT_URI, 700, PAGE_SIZE));
+        assertListIndexed(PetsEntry.buildPageUri(byName, null, 0, PAGE_SIZE));
+        assertListIndexed(PetsEntry.buildPageUri(byName, "Pet 12", 13, PAGE_SIZE));
+        assertListIndexed(PetsEntry.buildSectionPageUri("P", 250, PAGE_SIZE));
+        assertListIndexed(PetsEntry.buildPageUri(female, 0, PAGE_SIZE));
+        assertListIndexed(PetsEntry.buildPageUri(female, 700, PAGE_SIZE));
+        assertListIndexed(PetsEntry.buildPageUri(femaleByName, null, 0, PAGE_SIZE));
+        assertListIndexed(PetsEntry.buildPageUri(femaleByName, "Pet 12", 14, PAGE_SIZE));
+        assertListIndexed(PetsEntry.buildPageUri(weight, null, 0, PAGE_SIZE));
+        assertListIndexed(PetsEntry.buildPageUri(weight, "7", 67, PAGE_SIZE));
+        assertListIndexed(PetsEntry.buildPageUri(search, 0, PAGE_SIZE));
+        assertListIndexed(PetsEntry.buildPageUri(search, 700, PAGE_SIZE));
+    }
+
+    @Test
+    public void pagesOfOneBreedReadARangeOfTheBreedIndex() {
+        String selection = PetsEntry.COLUMN_PET_BREED + "=?";
+        String[] selectionArgs = {"Tabby"};
+        assertIndexed(PetProvider.buildListQuery(PetsEntry.buildPageUri(PetsEntry.CONTENT_URI, 0, PAGE_SIZE),
+                CATALOG_PROJECTION, selection, selectionArgs, null));
+        assertIndexed(PetProvider.buildListQuery(PetsEntry.buildPageUri(PetsEntry.CONTENT_URI, 700, PAGE_SIZE),
+                CATALOG_PROJECTION, selection, selectionArgs, null));
+    }
+
+    @Test
+    public void sortedListsWalkAnIndex() {
+        String[] columns = {
+                PetsEntry._ID,
+                PetsEntry.COLUMN_PET_NAME,
+                PetsEntry.COLUMN_PET_BREED,
+                PetsEntry.COLUMN_PET_GENDER,
+                PetsEntry.COLUMN_PET_WEIGHT};
+        for (String column : columns) {
+            assertIndexed(PetProvider.buildListQuery(PetsEntry.CONTENT_URI, CATALOG_PROJECTION, null, null, column));
+        }
+        assertIndexed(PetProvider.buildListQuery(PetsEntry.CONTENT_URI, CATALOG_PROJECTION, null, null,
+                PetsEntry.COLUMN_PET_GENDER + "," + PetsEntry.COLUMN_PET_NAME));
+    }
+
+    @Test
+    public void countsAndSinglePetsUseAnIndex() {
+        assertIndexed(PetProvider.buildListQuery(PetsEntry.CONTENT_URI, new String[]{PetsEntry._COUNT},
+                null, null, null));
+        assertIndexed(PetProvider.buildListQuery(PetsEntry.buildGenderUri(PetsEntry.GENDER_MALE),
+                new String[]{PetsEntry._COUNT}, null, null, null));
+        assertIndexed(PetStatements.QUERY_BY_ID_SQL, "7");
+        assertIndexed(PetProvider.PURGE_SQL, "1");
+    }
+
+    @Test
+    public void summariesNeverReadThePets() {
+        String[] groups = {null, PetStatsEntry.GROUP_GENDER, PetStatsEntry.GROUP_BREED, PetStatsEntry.GROUP_WEIGHT};
+        for (String group : groups) {
+            assertIndexed(PetProvider.buildStatsQuery(group));
+        }
+        assertIndexed(PetProvider.SECTIONS_QUERY);
+    }
+
+    @Test
+    public void changesReadTheLogAfterTheSequenceOnly() {
+        // Only the pets changed since are grouped, so this one may sort: the temp b-tree holds
+        // the changes of one sync, not the table.
+        for (String step : explain(PetProvider.CHANGES_QUERY, "1", "100")) {
+            assertFalse(step, FULL_SCAN_OF_LOG.matcher(step).find());
+        }
+    }
+
+    private void assertListIndexed(Uri uri) {
+        assertIndexed(PetProvider.buildListQuery(uri, CATALOG_PROJECTION, null, null, null));
+    }
+
+    private void assertIndexed(PetProvider.ListQuery query) {
+        assertIndexed(query.toSql(), query.selectionArgs);
+    }
+
+    private void assertIndexed(String sql, String... args) {
+        for (String step : explain(sql, args)) {
+            assertFalse(sql + ": " + step, FULL_SCAN.matcher(step).find());
+            assertFalse(sql + ": " + step, step.contains(TEMP_B_TREE));
+        }
+    }
+
+    /**
+     * Return the steps of the query plan of the given SQL.
+     */
+    private List<String> explain(String sql, String... args) {
+        List<String> steps = new ArrayList<>();
+        Cursor cursor = mDb.rawQuery("EXPLAIN QUERY PLAN " + sql, args.length != 0 ? args : null);
+        try {
+            // The detail is the last column, whatever the version of SQLite
+            int detail = cursor.getColumnCount() - 1;
+            while (cursor.moveToNext()) {
+                steps.add(cursor.getString(detail));
+            }
+        } finally {
+            cursor.close();
+        }
+        return steps;
+    }
+
+    /**
+     * Fill the database with the given number of pets and tombstone every tenth, so the
+     * planner has rows to choose indexes for and the partial indexes have rows to leave out.
+     */
+    private void seed(int rows) {
+        mDb.beginTransaction();
+        SQLiteStatement insert = mDb.compileStatement("INSERT INTO " + PetsEntry.TABLE_NAME + "(" +
+                PetsEntry.COLUMN_PET_NAME + "," + PetsEntry.COLUMN_PET_BREED + "," +
+                PetsEntry.COLUMN_PET_GENDER + "," + PetsEntry.COLUMN_PET_WEIGHT + ") VALUES (?,?,?,?)");
+        try {
+            for (int i = 0; i < rows; i++) {
+                insert.bindString(1, "Pet " + i);
+                insert.bindString(2, BREEDS[i % BREEDS.length]);
+                insert.bindLong(3, i % 3);
+                insert.bindLong(4, i % 60);
+                insert.executeInsert();
+            }
+            mDb.execSQL("UPDATE " + PetsEntry.TABLE_NAME + " SET " + PetsEntry.COLUMN_PET_DELETED + "=1" +
+                    " WHERE " + PetsEntry._ID + "%10=0");
+            mDb.setTransactionSuccessful();
+        } finally {
+            insert.close();
+            mDb.endTransaction();
+        }
+    }
+}
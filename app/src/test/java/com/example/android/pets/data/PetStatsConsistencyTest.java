@@ -0,0 +1,233 @@
+package com.example.android.pets.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+
+import com.example.android.pets.data.PetContract.PetStatsEntry;
+import com.example.android.pets.data.PetContract.PetsEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Random inserts, updates, deletes, restores, purges and batches through the provider, with
+ * the summary tables kept by the triggers of {@link PetDBHelper} compared against a full
+ * recount of the pets as they go.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class PetStatsConsistencyTest {
+
+    private static final int OPERATIONS = 20000;
+
+    /**
+     * Operations between two recounts.
+     */
+    private static final int CHECK_EVERY = 500;
+
+    /**
+     * Fixed so that a failure can be reproduced.
+     */
+    private static final long SEED = 16;
+
+    private static final String[] BREEDS = {"Terrier", "Tabby", "Labrador", "Persian", "", null, "Beagle"};
+
+    private static final String[] NAMES = {"Rex", "mia", "Bella", "Zed", "\u00c9toile", "7 Dwarfs", " Spot", "Ann"};
+
+    private Context mContext;
+    private ContentResolver mResolver;
+    private PetDBHelper mHelper;
+    private Random mRandom;
+
+    /**
+     * Highest _ID inserted so far; updates and deletes pick an _ID up to it, which may be a
+     * deleted or purged pet.
+     */
+    private long mMaxId;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+        Robolectric.setupContentProvider(PetProvider.class, PetContract.CONTENT_AUTHORITY);
+        mResolver = mContext.getContentResolver();
+        mHelper = new PetDBHelper(mContext);
+        mRandom = new Random(SEED);
+    }
+
+    @After
+    public void tearDown() {
+        mHelper.close();
+    }
+
+    @Test
+    public void summariesMatchARecountAfterRandomOperations() throws Exception {
+        for (int i = 0; i < 200; i++) {
+            insert();
+        }
+        for (int operation = 1; operation <= OPERATIONS; operation++) {
+            int choice = mRandom.nextInt(100);
+            if (choice < 30) {
+                insert();
+            } else if (choice < 55) {
+                mResolver.update(randomPetUri(), randomUpdate(), null, null);
+            } else if (choice < 60) {
+                ContentValues values = new ContentValues();
+                values.put(PetsEntry.COLUMN_PET_WEIGHT, randomWeight());
+                mResolver.update(PetsEntry.CONTENT_URI, values,
+                        PetsEntry.COLUMN_PET_BREED + "=?", new String[]{randomBreedText()});
+            } else if (choice < 78) {
+                mResolver.delete(randomPetUri(), null, null);
+            } else if (choice < 80) {
+                mResolver.delete(PetsEntry.CONTENT_URI, PetsEntry.COLUMN_PET_GENDER + "=? AND " +
+                        PetsEntry.COLUMN_PET_WEIGHT + ">?", new String[]{
+                        String.valueOf(mRandom.nextInt(3)), String.valueOf(60 + mRandom.nextInt(20))});
+            } else if (choice < 88) {
+                mResolver.call(PetsEntry.CONTENT_URI, PetContract.METHOD_RESTORE,
+                        String.valueOf(ContentUris.parseId(randomPetUri())), null);
+            } else if (choice < 99) {
+                applyBatch();
+            } else if (mRandom.nextInt(10) == 0) {
+                mResolver.call(PetsEntry.CONTENT_URI, PetContract.METHOD_PURGE, "0", null);
+            }
+
+            if (operation % CHECK_EVERY == 0) {
+                assertConsistent("after " + operation + " operations");
+            }
+        }
+        assertConsistent("at the end");
+    }
+
+    /**
+     * Apply a batch of a few random operations. One batch in ten ends with an invalid insert,
+     * so the whole batch is rolled back.
+     */
+    private void applyBatch() throws Exception {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        int size = 1 + mRandom.nextInt(20);
+        for (int i = 0; i < size; i++) {
+            int choice = mRandom.nextInt(3);
+            if (choice == 0) {
+                operations.add(ContentProviderOperation.newInsert(PetsEntry.CONTENT_URI)
+                        .withValues(randomPet()).build());
+            } else if (choice == 1) {
+                operations.add(ContentProviderOperation.newUpdate(randomPetUri())
+                        .withValues(randomUpdate()).build());
+            } else {
+                operations.add(ContentProviderOperation.newDelete(randomPetUri()).build());
+            }
+        }
+        boolean rollBack = mRandom.nextInt(10) == 0;
+        if (rollBack) {
+            ContentValues invalid = randomPet();
+            invalid.put(PetsEntry.COLUMN_PET_GENDER, 9);
+            operations.add(ContentProviderOperation.newInsert(PetsEntry.CONTENT_URI).withValues(invalid).build());
+        }
+        try {
+            mResolver.applyBatch(PetContract.CONTENT_AUTHORITY, operations);
+        } catch (IllegalArgumentException e) {
+            if (!rollBack) {
+                throw e;
+            }
+            return;
+        }
+        // The inserted _IDs are only known now; they are the highest so far
+        long maxId = DatabaseUtils.longForQuery(mHelper.getReadableDatabase(),
+                "SELECT MAX(" + PetsEntry._ID + ") FROM " + PetsEntry.TABLE_NAME, null);
+        mMaxId = Math.max(mMaxId, maxId);
+    }
+
+    private void assertConsistent(String when) {
+        SQLiteDatabase db = mHelper.getReadableDatabase();
+        assertEquals("Summary groups that differ from a recount " + when, 0, PetDBHelper.countStatsMismatches(db));
+
+        // The endpoint serves the same totals
+        Cursor count = mResolver.query(PetsEntry.CONTENT_URI, new String[]{PetsEntry._COUNT}, null, null, null);
+        Cursor stats = mResolver.query(PetStatsEntry.CONTENT_URI, null, null, null, null);
+        try {
+            count.moveToFirst();
+            stats.moveToFirst();
+            assertEquals("Pets counted by the stats " + when, count.getLong(0),
+                    stats.getLong(stats.getColumnIndexOrThrow(PetStatsEntry._COUNT)));
+        } finally {
+            count.close();
+            stats.close();
+        }
+    }
+
+    private void insert() {
+        Uri uri = mResolver.insert(PetsEntry.CONTENT_URI, randomPet());
+        mMaxId = Math.max(mMaxId, ContentUris.parseId(uri));
+    }
+
+    private Uri randomPetUri() {
+        return ContentUris.withAppendedId(PetsEntry.CONTENT_URI, 1 + (long) mRandom.nextInt((int) mMaxId));
+    }
+
+    private ContentValues randomPet() {
+        ContentValues values = new ContentValues();
+        values.put(PetsEntry.COLUMN_PET_NAME, randomName());
+        values.put(PetsEntry.COLUMN_PET_BREED, randomBreed());
+        values.put(PetsEntry.COLUMN_PET_GENDER, mRandom.nextInt(3));
+        if (mRandom.nextInt(5) != 0) {
+            values.put(PetsEntry.COLUMN_PET_WEIGHT, randomWeight());
+        }
+        return values;
+    }
+
+    /**
+     * Values for an update of one to four of the columns the summaries count.
+     */
+    private ContentValues randomUpdate() {
+        ContentValues values = new ContentValues();
+        do {
+            if (mRandom.nextBoolean()) {
+                values.put(PetsEntry.COLUMN_PET_NAME, randomName());
+            }
+            if (mRandom.nextBoolean()) {
+                values.put(PetsEntry.COLUMN_PET_BREED, randomBreed());
+            }
+            if (mRandom.nextBoolean()) {
+                values.put(PetsEntry.COLUMN_PET_GENDER, mRandom.nextInt(3));
+            }
+            if (mRandom.nextBoolean()) {
+                values.put(PetsEntry.COLUMN_PET_WEIGHT, randomWeight());
+            }
+        } while (values.size() == 0);
+        return values;
+    }
+
+    private String randomName() {
+        return NAMES[mRandom.nextInt(NAMES.length)] + " " + mRandom.nextInt(1000);
+    }
+
+    private String randomBreed() {
+        return BREEDS[mRandom.nextInt(BREEDS.length)];
+    }
+
+    private String randomBreedText() {
+        String breed = randomBreed();
+        return breed != null ? breed : "";
+    }
+
+    private int randomWeight() {
+        return mRandom.nextInt(80);
+    }
+}
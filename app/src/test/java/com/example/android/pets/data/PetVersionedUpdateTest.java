@@ -0,0 +1,130 @@
+package com.example.android.pets.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.example.android.pets.data.PetContract.PetsEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Updates of a pet at the version it was read at, see
+ * {@link PetContract#QUERY_PARAMETER_EXPECTED_VERSION}: they write the pet if nobody else did
+ * since, report a conflict if someone did, and find nothing to write if it was deleted.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class PetVersionedUpdateTest {
+
+    private ContentResolver mResolver;
+    private Uri mPetUri;
+
+    @Before
+    public void setUp() {
+        Robolectric.setupContentProvider(PetProvider.class, PetContract.CONTENT_AUTHORITY);
+        mResolver = RuntimeEnvironment.application.getContentResolver();
+        ContentValues values = new ContentValues();
+        values.put(PetsEntry.COLUMN_PET_NAME, "Rex");
+        values.put(PetsEntry.COLUMN_PET_BREED, "Terrier");
+        values.put(PetsEntry.COLUMN_PET_GENDER, PetsEntry.GENDER_MALE);
+        values.put(PetsEntry.COLUMN_PET_WEIGHT, 12);
+        mPetUri = mResolver.insert(PetsEntry.CONTENT_URI, values);
+    }
+
+    @Test
+    public void updateAtTheCurrentVersionWritesThePet() {
+        long version = readVersion();
+
+        assertEquals(1, mResolver.update(PetsEntry.buildVersionedUri(mPetUri, version), weight(14), null, null));
+
+        assertEquals(version + 1, readVersion());
+        assertEquals(14, readWeight());
+    }
+
+    @Test
+    public void updateAtAnOlderVersionIsAConflict() {
+        long version = readVersion();
+        mResolver.update(mPetUri, weight(14), null, null);
+
+        try {
+            mResolver.update(PetsEntry.buildVersionedUri(mPetUri, version), weight(20), null, null);
+            fail("Overwrote a pet changed since it was read");
+        } catch (PetConflictException expected) {
+            // Someone else's weight is kept
+        }
+        assertEquals(version + 1, readVersion());
+        assertEquals(14, readWeight());
+    }
+
+    @Test
+    public void updateOfADeletedPetWritesNothing() {
+        long version = readVersion();
+        mResolver.delete(mPetUri, null, null);
+
+        assertEquals(0, mResolver.update(PetsEntry.buildVersionedUri(mPetUri, version), weight(20), null, null));
+    }
+
+    @Test
+    public void conflictRollsBackItsBatch() throws Exception {
+        long version = readVersion();
+        mResolver.update(mPetUri, weight(14), null, null);
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        operations.add(ContentProviderOperation.newUpdate(mPetUri)
+                .withValue(PetsEntry.COLUMN_PET_NAME, "Max").build());
+        operations.add(ContentProviderOperation.newUpdate(PetsEntry.buildVersionedUri(mPetUri, version))
+                .withValue(PetsEntry.COLUMN_PET_WEIGHT, 20).build());
+        try {
+            mResolver.applyBatch(PetContract.CONTENT_AUTHORITY, operations);
+            fail("Applied a batch with a conflicting update");
+        } catch (PetConflictException expected) {
+            // The rename before it is rolled back too
+        }
+
+        Cursor cursor = mResolver.query(mPetUri, new String[]{PetsEntry.COLUMN_PET_NAME}, null, null, null);
+        cursor.moveToFirst();
+        assertEquals("Rex", cursor.getString(0));
+        cursor.close();
+        assertEquals(version + 1, readVersion());
+    }
+
+    private long readVersion() {
+        Cursor cursor = mResolver.query(mPetUri, new String[]{PetsEntry.COLUMN_PET_VERSION}, null, null, null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private int readWeight() {
+        Cursor cursor = mResolver.query(mPetUri, new String[]{PetsEntry.COLUMN_PET_WEIGHT}, null, null, null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getInt(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static ContentValues weight(int weight) {
+        ContentValues values = new ContentValues();
+        values.put(PetsEntry.COLUMN_PET_WEIGHT, weight);
+        return values;
+    }
+}
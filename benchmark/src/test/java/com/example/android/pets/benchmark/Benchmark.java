@@ -0,0 +1,113 @@
+package com.example.android.pets.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Measuring loop for the data layer benchmarks. Runs an operation a number of times after a
+ * warm-up, then prints its throughput, latency percentiles and the bytes allocated per
+ * operation on the calling thread.
+ */
+final class Benchmark {
+
+    interface Operation {
+        /**
+         * Run the operation once. i counts the runs, warm-up included, so operations can pick
+         * a different row each time.
+         */
+        void run(int i) throws Exception;
+    }
+
+    /**
+     * Throughput and allocation of one measured operation.
+     */
+    static final class Result {
+        final double opsPerSecond;
+        final long bytesPerOperation;
+
+        Result(double opsPerSecond, long bytesPerOperation) {
+            this.opsPerSecond = opsPerSecond;
+            this.bytesPerOperation = bytesPerOperation;
+        }
+    }
+
+    private static final com.sun.management.ThreadMXBean THREAD_MX_BEAN =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private Benchmark() {
+    }
+
+    /**
+     * Table sizes to run the benchmarks at, from the benchmark.sizes system property. Only a
+     * small table by default, so a run checks the results of every operation quickly.
+     */
+    static int[] sizes() {
+        String[] values = System.getProperty("benchmark.sizes", "1000").split(",");
+        int[] sizes = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            sizes[i] = Integer.parseInt(values[i].trim());
+        }
+        return sizes;
+    }
+
+    /**
+     * Whether to fail on results slower than expected, from the benchmark.timing system
+     * property. Off by default: timings depend on the machine and on what else runs on it.
+     */
+    static boolean checksTimings() {
+        return Boolean.getBoolean("benchmark.timing");
+    }
+
+    static Result measure(String name, int rows, int warmup, int iterations, Operation operation)
+            throws Exception {
+        for (int i = 0; i < warmup; i++) {
+            operation.run(i);
+        }
+
+        long[] latencies = new long[iterations];
+        long threadId = Thread.currentThread().getId();
+        long allocatedBefore = THREAD_MX_BEAN.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            long operationStart = System.nanoTime();
+            operation.run(warmup + i);
+            latencies[i] = System.nanoTime() - operationStart;
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocated = THREAD_MX_BEAN.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+        Arrays.sort(latencies);
+        double opsPerSecond = iterations * 1e9 / elapsed;
+        long bytesPerOperation = allocated / iterations;
+        System.out.println(String.format(Locale.US,
+                "%-22s rows=%-8d ops/s=%11.1f p50=%9.1fus p95=%9.1fus p99=%9.1fus alloc/op=%9d B",
+                name, rows,
+                opsPerSecond,
+                percentile(latencies, 50) / 1e3,
+                percentile(latencies, 95) / 1e3,
+                percentile(latencies, 99) / 1e3,
+                bytesPerOperation));
+        return new Result(opsPerSecond, bytesPerOperation);
+    }
+
+    /**
+     * Print the percentiles of latencies measured elsewhere, e.g. on several threads at once.
+     */
+    static void printLatencies(String name, int rows, long[] latencies) {
+        long[] sorted = latencies.clone();
+        Arrays.sort(sorted);
+        System.out.println(String.format(Locale.US,
+                "%-22s rows=%-8d ops=%-9d p50=%9.1fus p95=%9.1fus p99=%9.1fus max=%9.1fus",
+                name, rows,
+                sorted.length,
+                percentile(sorted, 50) / 1e3,
+                percentile(sorted, 95) / 1e3,
+                percentile(sorted, 99) / 1e3,
+                sorted[sorted.length - 1] / 1e3));
+    }
+
+    private static long percentile(long[] sorted, int percentile) {
+        return sorted[Math.min(sorted.length - 1, sorted.length * percentile / 100)];
+    }
+}
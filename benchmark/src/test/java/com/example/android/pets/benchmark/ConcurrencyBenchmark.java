@@ -0,0 +1,293 @@
+package com.example.android.pets.benchmark;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.example.android.pets.data.PetContract;
+import com.example.android.pets.data.PetContract.PetsEntry;
+import com.example.android.pets.data.PetProvider;
+import com.example.android.pets.data.PetWriter;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Catalog reads while the app writes: several threads page through the catalog, first alone
+ * and then while {@link PetWriter} inserts, updates and deletes single pets and another thread
+ * applies batches. Prints the latency percentiles of a page read in both cases, and fails if
+ * any read or write fails, e.g. on a locked database, or if a reader sees part of a batch.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class ConcurrencyBenchmark {
+
+    private static final String[] BREEDS = {"Terrier", "Tabby", "Labrador", "Persian", "", "Beagle"};
+
+    private static final String[] CATALOG_PROJECTION = {
+            PetsEntry._ID,
+            PetsEntry.COLUMN_PET_NAME,
+            PetsEntry.COLUMN_PET_BREED};
+
+    private static final String[] BATCH_PROJECTION = {
+            PetsEntry._ID,
+            PetsEntry.COLUMN_PET_WEIGHT};
+
+    private static final int SEED_ROWS = 10000;
+    private static final int PAGE_SIZE = 100;
+    private static final int READERS = 4;
+    private static final int READS_PER_READER = 1000;
+
+    /**
+     * Pets of each batch, fewer than a page so a reader gets them all in one query.
+     */
+    private static final int BATCH_SIZE = 50;
+
+    /**
+     * Pets inserted, updated and deleted through {@link PetWriter}.
+     */
+    private static final int WRITER_PETS = 200;
+
+    private static final int UPDATED_WEIGHT = 60;
+    private static final long WRITER_TIMEOUT_MILLIS = 60000;
+
+    private Context mContext;
+    private ContentResolver mResolver;
+    private long mFirstId;
+
+    private final List<Throwable> mFailures = Collections.synchronizedList(new ArrayList<Throwable>());
+
+    /**
+     * Number of the batch the batch writer is on.
+     */
+    private final AtomicInteger mBatch = new AtomicInteger();
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+        Robolectric.setupContentProvider(PetProvider.class, PetContract.CONTENT_AUTHORITY);
+        mResolver = mContext.getContentResolver();
+    }
+
+    @Test
+    public void readsWhileWriting() throws Exception {
+        seed();
+        Benchmark.printLatencies("page read", SEED_ROWS, readConcurrently());
+
+        final AtomicBoolean stop = new AtomicBoolean();
+        Thread batchWriter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (!stop.get()) {
+                        writeBatch(mBatch.incrementAndGet());
+                    }
+                } catch (Throwable t) {
+                    mFailures.add(t);
+                }
+            }
+        }, "batch writer");
+        PetWriter writer = PetWriter.getInstance(mContext);
+        batchWriter.start();
+        for (int i = 0; i < WRITER_PETS; i++) {
+            writer.insert(PetsEntry.CONTENT_URI, pet("Writer " + i, i), null);
+            ContentValues weight = new ContentValues();
+            weight.put(PetsEntry.COLUMN_PET_WEIGHT, UPDATED_WEIGHT);
+            writer.update(petUri(mFirstId + i), weight, null);
+            writer.delete(petUri(mFirstId + SEED_ROWS - 1 - i), null);
+        }
+        long[] latencies = readConcurrently();
+        stop.set(true);
+        batchWriter.join();
+        awaitWriter(writer);
+
+        Benchmark.printLatencies("page read + writes", SEED_ROWS, latencies);
+        System.out.println("Batches written: " + mBatch.get());
+        assertEquals("Failures: " + mFailures, 0, mFailures.size());
+
+        // Every write of the writer landed, and the batches left nothing behind
+        Cursor count = mResolver.query(PetsEntry.CONTENT_URI, new String[]{PetsEntry._COUNT}, null, null, null);
+        count.moveToFirst();
+        assertEquals(SEED_ROWS + 1, count.getInt(0));
+        count.close();
+        for (int i = 0; i < WRITER_PETS; i++) {
+            Cursor cursor = mResolver.query(petUri(mFirstId + i), null, null, null, null);
+            cursor.moveToFirst();
+            assertEquals(UPDATED_WEIGHT, cursor.getInt(cursor.getColumnIndex(PetsEntry.COLUMN_PET_WEIGHT)));
+            cursor.close();
+        }
+    }
+
+    /**
+     * Run {@link #READERS} threads each reading {@link #READS_PER_READER} pages of the catalog
+     * and the current batch, and return the latency of every page read.
+     */
+    private long[] readConcurrently() throws InterruptedException {
+        final long[] latencies = new long[READERS * READS_PER_READER];
+        Thread[] readers = new Thread[READERS];
+        for (int r = 0; r < READERS; r++) {
+            final int reader = r;
+            readers[r] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        long afterId = 0;
+                        for (int i = 0; i < READS_PER_READER; i++) {
+                            long start = System.nanoTime();
+                            afterId = readPage(afterId);
+                            latencies[reader * READS_PER_READER + i] = System.nanoTime() - start;
+                            checkBatch(mBatch.get());
+                        }
+                    } catch (Throwable t) {
+                        mFailures.add(t);
+                    }
+                }
+            }, "reader " + r);
+            readers[r].start();
+        }
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        return latencies;
+    }
+
+    /**
+     * Read the catalog page after the given _ID, and return the _ID to read the next page
+     * after, starting over at the end of the catalog.
+     */
+    private long readPage(long afterId) {
+        Cursor cursor = mResolver.query(PetsEntry.buildPageUri(PetsEntry.CONTENT_URI, afterId, PAGE_SIZE),
+                CATALOG_PROJECTION, null, null, null);
+        try {
+            long lastId = 0;
+            while (cursor.moveToNext()) {
+                lastId = cursor.getLong(0);
+                cursor.getString(1);
+            }
+            return cursor.getCount() < PAGE_SIZE ? 0 : lastId;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Check that the pets of the given batch are either all there, with the same weight, or
+     * not there at all.
+     */
+    private void checkBatch(int batch) {
+        Cursor cursor = mResolver.query(PetsEntry.buildPageUri(PetsEntry.CONTENT_URI, 0, PAGE_SIZE),
+                BATCH_PROJECTION, PetsEntry.COLUMN_PET_BREED + "=?", new String[]{batchBreed(batch)}, null);
+        try {
+            int count = cursor.getCount();
+            if (count != 0 && count != BATCH_SIZE) {
+                throw new AssertionError("Read " + count + " of the " + BATCH_SIZE + " pets of batch " + batch);
+            }
+            if (cursor.moveToFirst()) {
+                int weight = cursor.getInt(1);
+                while (cursor.moveToNext()) {
+                    if (cursor.getInt(1) != weight) {
+                        throw new AssertionError("Read a half updated batch " + batch);
+                    }
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Insert the pets of a batch, update them all and delete them again, each step one batch.
+     */
+    private void writeBatch(int batch) throws Exception {
+        String[] breed = {batchBreed(batch)};
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            ContentValues values = pet("Batch pet " + i, i);
+            values.put(PetsEntry.COLUMN_PET_BREED, breed[0]);
+            values.put(PetsEntry.COLUMN_PET_WEIGHT, 1);
+            operations.add(ContentProviderOperation.newInsert(PetsEntry.CONTENT_URI).withValues(values).build());
+        }
+        mResolver.applyBatch(PetContract.CONTENT_AUTHORITY, operations);
+
+        operations.clear();
+        operations.add(ContentProviderOperation.newUpdate(PetsEntry.CONTENT_URI)
+                .withSelection(PetsEntry.COLUMN_PET_BREED + "=?", breed)
+                .withValue(PetsEntry.COLUMN_PET_WEIGHT, 2)
+                .build());
+        mResolver.applyBatch(PetContract.CONTENT_AUTHORITY, operations);
+
+        operations.clear();
+        operations.add(ContentProviderOperation.newDelete(PetsEntry.CONTENT_URI)
+                .withSelection(PetsEntry.COLUMN_PET_BREED + "=?", breed)
+                .build());
+        mResolver.applyBatch(PetContract.CONTENT_AUTHORITY, operations);
+    }
+
+    /**
+     * Wait for the writes queued on the writer, which runs them in order: they are done once a
+     * pet inserted after them is there.
+     */
+    private void awaitWriter(PetWriter writer) throws InterruptedException {
+        writer.insert(PetsEntry.CONTENT_URI, pet("Done", 0), null);
+        long deadline = System.currentTimeMillis() + WRITER_TIMEOUT_MILLIS;
+        while (System.currentTimeMillis() < deadline) {
+            Cursor cursor = mResolver.query(PetsEntry.buildPageUri(PetsEntry.CONTENT_URI, 0, 1),
+                    new String[]{PetsEntry._ID}, PetsEntry.COLUMN_PET_NAME + "=?", new String[]{"Done"}, null);
+            boolean done = cursor.getCount() != 0;
+            cursor.close();
+            if (done) {
+                return;
+            }
+            Thread.sleep(10);
+        }
+        throw new AssertionError("The writer did not finish in " + WRITER_TIMEOUT_MILLIS + " ms");
+    }
+
+    private void seed() {
+        ContentValues[] batch = new ContentValues[SEED_ROWS];
+        for (int i = 0; i < batch.length; i++) {
+            batch[i] = pet("Pet " + i, i);
+        }
+        mResolver.bulkInsert(PetsEntry.CONTENT_URI, batch);
+
+        Cursor cursor = mResolver.query(PetsEntry.buildPageUri(PetsEntry.CONTENT_URI, 0, 1),
+                new String[]{PetsEntry._ID}, null, null, null);
+        cursor.moveToFirst();
+        mFirstId = cursor.getLong(0);
+        cursor.close();
+    }
+
+    private static String batchBreed(int batch) {
+        return "Batch " + batch;
+    }
+
+    private static Uri petUri(long id) {
+        return ContentUris.withAppendedId(PetsEntry.CONTENT_URI, id);
+    }
+
+    private static ContentValues pet(String name, int i) {
+        ContentValues values = new ContentValues();
+        values.put(PetsEntry.COLUMN_PET_NAME, name);
+        values.put(PetsEntry.COLUMN_PET_BREED, BREEDS[i % BREEDS.length]);
+        values.put(PetsEntry.COLUMN_PET_GENDER, i % 3);
+        values.put(PetsEntry.COLUMN_PET_WEIGHT, i % 60);
+        return values;
+    }
+}
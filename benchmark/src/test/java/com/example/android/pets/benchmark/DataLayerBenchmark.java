@@ -0,0 +1,523 @@
+package com.example.android.pets.benchmark;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.view.View;
+import android.widget.ListView;
+import android.widget.TextView;
+
+import com.example.android.pets.PetCursorAdapter;
+import com.example.android.pets.R;
+import com.example.android.pets.data.PetContract;
+import com.example.android.pets.data.PetContract.PetsEntry;
+import com.example.android.pets.data.PetImporter;
+import com.example.android.pets.data.PetProvider;
+import com.example.android.pets.data.PetProviderMetrics;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.Reader;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Throughput, latency and allocation of the pets data layer at each table size of
+ * {@link Benchmark#sizes()}. Every operation goes through the ContentResolver, the way the
+ * activities use it.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class DataLayerBenchmark {
+
+    private static final String[] BREEDS = {"Terrier", "Tabby", "Labrador", "Persian", "", "Beagle"};
+
+    /**
+     * Columns of a catalog row, as CatalogActivity reads them.
+     */
+    private static final String[] CATALOG_PROJECTION = {
+            PetsEntry._ID,
+            PetsEntry.COLUMN_PET_NAME,
+            PetsEntry.COLUMN_PET_BREED,
+            PetsEntry.COLUMN_PET_WEIGHT,
+            PetsEntry.COLUMN_PET_PHOTO_VERSION};
+
+    private static final int SEED_BATCH = 10000;
+    private static final int PAGE_SIZE = 100;
+
+    /**
+     * Slowest import allowed: a million rows in a minute.
+     */
+    private static final int MIN_IMPORT_ROWS_PER_SECOND = 1000000 / 60;
+
+    private Context mContext;
+    private ContentResolver mResolver;
+    private final Random mRandom = new Random(42);
+
+    /**
+     * _ID of the first seeded pet. _IDs keep counting up across seeds, so it is looked up
+     * after every seed instead of assumed to be 1.
+     */
+    private long mFirstId;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+        Robolectric.setupContentProvider(PetProvider.class, PetContract.CONTENT_AUTHORITY);
+        mResolver = mContext.getContentResolver();
+    }
+
+    @Test
+    public void dataLayer() throws Exception {
+        Benchmark.Result firstPages = null;
+        for (final int size : Benchmark.sizes()) {
+            seed(size);
+            final int iterations = Math.min(size, 1000);
+
+            Benchmark.measure("insert", size, 100, iterations, new Benchmark.Operation() {
+                @Override
+                public void run(int i) {
+                    assertNotNull(mResolver.insert(PetsEntry.CONTENT_URI, pet(i)));
+                }
+            });
+
+            final ContentValues[] batch = new ContentValues[1000];
+            for (int i = 0; i < batch.length; i++) {
+                batch[i] = pet(i);
+            }
+            // The same 1000 rows, one insert each and then in one batch; ops/s times 1000 is
+            // rows/s before and after bulkInsert
+            Benchmark.Result oneByOne = Benchmark.measure("insert x1000", size, 2, 10, new Benchmark.Operation() {
+                @Override
+                public void run(int i) {
+                    for (ContentValues values : batch) {
+                        mResolver.insert(PetsEntry.CONTENT_URI, values);
+                    }
+                }
+            });
+            Benchmark.Result bulk = Benchmark.measure("bulkInsert x1000", size, 2, 10, new Benchmark.Operation() {
+                @Override
+                public void run(int i) {
+                    assertEquals(batch.length, mResolver.bulkInsert(PetsEntry.CONTENT_URI, batch));
+                }
+            });
+            if (Benchmark.checksTimings()) {
+                assertTrue("bulkInsert is no faster than one insert per row", bulk.opsPerSecond > oneByOne.opsPerSecond);
+            }
+
+            final int total = count();
+            Benchmark.measure("query all", size, 1, 5, new Benchmark.Operation() {
+                @Override
+                public void run(int i) {
+                    assertEquals(total, readAll(mResolver.query(PetsEntry.CONTENT_URI, CATALOG_PROJECTION,
+                            null, null, PetsEntry._ID)));
+                }
+            });
+
+            // Every seeded pet is followed by at least the pets inserted above, so pages
+            // starting at one are full
+            Benchmark.Result pages = Benchmark.measure("query page", size, 100, iterations, new Benchmark.Operation() {
+                @Override
+                public void run(int i) {
+                    long afterId = randomId(size);
+                    Cursor cursor = mResolver.query(PetsEntry.buildPageUri(PetsEntry.CONTENT_URI, afterId, PAGE_SIZE),
+                            CATALOG_PROJECTION, null, null, null);
+                    cursor.moveToFirst();
+                    assertEquals(afterId + 1, cursor.getLong(0));
+                    assertEquals(PAGE_SIZE, readAll(cursor));
+                }
+            });
+            // A keyset page is a range of an index, so its cost doesn't grow with the table
+            if (firstPages == null) {
+                firstPages = pages;
+            } else if (Benchmark.checksTimings()) {
+                assertTrue("Pages of " + size + " pets are more than 4 times slower than of " + Benchmark.sizes()[0],
+                        pages.opsPerSecond * 4 > firstPages.opsPerSecond);
+            }
+
+            // Pages of the typed lists start at a random pet, and should cost the same as the
+            // paged query above at every size
+            Benchmark.measure("query gender page", size, 100, iterations, new Benchmark.Operation() {
+                @Override
+                public void run(int i) {
+                    Uri page = PetsEntry.buildPageUri(PetsEntry.buildGenderUri(i % 3), randomId(size), PAGE_SIZE);
+                    assertEquals(PAGE_SIZE, readAll(mResolver.query(page, CATALOG_PROJECTION, null, null, null)));
+                }
+            });
+
+            Benchmark.measure("query weight page", size, 100, iterations, new Benchmark.Operation() {
+                @Override
+                public void run(int i) {
+                    Uri page = PetsEntry.buildPageUri(PetsEntry.buildWeightUri(10, 30),
+                            String.valueOf(10 + i % 20), randomId(size), PAGE_SIZE);
+                    Cursor cursor = mResolver.query(page, CATALOG_PROJECTION, null, null, null);
+                    while (cursor.moveToNext()) {
+                        int weight = cursor.getInt(3);
+                        assertTrue("Weight " + weight + " outside 10-30", weight >= 10 + i % 20 && weight <= 30);
+                    }
+                    assertEquals(PAGE_SIZE, readAll(cursor));
+                }
+            });
+
+            Benchmark.measure("query name page", size, 100, iterations, new Benchmark.Operation() {
+                @Override
+                public void run(int i) {
+                    String afterName = "Pet " + mRandom.nextInt(size);
+                    Uri page = PetsEntry.buildPageUri(
+                            PetsEntry.buildSortedUri(PetsEntry.CONTENT_URI, PetContract.SORT_NAME),
+                            afterName, 0, PAGE_SIZE);
+                    Cursor cursor = mResolver.query(page, CATALOG_PROJECTION, null, null, null);
+                    String previous = afterName;
+                    while (cursor.moveToNext()) {
+                        String name = cursor.getString(1);
+                        assertTrue(name + " listed after " + previous, name.compareTo(previous) >= 0);
+                        previous = name;
+                    }
+                    assertTrue(readAll(cursor) <= PAGE_SIZE);
+                }
+            });
+
+            Benchmark.measure("query sections", size, 10, 100, new Benchmark.Operation() {
+                @Override
+                public void run(int i) {
+                    assertEquals(total, sum(mResolver.query(PetContract.PetSectionsEntry.CONTENT_URI,
+                            null, null, null, null), PetContract.PetSectionsEntry._COUNT));
+                }
+            });
+
+            // Jump to a letter: the first page of a section
+            Benchmark.measure("query section page", size, 100, iterations, new Benchmark.Operation() {
+                @Override
+                public void run(int i) {
+                    Cursor cursor = mResolver.query(PetsEntry.buildSectionPageUri("P", 0, PAGE_SIZE),
+                            CATALOG_PROJECTION, null, null, null);
+                    while (cursor.moveToNext()) {
+                        assertTrue(cursor.getString(1).startsWith("P"));
+                    }
+                    assertEquals(PAGE_SIZE, readAll(cursor));
+                }
+            });
+
+            Benchmark.measure("query by id", size, 100, iterations, new Benchmark.Operation() {
+                @Override
+                public void run(int i) {
+                    long id = randomId(size);
+                    Cursor cursor = mResolver.query(petUri(id), null, null, null, null);
+                    cursor.moveToFirst();
+                    assertEquals(id, cursor.getLong(cursor.getColumnIndex(PetsEntry._ID)));
+                    assertEquals(1, readAll(cursor));
+                }
+            });
+
+            Benchmark.measure("query stats by breed", size, 10, 100, new Benchmark.Operation() {
+                @Override
+                public void run(int i) {
+                    assertEquals(total, sum(mResolver.query(PetContract.PetStatsEntry.buildGroupUri(
+                            PetContract.PetStatsEntry.GROUP_BREED), null, null, null, null),
+                            PetContract.PetStatsEntry._COUNT));
+                }
+            });
+
+            Benchmark.Result byId = Benchmark.measure("update by id", size, 100, iterations, new Benchmark.Operation() {
+                @Override
+                public void run(int i) {
+                    assertEquals(1, mResolver.update(petUri(randomId(size)), pet(i), null, null));
+                }
+            });
+
+            // The same update through a selection, which builds and compiles its SQL on every
+            // call, against the pooled statement of an update by _ID
+            final String[] selectionArgs = new String[1];
+            Benchmark.Result bySelection = Benchmark.measure("update by selection", size, 100, iterations,
+                    new Benchmark.Operation() {
+                        @Override
+                        public void run(int i) {
+                            selectionArgs[0] = String.valueOf(randomId(size));
+                            assertEquals(1, mResolver.update(PetsEntry.CONTENT_URI, pet(i),
+                                    PetsEntry._ID + "=?", selectionArgs));
+                        }
+                    });
+            assertTrue("Updating by _ID allocates no less than updating by selection",
+                    byId.bytesPerOperation < bySelection.bytesPerOperation);
+
+            // A consumer catching up on the last page of changes, here the updates above; the
+            // reset row of a query since 0 holds the last sequence
+            Cursor reset = mResolver.query(PetContract.PetChangesEntry.buildChangesUri(0, 1), null, null, null, null);
+            reset.moveToFirst();
+            final long since = reset.getLong(reset.getColumnIndex(PetContract.PetChangesEntry.COLUMN_SEQUENCE)) - PAGE_SIZE;
+            reset.close();
+            Benchmark.measure("query changes", size, 100, iterations, new Benchmark.Operation() {
+                @Override
+                public void run(int i) {
+                    int changes = readAll(mResolver.query(PetContract.PetChangesEntry.buildChangesUri(since, PAGE_SIZE),
+                            null, null, null, null));
+                    assertTrue(changes + " changes", changes > 0 && changes <= PAGE_SIZE);
+                }
+            });
+
+            Benchmark.measure("delete by id", size, 0, iterations, new Benchmark.Operation() {
+                @Override
+                public void run(int i) {
+                    // Walk the seeded ids, so every run deletes an existing row
+                    assertEquals(1, mResolver.delete(petUri(mFirstId + i), null, null));
+                }
+            });
+        }
+    }
+
+    @Test
+    public void cursorBinding() throws Exception {
+        seed(PAGE_SIZE);
+        final Cursor cursor = mResolver.query(
+                PetsEntry.buildPageUri(PetsEntry.CONTENT_URI, 0, PAGE_SIZE), CATALOG_PROJECTION, null, null, null);
+        final PetCursorAdapter adapter = new PetCursorAdapter(mContext, cursor);
+        ListView parent = new ListView(mContext);
+        cursor.moveToFirst();
+        final View view = adapter.newView(mContext, cursor, parent);
+
+        Benchmark.measure("bindView", PAGE_SIZE, 1000, 10000, new Benchmark.Operation() {
+            @Override
+            public void run(int i) {
+                cursor.moveToPosition(i % PAGE_SIZE);
+                adapter.bindView(view, mContext, cursor);
+            }
+        });
+
+        // The last bind, of the last pet of the page, shows its name and breed
+        TextView name = (TextView) view.findViewById(R.id.name);
+        TextView summary = (TextView) view.findViewById(R.id.summary);
+        assertEquals(pet(PAGE_SIZE - 1).getAsString(PetsEntry.COLUMN_PET_NAME), name.getText().toString());
+        assertEquals(pet(PAGE_SIZE - 1).getAsString(PetsEntry.COLUMN_PET_BREED), summary.getText().toString());
+        cursor.close();
+    }
+
+    /**
+     * Time from a freshly created provider, as after a cold start of the app, to the first row
+     * of the catalog, without and with the warm-up the application runs at startup.
+     */
+    @Test
+    public void startup() throws Exception {
+        for (final int size : Benchmark.sizes()) {
+            seed(size);
+            Benchmark.measure("start to first row", size, 2, 20, new Benchmark.Operation() {
+                @Override
+                public void run(int i) {
+                    Robolectric.setupContentProvider(PetProvider.class, PetContract.CONTENT_AUTHORITY);
+                    readFirstPage();
+                }
+            });
+            Benchmark.measure("warm up + first row", size, 2, 20, new Benchmark.Operation() {
+                @Override
+                public void run(int i) {
+                    Robolectric.setupContentProvider(PetProvider.class, PetContract.CONTENT_AUTHORITY);
+                    mResolver.call(PetsEntry.CONTENT_URI, PetContract.METHOD_WARM_UP, null, null);
+                    readFirstPage();
+                }
+            });
+        }
+    }
+
+    private void readFirstPage() {
+        Cursor cursor = mResolver.query(PetsEntry.buildPageUri(PetsEntry.CONTENT_URI, 0, PAGE_SIZE),
+                CATALOG_PROJECTION, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals(mFirstId, cursor.getLong(0));
+        assertEquals("Pet 0", cursor.getString(1));
+        cursor.close();
+    }
+
+    /**
+     * Cost the provider adds to every call to time it. Compare with the p50 of the fastest
+     * call, "query by id", to check it stays under 1%.
+     */
+    @Test
+    public void metricsOverhead() throws Exception {
+        final int size = 1000;
+        seed(size);
+        Benchmark.Result query = Benchmark.measure("query by id", size, 100, 1000, new Benchmark.Operation() {
+            @Override
+            public void run(int i) {
+                readAll(mResolver.query(petUri(randomId(size)), null, null, null, null));
+            }
+        });
+        final PetProviderMetrics metrics = new PetProviderMetrics(PetProvider.PETS, new String[]{"pets", "pets/#"});
+        Benchmark.Result record = Benchmark.measure("metrics record", 0, 10000, 1000000, new Benchmark.Operation() {
+            @Override
+            public void run(int i) {
+                metrics.record(PetProviderMetrics.QUERY, PetProvider.PETS_ID, metrics.start(), 1);
+            }
+        });
+        if (Benchmark.checksTimings()) {
+            assertTrue("Timing a call costs more than 1% of a query by id",
+                    record.opsPerSecond > 100 * query.opsPerSecond);
+        }
+
+        // The provider counted every query by id above
+        Cursor cursor = mResolver.query(PetContract.PetMetricsEntry.CONTENT_URI, null, null, null, null);
+        long calls = 0;
+        while (cursor.moveToNext()) {
+            if ("query".equals(cursor.getString(cursor.getColumnIndex(PetContract.PetMetricsEntry.COLUMN_OPERATION)))
+                    && "pets/#".equals(cursor.getString(cursor.getColumnIndex(PetContract.PetMetricsEntry.COLUMN_URI)))) {
+                calls = cursor.getLong(cursor.getColumnIndex(PetContract.PetMetricsEntry._COUNT));
+            }
+        }
+        cursor.close();
+        assertEquals(1100, calls);
+    }
+
+    @Test
+    public void importer() throws Exception {
+        for (final int size : Benchmark.sizes()) {
+            Benchmark.Result imported = Benchmark.measure("import csv", size, 0, 1, new Benchmark.Operation() {
+                @Override
+                public void run(int i) throws Exception {
+                    mResolver.delete(PetsEntry.CONTENT_URI, null, null);
+                    PetImporter.Result result = new PetImporter(mResolver, null, null).importCsv(new GeneratedCsv(size));
+                    assertEquals(size, result.rowsImported);
+                    assertEquals(0, result.rowsRejected);
+                }
+            });
+            assertEquals(size, count());
+            // Small imports are mostly the cost of the first run, not of the rows
+            if (size >= 100000 && Benchmark.checksTimings()) {
+                assertTrue("Imported " + size * imported.opsPerSecond + " rows/s",
+                        size * imported.opsPerSecond >= MIN_IMPORT_ROWS_PER_SECOND);
+            }
+        }
+    }
+
+    /**
+     * Replace the pets table with the given number of pets.
+     */
+    private void seed(int rows) {
+        mResolver.delete(PetsEntry.CONTENT_URI, null, null);
+        // Deletes leave tombstones; remove them so every size starts from an empty table
+        mResolver.call(PetsEntry.CONTENT_URI, PetContract.METHOD_PURGE, "0", null);
+        ContentValues[] batch = new ContentValues[Math.min(rows, SEED_BATCH)];
+        for (int inserted = 0; inserted < rows; inserted += batch.length) {
+            if (rows - inserted < batch.length) {
+                batch = new ContentValues[rows - inserted];
+            }
+            for (int i = 0; i < batch.length; i++) {
+                batch[i] = pet(inserted + i);
+            }
+            mResolver.bulkInsert(PetsEntry.CONTENT_URI, batch);
+        }
+        assertEquals(rows, count());
+
+        Cursor cursor = mResolver.query(PetsEntry.buildPageUri(PetsEntry.CONTENT_URI, 0, 1),
+                new String[]{PetsEntry._ID}, null, null, null);
+        cursor.moveToFirst();
+        mFirstId = cursor.getLong(0);
+        cursor.close();
+    }
+
+    private long randomId(int size) {
+        return mFirstId + mRandom.nextInt(size);
+    }
+
+    private static Uri petUri(long id) {
+        return ContentUris.withAppendedId(PetsEntry.CONTENT_URI, id);
+    }
+
+    private static ContentValues pet(int i) {
+        ContentValues values = new ContentValues();
+        values.put(PetsEntry.COLUMN_PET_NAME, "Pet " + i);
+        values.put(PetsEntry.COLUMN_PET_BREED, BREEDS[i % BREEDS.length]);
+        values.put(PetsEntry.COLUMN_PET_GENDER, i % 3);
+        values.put(PetsEntry.COLUMN_PET_WEIGHT, i % 60);
+        return values;
+    }
+
+    /**
+     * Read the rest of the rows of the cursor and close it.
+     *
+     * @return the number of rows of the cursor
+     */
+    private static int readAll(Cursor cursor) {
+        while (cursor.moveToNext()) {
+            cursor.getString(1);
+        }
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+
+    /**
+     * Add up a column over the rows of the cursor, and close it.
+     */
+    private static int sum(Cursor cursor, String column) {
+        int columnIndex = cursor.getColumnIndex(column);
+        int sum = 0;
+        while (cursor.moveToNext()) {
+            sum += cursor.getInt(columnIndex);
+        }
+        cursor.close();
+        return sum;
+    }
+
+    /**
+     * Return the number of pets, deleted ones aside.
+     */
+    private int count() {
+        Cursor cursor = mResolver.query(PetsEntry.CONTENT_URI, new String[]{PetsEntry._COUNT}, null, null, null);
+        cursor.moveToFirst();
+        int count = cursor.getInt(0);
+        cursor.close();
+        return count;
+    }
+
+    /**
+     * CSV file of generated pets, produced line by line as it is read so that even millions of
+     * rows take no memory.
+     */
+    private static class GeneratedCsv extends Reader {
+        private final int mRows;
+        private int mRow = -1;
+        private final StringBuilder mLine = new StringBuilder("name,breed,gender,weight\n");
+        private int mPosition;
+
+        GeneratedCsv(int rows) {
+            mRows = rows;
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) {
+            int read = 0;
+            while (read < length) {
+                if (mPosition == mLine.length()) {
+                    if (++mRow == mRows) {
+                        break;
+                    }
+                    mLine.setLength(0);
+                    mLine.append("Pet ").append(mRow).append(',')
+                            .append(BREEDS[mRow % BREEDS.length]).append(',')
+                            .append(mRow % 3).append(',')
+                            .append(mRow % 60).append('\n');
+                    mPosition = 0;
+                }
+                int count = Math.min(length - read, mLine.length() - mPosition);
+                mLine.getChars(mPosition, mPosition + count, buffer, offset + read);
+                mPosition += count;
+                read += count;
+            }
+            return read == 0 ? -1 : read;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}